@@ -0,0 +1,113 @@
+package queuemanager.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import queuemanager.ConcurrentSkipListPriorityQueue;
+import queuemanager.HeapPriorityQueue;
+import queuemanager.MultiQueuePriorityQueue;
+import queuemanager.QueueOverflowException;
+import queuemanager.QueueUnderflowException;
+
+/**
+ * Mixed producer/consumer throughput of the thread-safe queues, to be run at
+ * increasing thread counts, e.g. {@code -t 1 -t 2 -t 4 -t 8}.
+ *
+ * "LH" is a HeapPriorityQueue guarded by a single lock, as callers had to do
+ * before a concurrent implementation existed; "CSL" is the lock-free
+ * ConcurrentSkipListPriorityQueue and "MQ" the relaxed
+ * MultiQueuePriorityQueue with its default number of shards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentQueueBenchmark
+{
+
+    /**
+     * The queue shared by every benchmark thread.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedQueue
+    {
+        @Param({"LH", "CSL", "MQ"})
+        public String implementation;
+
+        @Param({"1000", "100000"})
+        public int size;
+
+        HeapPriorityQueue<Object> heap;
+        ConcurrentSkipListPriorityQueue<Object> skipList;
+        MultiQueuePriorityQueue<Object> multiQueue;
+
+        @Setup(Level.Trial)
+        public void fill() throws QueueOverflowException
+        {
+            Distribution.Generator priorities = Distribution.UNIFORM.generator(42);
+            heap = new HeapPriorityQueue<>();
+            skipList = new ConcurrentSkipListPriorityQueue<>();
+            multiQueue = new MultiQueuePriorityQueue<>();
+            for (int i = 0; i < size; ++i)
+            {
+                int priority = priorities.next();
+                heap.add(PriorityQueueBenchmark.ITEM, priority);
+                skipList.add(PriorityQueueBenchmark.ITEM, priority);
+                multiQueue.add(PriorityQueueBenchmark.ITEM, priority);
+            }
+        }
+    }
+
+
+    /**
+     * Each thread's own source of priorities.
+     */
+    @State(Scope.Thread)
+    public static class ThreadPriorities
+    {
+        Distribution.Generator priorities;
+
+        @Setup(Level.Trial)
+        public void create()
+        {
+            priorities = Distribution.UNIFORM.generator(System.identityHashCode(this));
+        }
+    }
+
+
+    @Benchmark
+    public Object addPoll(SharedQueue s, ThreadPriorities t)
+        throws QueueOverflowException, QueueUnderflowException
+    {
+        int priority = t.priorities.next();
+        if (s.implementation.equals("CSL"))
+        {
+            s.skipList.add(PriorityQueueBenchmark.ITEM, priority);
+            return s.skipList.poll();
+        }
+        if (s.implementation.equals("MQ"))
+        {
+            s.multiQueue.add(PriorityQueueBenchmark.ITEM, priority);
+            return s.multiQueue.poll();
+        }
+
+        synchronized (s.heap)
+        {
+            s.heap.add(PriorityQueueBenchmark.ITEM, priority);
+            Object head = s.heap.head();
+            s.heap.remove();
+            return head;
+        }
+    }
+}
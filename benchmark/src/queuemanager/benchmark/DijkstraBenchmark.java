@@ -0,0 +1,117 @@
+package queuemanager.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import queuemanager.PriorityQueue;
+import queuemanager.QueueOverflowException;
+import queuemanager.QueueUnderflowException;
+
+/**
+ * Single source shortest paths over a random sparse graph, comparing the
+ * radix heap ("RH") with the general purpose heaps on the monotone workload
+ * it is designed for.
+ *
+ * The queue holds node numbers with the negated tentative distance as the
+ * priority. Nodes are not removed when a shorter path is found; stale
+ * entries are skipped when they reach the head instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DijkstraBenchmark
+{
+
+    /**
+     * Edges leaving each node.
+     */
+    static final int DEGREE = 8;
+
+    /**
+     * Edge weights are drawn from 1 to MAX_WEIGHT.
+     */
+    static final int MAX_WEIGHT = 1000;
+
+    @Param({"H", "PH", "D4", "RH"})
+    public String implementation;
+
+    @Param({"10000", "1000000"})
+    public int nodes;
+
+    /* The graph in compressed form: the edges of node n are at indexes
+     * n * DEGREE to (n + 1) * DEGREE - 1. */
+    int[] targets;
+    int[] weights;
+
+    int[] distances;
+    Integer[] boxedNodes;
+
+
+    @Setup(Level.Trial)
+    public void buildGraph()
+    {
+        Random random = new Random(42);
+        targets = new int[nodes * DEGREE];
+        weights = new int[nodes * DEGREE];
+        for (int i = 0; i < targets.length; ++i)
+        {
+            targets[i] = random.nextInt(nodes);
+            weights[i] = 1 + random.nextInt(MAX_WEIGHT);
+        }
+
+        /* Box every node up front so the queues are not measured boxing. */
+        distances = new int[nodes];
+        boxedNodes = new Integer[nodes];
+        for (int i = 0; i < nodes; ++i)
+            boxedNodes[i] = i;
+    }
+
+
+    @Benchmark
+    public int shortestPaths() throws QueueOverflowException, QueueUnderflowException
+    {
+        PriorityQueue<Integer> q = Implementations.create(implementation, nodes * DEGREE + 1);
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        boolean[] settled = new boolean[nodes];
+
+        distances[0] = 0;
+        q.add(boxedNodes[0], 0);
+        int reached = 0;
+        while (!q.isEmpty())
+        {
+            int node = q.head();
+            q.remove();
+            if (settled[node])
+                continue;
+            settled[node] = true;
+            ++reached;
+
+            for (int e = node * DEGREE; e < (node + 1) * DEGREE; ++e)
+            {
+                int target = targets[e];
+                int distance = distances[node] + weights[e];
+                if (distance < distances[target])
+                {
+                    distances[target] = distance;
+                    q.add(boxedNodes[target], -distance);
+                }
+            }
+        }
+        return reached;
+    }
+}
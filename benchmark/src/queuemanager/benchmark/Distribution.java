@@ -0,0 +1,93 @@
+package queuemanager.benchmark;
+
+/**
+ * The shapes of priority sequence fed to the queues under benchmark.
+ */
+public enum Distribution
+{
+    /**
+     * Priorities drawn uniformly from the whole int range.
+     */
+    UNIFORM,
+
+    /**
+     * Each priority is higher than the last; the worst case for insertion
+     * scans that start at the tail of a sorted structure.
+     */
+    ASCENDING,
+
+    /**
+     * Each priority is lower than the last.
+     */
+    DESCENDING,
+
+    /**
+     * Priorities drawn from a handful of values, so most comparisons tie.
+     */
+    FEW_DISTINCT;
+
+
+    /**
+     * Number of distinct priorities produced by FEW_DISTINCT.
+     */
+    private static final int DISTINCT_KEYS = 8;
+
+
+    /**
+     * Create a generator producing priorities with this distribution.
+     *
+     * @param seed Seed for the random distributions.
+     * @return A new generator.
+     */
+    public Generator generator(long seed)
+    {
+        return new Generator(this, seed);
+    }
+
+
+    /**
+     * Stateful source of priorities. A simple xorshift is used rather than
+     * java.util.Random so that generating a priority costs next to nothing
+     * compared to the queue operation being measured.
+     */
+    public static final class Generator
+    {
+        private final Distribution distribution;
+        private long state;
+        private int counter = 0;
+
+        private Generator(Distribution distribution, long seed)
+        {
+            this.distribution = distribution;
+            this.state = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+        }
+
+        /**
+         * The next priority in the sequence.
+         *
+         * @return A priority.
+         */
+        public int next()
+        {
+            switch (distribution)
+            {
+                case ASCENDING:
+                    return counter++;
+                case DESCENDING:
+                    return counter--;
+                case FEW_DISTINCT:
+                    return (int) ((nextRandom() >>> 33) % DISTINCT_KEYS);
+                default:
+                    return (int) (nextRandom() >>> 32);
+            }
+        }
+
+        private long nextRandom()
+        {
+            state ^= state << 13;
+            state ^= state >>> 7;
+            state ^= state << 17;
+            return state;
+        }
+    }
+}
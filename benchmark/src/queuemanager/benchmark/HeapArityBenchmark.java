@@ -0,0 +1,73 @@
+package queuemanager.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import queuemanager.PriorityQueue;
+import queuemanager.QueueOverflowException;
+import queuemanager.QueueUnderflowException;
+
+/**
+ * Compares the binary heaps against d-ary heaps of several arities once the
+ * heap is too large for the CPU caches.
+ *
+ * The workload is the classic "hold" model: remove the head, then add an
+ * item with a fresh random priority, so the heap stays at {@code size} and
+ * every remove sifts a leaf all the way down from the root.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HeapArityBenchmark
+{
+
+    /**
+     * Number of hold operations per invocation.
+     */
+    static final int BATCH = 1000;
+
+    @Param({"H", "PH", "D2", "D4", "D8"})
+    public String implementation;
+
+    @Param({"100000", "1000000", "10000000"})
+    public int size;
+
+    PriorityQueue<Object> q;
+    Distribution.Generator priorities;
+
+
+    @Setup(Level.Trial)
+    public void fill() throws QueueOverflowException
+    {
+        q = Implementations.create(implementation, size + 1);
+        priorities = Distribution.UNIFORM.generator(42);
+        for (int i = 0; i < size; ++i)
+            q.add(PriorityQueueBenchmark.ITEM, priorities.next());
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void hold() throws QueueOverflowException, QueueUnderflowException
+    {
+        for (int i = 0; i < BATCH; ++i)
+        {
+            q.remove();
+            q.add(PriorityQueueBenchmark.ITEM, priorities.next());
+        }
+    }
+}
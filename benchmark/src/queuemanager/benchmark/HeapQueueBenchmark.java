@@ -0,0 +1,23 @@
+package queuemanager.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * PriorityQueueBenchmark over the heaps, whose operations are at worst
+ * logarithmic, up to sizes well beyond the CPU caches.
+ */
+@State(Scope.Thread)
+public class HeapQueueBenchmark extends PriorityQueueBenchmark
+{
+
+    @Param({"H", "PH", "ST"})
+    public String implementation;
+
+    @Param({"10", "1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"UNIFORM", "ASCENDING", "DESCENDING", "FEW_DISTINCT"})
+    public Distribution distribution;
+}
@@ -0,0 +1,73 @@
+package queuemanager.benchmark;
+
+import java.util.Locale;
+import queuemanager.DaryHeapPriorityQueue;
+import queuemanager.HeapPriorityQueue;
+import queuemanager.InstrumentedPriorityQueue;
+import queuemanager.PrimitiveHeapPriorityQueue;
+import queuemanager.PriorityQueue;
+import queuemanager.RadixHeapPriorityQueue;
+import queuemanager.SortedArrayPriorityQueue;
+import queuemanager.SortedLinkedPriorityQueue;
+import queuemanager.StableHeapPriorityQueue;
+import queuemanager.UnsortedArrayPriorityQueue;
+import queuemanager.UnsortedLinkedPriorityQueue;
+
+/**
+ * Factory for the PriorityQueue implementations under benchmark.
+ *
+ * The codes used are the same as those accepted by QueueManager so that
+ * results can be related back to the driver program.
+ */
+public final class Implementations
+{
+
+    private Implementations()
+    {
+    }
+
+
+    /**
+     * Create a new empty queue of the given implementation.
+     *
+     * @param <T> The type of things being stored.
+     * @param code The implementation code, e.g. "H" for a heap. A d-ary heap
+     * is given as "D" followed by its arity, e.g. "D4".
+     * @param capacity The capacity to use for fixed capacity implementations.
+     * @return A new empty queue.
+     */
+    public static <T> PriorityQueue<T> create(String code, int capacity)
+    {
+        if (code.length() > 1 && (code.charAt(0) == 'D' || code.charAt(0) == 'd'))
+            return new DaryHeapPriorityQueue<>(capacity, Integer.parseInt(code.substring(1)));
+
+        switch (code.toLowerCase(Locale.ROOT))
+        {
+            case "h":
+                return new HeapPriorityQueue<>(capacity);
+            case "ih":
+                /* A heap wrapped for metrics, to measure their cost. */
+                return new InstrumentedPriorityQueue<>(new HeapPriorityQueue<T>(capacity));
+            case "iho":
+                /* The same with recording turned off. */
+                return new InstrumentedPriorityQueue<>(new HeapPriorityQueue<T>(capacity), false);
+            case "ph":
+                return new PrimitiveHeapPriorityQueue<>(capacity);
+            case "st":
+                return new StableHeapPriorityQueue<>(capacity);
+            case "rh":
+                /* Only valid for monotone workloads. */
+                return new RadixHeapPriorityQueue<>();
+            case "sa":
+                return new SortedArrayPriorityQueue<>(capacity);
+            case "ua":
+                return new UnsortedArrayPriorityQueue<>(capacity);
+            case "sl":
+                return new SortedLinkedPriorityQueue<>();
+            case "ul":
+                return new UnsortedLinkedPriorityQueue<>();
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + code);
+        }
+    }
+}
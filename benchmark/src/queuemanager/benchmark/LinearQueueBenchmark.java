@@ -0,0 +1,24 @@
+package queuemanager.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * PriorityQueueBenchmark over the array and linked list implementations.
+ * Each has a linear time add or remove, so filling them is quadratic and the
+ * sizes stop at 100,000.
+ */
+@State(Scope.Thread)
+public class LinearQueueBenchmark extends PriorityQueueBenchmark
+{
+
+    @Param({"SA", "UA", "SL", "UL"})
+    public String implementation;
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"UNIFORM", "ASCENDING", "DESCENDING", "FEW_DISTINCT"})
+    public Distribution distribution;
+}
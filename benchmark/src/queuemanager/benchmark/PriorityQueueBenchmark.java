@@ -0,0 +1,174 @@
+package queuemanager.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import queuemanager.PriorityQueue;
+import queuemanager.QueueOverflowException;
+import queuemanager.QueueUnderflowException;
+
+/**
+ * JMH benchmarks for add, head, remove, batched removal and a mixed
+ * add/remove workload over the PriorityQueue implementations.
+ *
+ * Each benchmark runs against a queue that already holds {@code size} items
+ * so that the cost measured is the cost at that size. The queue is topped up
+ * or cut back to that size before each invocation that changes it, outside
+ * of the measured region.
+ *
+ * Throughput is measured over batches of BATCH operations. Latency
+ * percentiles come from sampling single operations, as sampling a batch
+ * would only give the spread of batch averages. Run with {@code -prof gc} to
+ * get the allocation rate.
+ *
+ * The implementations and sizes are parameters of the subclasses, so that
+ * the heaps can be run at sizes the array and linked list implementations,
+ * with their linear time operations, would take far too long to set up.
+ * They are read here through BenchmarkParams.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class PriorityQueueBenchmark
+{
+
+    /**
+     * Number of operations performed per invocation of add and remove.
+     */
+    static final int BATCH = 1000;
+
+    /**
+     * Number of items taken by each drainTo call in drain, a typical batch
+     * for a consumer.
+     */
+    static final int DRAIN_CHUNK = 250;
+
+    /**
+     * The item stored. Every entry shares it so that only the queue itself
+     * allocates.
+     */
+    static final Object ITEM = new Object();
+
+
+    /**
+     * A queue of the implementation given by the {@code implementation}
+     * parameter, holding {@code size} items with priorities from the
+     * {@code distribution} parameter.
+     */
+    @State(Scope.Thread)
+    public static class QueueState
+    {
+        int size;
+
+        PriorityQueue<Object> q;
+        Distribution.Generator priorities;
+
+        @Setup(Level.Trial)
+        public void fill(BenchmarkParams params) throws QueueOverflowException
+        {
+            size = Integer.parseInt(params.getParam("size"));
+            q = Implementations.create(params.getParam("implementation"), size + BATCH);
+            priorities = Distribution.valueOf(params.getParam("distribution")).generator(42);
+            for (int i = 0; i < size; ++i)
+                q.add(ITEM, priorities.next());
+        }
+    }
+
+
+    /**
+     * Puts the queue back to {@code size} items before each invocation, for
+     * the benchmarks that add or remove.
+     */
+    public static class RefillState extends QueueState
+    {
+        @Setup(Level.Invocation)
+        public void restore() throws QueueOverflowException, QueueUnderflowException
+        {
+            while (q.size() > size)
+                q.remove();
+            while (q.size() < size)
+                q.add(ITEM, priorities.next());
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void add(RefillState s) throws QueueOverflowException
+    {
+        for (int i = 0; i < BATCH; ++i)
+            s.q.add(ITEM, s.priorities.next());
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void addSample(RefillState s) throws QueueOverflowException
+    {
+        s.q.add(ITEM, s.priorities.next());
+    }
+
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    public Object head(QueueState s) throws QueueUnderflowException
+    {
+        return s.q.head();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void remove(RefillState s) throws QueueUnderflowException
+    {
+        for (int i = 0; i < BATCH; ++i)
+            s.q.remove();
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void removeSample(RefillState s) throws QueueUnderflowException
+    {
+        s.q.remove();
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int drain(RefillState s)
+    {
+        List<Object> sink = new ArrayList<>(DRAIN_CHUNK);
+        int drained = 0;
+        for (int i = 0; i < BATCH; i += DRAIN_CHUNK)
+        {
+            sink.clear();
+            drained += s.q.drainTo(sink, DRAIN_CHUNK);
+        }
+        return drained;
+    }
+
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    public void addRemove(QueueState s) throws QueueOverflowException, QueueUnderflowException
+    {
+        s.q.add(ITEM, s.priorities.next());
+        s.q.remove();
+    }
+}
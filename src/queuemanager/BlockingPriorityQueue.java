@@ -0,0 +1,469 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe wrapper around any PriorityQueue that adds blocking operations
+ * for producer/consumer use.
+ *
+ * take() waits for an item to arrive rather than throwing
+ * QueueUnderflowException, and put() waits for space when the wrapped queue
+ * is a fixed capacity one and is full, pushing back on producers. Timed
+ * versions of both give up after a given time.
+ *
+ * Every operation on the wrapped queue is made while holding a single
+ * ReentrantLock, and waiting threads are parked on its Conditions. Unlike
+ * synchronized blocks and Object.wait(), these do not pin a virtual thread to
+ * its carrier thread while it waits.
+ *
+ * The wrapped queue must not be used directly once it has been wrapped.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class BlockingPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The queue actually storing the items.
+     */
+    private final PriorityQueue<T> queue;
+
+    /**
+     * Guards every access to queue.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when an item is added.
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * Signalled when an item is removed.
+     */
+    private final Condition notFull = lock.newCondition();
+
+
+    /**
+     * Wrap the given queue.
+     *
+     * @param queue The queue to store the items in.
+     */
+    public BlockingPriorityQueue(PriorityQueue<T> queue)
+    {
+        this.queue = queue;
+    }
+
+
+    /**
+     * Add the given item to the queue with the given priority, waiting for
+     * space if it's full.
+     *
+     * @param item
+     * @param priority
+     * @throws InterruptedException
+     */
+    public void put(T item, int priority) throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            while(true)
+            {
+                try
+                {
+                    queue.add(item, priority);
+                    notEmpty.signal();
+                    return;
+                } catch(QueueOverflowException e) {
+                    notFull.await();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Add the given item to the queue with the given priority, waiting up to
+     * the given time for space if it's full. Throw an exception if there is
+     * still no space after that.
+     *
+     * @param item
+     * @param priority
+     * @param timeout How long to wait for space.
+     * @param unit The unit of timeout.
+     * @throws QueueOverflowException
+     * @throws InterruptedException
+     */
+    public void offer(T item, int priority, long timeout, TimeUnit unit)
+        throws QueueOverflowException, InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try
+        {
+            while(true)
+            {
+                try
+                {
+                    queue.add(item, priority);
+                    notEmpty.signal();
+                    return;
+                } catch(QueueOverflowException e) {
+                    if(nanos <= 0)
+                        throw e;
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Remove the highest priority item from the queue and return it, waiting
+     * for one to be added if it's empty.
+     *
+     * @return The item that was removed.
+     * @throws InterruptedException
+     */
+    public T take() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            while(queue.isEmpty())
+                notEmpty.await();
+            return removeHead();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Remove the highest priority item from the queue and return it, waiting
+     * up to the given time for one to be added if it's empty. Throw an
+     * exception if it's still empty after that.
+     *
+     * @param timeout How long to wait for an item.
+     * @param unit The unit of timeout.
+     * @return The item that was removed.
+     * @throws QueueUnderflowException
+     * @throws InterruptedException
+     */
+    public T poll(long timeout, TimeUnit unit) throws QueueUnderflowException, InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try
+        {
+            while(queue.isEmpty())
+            {
+                if(nanos <= 0)
+                    throw new QueueUnderflowException();
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeHead();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Remove the highest priority item from the queue and return it without
+     * waiting. Throw an exception if it's empty.
+     *
+     * @return The item that was removed.
+     * @throws QueueUnderflowException
+     */
+    @Override
+    public T poll() throws QueueUnderflowException
+    {
+        lock.lock();
+        try
+        {
+            if(queue.isEmpty())
+                throw new QueueUnderflowException();
+            return removeHead();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Helper method to remove and return the head of a queue known not to be
+     * empty. Must be called while holding the lock.
+     *
+     * @return The item that was removed.
+     */
+    private T removeHead()
+    {
+        try
+        {
+            T item = queue.head();
+            queue.remove();
+            notFull.signal();
+            return item;
+        } catch(QueueUnderflowException e) {
+            /* The caller has checked the queue is not empty. */
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        lock.lock();
+        try
+        {
+            queue.add(item, priority);
+            notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        lock.lock();
+        try
+        {
+            queue.addAll(items);
+            notEmpty.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        lock.lock();
+        try
+        {
+            return queue.head();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        lock.lock();
+        try
+        {
+            queue.remove();
+            notFull.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            queue.snapshot(out);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        lock.lock();
+        try
+        {
+            queue.restore(in);
+
+            /* The queue may now be fuller or emptier than before. */
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Remove up to max of the highest priority items, adding them to target
+     * highest priority first, without waiting.
+     *
+     * The whole batch is removed while holding the lock, using the wrapped
+     * queue's own drainTo.
+     *
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
+    @Override
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        lock.lock();
+        try
+        {
+            int count = queue.drainTo(target, max);
+            if(count > 0)
+                notFull.signalAll();
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Helper method to copy every entry of the wrapped queue while holding
+     * the lock.
+     *
+     * @return The entries, in the order the wrapped queue iterates them.
+     */
+    private List<PriorityItem<T>> copyEntries()
+    {
+        lock.lock();
+        try
+        {
+            List<PriorityItem<T>> entries = new ArrayList<>(queue.size());
+            for(PriorityItem<T> entry : queue)
+                entries.add(entry);
+            return entries;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return queue.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * An iterator over every item in the queue, with its priority.
+     *
+     * The items are copied while holding the lock and the copy is iterated,
+     * so it never throws a ConcurrentModificationException and does not see
+     * changes made after it was created.
+     *
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return Collections.unmodifiableList(copyEntries()).iterator();
+    }
+
+
+    /**
+     * A Spliterator over a copy of the items, made as for iterator().
+     *
+     * @return The Spliterator.
+     */
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return copyEntries().spliterator();
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            queue.writeTo(out, limit, inPriorityOrder);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        lock.lock();
+        try
+        {
+            return queue.isEmpty();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,433 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of the PriorityQueue ADT for priorities from a small, fixed
+ * range, using one bucket per priority.
+ *
+ * Each bucket is a first in, first out ring buffer, so items of equal
+ * priority are removed in the order they were added. A hierarchical bitmap
+ * records which buckets are non-empty: the bottom level has one bit per
+ * bucket, and each level above has one bit per word of the level below. The
+ * highest non-empty bucket is found by reading a single word from each level,
+ * so add, head and remove are all O(1) for a given range, with no comparisons
+ * between items at all. Listing, iterating and snapshotting follow the bitmap
+ * too, so they visit only the non-empty buckets however wide the range.
+ *
+ * Priorities outside the range given to the constructor are rejected with an
+ * IllegalArgumentException.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class BucketPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The initial size of a bucket's ring buffer.
+     */
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    /**
+     * The lowest priority accepted.
+     */
+    private final int minPriority;
+
+    /**
+     * The highest priority accepted.
+     */
+    private final int maxPriority;
+
+    /**
+     * The ring buffer for each priority, indexed by priority - minPriority.
+     * Allocated when first used.
+     */
+    private final Object [][] buckets;
+
+    /**
+     * The index in each ring buffer of its oldest item.
+     */
+    private final int [] bucketHeads;
+
+    /**
+     * The number of items in each ring buffer.
+     */
+    private final int [] bucketCounts;
+
+    /**
+     * The bitmap of non-empty buckets. levels[0] has a bit per bucket and
+     * each following level has a bit per word of the one before. The last
+     * level is a single word.
+     */
+    private final long [][] levels;
+
+    /**
+     * The number of items held in the queue.
+     */
+    private int count = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+
+    /**
+     * Create a new empty queue accepting priorities from minPriority to
+     * maxPriority inclusive.
+     *
+     * @param minPriority The lowest priority accepted.
+     * @param maxPriority The highest priority accepted.
+     */
+    public BucketPriorityQueue(int minPriority, int maxPriority)
+    {
+        long range = (long) maxPriority - minPriority + 1;
+        if(range < 1 || range > HeapPriorityQueue.MAX_CAPACITY)
+            throw new IllegalArgumentException("Invalid priority range: " + minPriority + " to " + maxPriority);
+
+        this.minPriority = minPriority;
+        this.maxPriority = maxPriority;
+        buckets = new Object[(int) range][];
+        bucketHeads = new int[(int) range];
+        bucketCounts = new int[(int) range];
+
+        /* Work out how many levels are needed for the top to fit in a word. */
+        int depth = 1;
+        for(long bits = range; bits > 64; bits = (bits + 63) >>> 6)
+            ++depth;
+
+        levels = new long[depth][];
+        long bits = range;
+        for(int level = 0; level < depth; ++level)
+        {
+            levels[level] = new long[(int) ((bits + 63) >>> 6)];
+            bits = levels[level].length;
+        }
+    }
+
+
+    /**
+     * Helper method to mark a bucket as non-empty at every level.
+     *
+     * @param bucket
+     */
+    private void setBit(int bucket)
+    {
+        int index = bucket;
+        for(long [] level : levels)
+        {
+            int word = index >>> 6;
+            boolean wasEmpty = (level[word] == 0);
+            level[word] |= 1L << (index & 63);
+
+            /* The levels above already know about this word. */
+            if(!wasEmpty)
+                return;
+            index = word;
+        }
+    }
+
+
+    /**
+     * Helper method to mark a bucket as empty at every level.
+     *
+     * @param bucket
+     */
+    private void clearBit(int bucket)
+    {
+        int index = bucket;
+        for(long [] level : levels)
+        {
+            int word = index >>> 6;
+            level[word] &= ~(1L << (index & 63));
+
+            /* The word still has other non-empty buckets below it. */
+            if(level[word] != 0)
+                return;
+            index = word;
+        }
+    }
+
+
+    /**
+     * Helper method to find the highest non-empty bucket by following the
+     * highest set bit down from the top level.
+     *
+     * @return The index of the bucket, or -1 if every bucket is empty.
+     */
+    private int highestBucket()
+    {
+        int index = 0;
+        for(int level = levels.length - 1; level >= 0; --level)
+        {
+            long word = levels[level][index];
+            if(word == 0)
+                return -1;
+            index = (index << 6) + (63 - Long.numberOfLeadingZeros(word));
+        }
+        return index;
+    }
+
+
+    /**
+     * Helper method to find the highest non-empty bucket below a given one.
+     * Climbs the bitmap until a word has a bit set below the position
+     * reached, then follows the highest set bit back down.
+     *
+     * @param bound The bucket to look below, which may be buckets.length.
+     * @return The index of the bucket, or -1 if every bucket below is empty.
+     */
+    private int highestBucketBelow(int bound)
+    {
+        int index = bound;
+        int level = 0;
+        while(true)
+        {
+            if(index == 0 || level == levels.length)
+                return -1;
+
+            int word = (index - 1) >>> 6;
+            long bits = levels[level][word] & (-1L >>> (63 - ((index - 1) & 63)));
+            if(bits != 0)
+            {
+                index = (word << 6) + (63 - Long.numberOfLeadingZeros(bits));
+                break;
+            }
+            index = word;
+            ++level;
+        }
+
+        while(level > 0)
+        {
+            --level;
+            index = (index << 6) + (63 - Long.numberOfLeadingZeros(levels[level][index]));
+        }
+        return index;
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    /**
+     * Add the given item to the queue with the given priority.
+     *
+     * @param item
+     * @param priority A priority within the range given to the constructor.
+     * @throws QueueOverflowException
+     * @throws IllegalArgumentException if the priority is out of range.
+     */
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        if(priority < minPriority || priority > maxPriority)
+            throw new IllegalArgumentException("Priority out of range: " + priority);
+
+        ++modCount;
+        int bucket = priority - minPriority;
+        Object [] ring = buckets[bucket];
+        int size = bucketCounts[bucket];
+
+        if(ring == null)
+            ring = buckets[bucket] = new Object[INITIAL_BUCKET_CAPACITY];
+        else if(size == ring.length)
+        {
+            /* Unroll the ring into a buffer twice the size. */
+            Object [] bigger = new Object[ring.length * 2];
+            int head = bucketHeads[bucket];
+            System.arraycopy(ring, head, bigger, 0, ring.length - head);
+            System.arraycopy(ring, 0, bigger, ring.length - head, head);
+            ring = buckets[bucket] = bigger;
+            bucketHeads[bucket] = 0;
+        }
+
+        ring[(bucketHeads[bucket] + size) & (ring.length - 1)] = item;
+        bucketCounts[bucket] = size + 1;
+        if(size == 0)
+            setBit(bucket);
+        ++count;
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        /* Check every priority first so that none are added if any would be
+         * rejected. */
+        for(PriorityItem<T> item : items)
+            if(item.getPriority() < minPriority || item.getPriority() > maxPriority)
+                throw new IllegalArgumentException("Priority out of range: " + item.getPriority());
+
+        for(PriorityItem<T> item : items)
+            add(item.getItem(), item.getPriority());
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        int bucket = highestBucket();
+        return (T) buckets[bucket][bucketHeads[bucket]];
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        ++modCount;
+        int bucket = highestBucket();
+        Object [] ring = buckets[bucket];
+        ring[bucketHeads[bucket]] = null;
+        bucketHeads[bucket] = (bucketHeads[bucket] + 1) & (ring.length - 1);
+        if(--bucketCounts[bucket] == 0)
+        {
+            bucketHeads[bucket] = 0;
+            clearBit(bucket);
+        }
+        --count;
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        /* Write the buckets highest first, each oldest first, so that equal
+         * priorities keep their order when restored. */
+        out.begin(Snapshot.Order.SORTED, 0, count);
+        for(int bucket = highestBucket(); bucket >= 0; bucket = highestBucketBelow(bucket))
+        {
+            Object [] ring = buckets[bucket];
+            for(int i = 0; i < bucketCounts[bucket]; ++i)
+                out.write((T) ring[(bucketHeads[bucket] + i) & (ring.length - 1)], bucket + minPriority);
+        }
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     * @throws IllegalArgumentException if any priority is out of range.
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Read and check everything first so nothing changes if reading
+         * fails. */
+        List<PriorityItem<T>> items = in.readAll();
+        for(PriorityItem<T> item : items)
+            if(item.getPriority() < minPriority || item.getPriority() > maxPriority)
+                throw new IllegalArgumentException("Priority out of range: " + item.getPriority());
+
+        ++modCount;
+        Arrays.fill(buckets, null);
+        Arrays.fill(bucketHeads, 0);
+        Arrays.fill(bucketCounts, 0);
+        for(long [] level : levels)
+            Arrays.fill(level, 0);
+        count = 0;
+
+        addAll(items);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return count;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        /* Visit the buckets highest first, each oldest first, which is the
+         * order the items would be removed in. */
+        return new Iterator<PriorityItem<T>>()
+        {
+            private final int expectedModCount = modCount;
+
+            private int bucket = highestBucket();
+
+            private int position = 0;
+
+            private int remaining = count;
+
+            @Override
+            public boolean hasNext()
+            {
+                return remaining > 0;
+            }
+
+            @Override
+            public PriorityItem<T> next()
+            {
+                if(modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if(remaining < 1)
+                    throw new NoSuchElementException();
+
+                if(position == bucketCounts[bucket])
+                {
+                    bucket = highestBucketBelow(bucket);
+                    position = 0;
+                }
+                Object [] ring = buckets[bucket];
+                T item = (T) ring[(bucketHeads[bucket] + position) & (ring.length - 1)];
+                ++position;
+                --remaining;
+                return new PriorityItem<>(item, bucket + minPriority);
+            }
+        };
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        /* List the items in the order they would be removed, which is
+         * always priority order. */
+        Listing listing = new Listing(out, limit);
+        for(int bucket = highestBucket(); bucket >= 0; bucket = highestBucketBelow(bucket))
+        {
+            Object [] ring = buckets[bucket];
+            for(int i = 0; i < bucketCounts[bucket]; ++i)
+                if(!listing.add(ring[(bucketHeads[bucket] + i) & (ring.length - 1)], bucket + minPriority))
+                {
+                    listing.finish();
+                    return;
+                }
+        }
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (count < 1);
+    }
+
+}
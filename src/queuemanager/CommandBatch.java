@@ -0,0 +1,534 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs QueueManager commands from a file or stream without prompts or
+ * messages, timing each one, so that the driver program can be used to put
+ * load on any implementation.
+ *
+ * The commands are the same as at the QueueManager prompt: "A name priority",
+ * "H", "R", "E", "P", "P n" and "Q", which ends the batch. Lines are parsed
+ * straight out of a byte buffer: the only object made per line is the name
+ * of a person being added. Blank lines are skipped, and lines that are not
+ * commands are counted as invalid. P renders the listing and throws it away,
+ * so its cost is still measured.
+ *
+ * Each command is timed on its own, without the parsing, into a
+ * LatencyHistogram. Overflows and underflows are counted as failures rather
+ * than reported. writeSummary() gives the throughput and latencies at the
+ * end.
+ */
+public final class CommandBatch
+{
+
+    /**
+     * The commands that are timed.
+     */
+    public enum Command
+    {
+        ADD, HEAD, REMOVE, EMPTY, PRINT
+    }
+
+    /**
+     * The size the line buffer starts at. It grows to fit longer lines.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final double NANOS_PER_MICRO = 1e3;
+
+    private final PriorityQueue<Person> queue;
+
+    /**
+     * How long each command took, indexed by Command.ordinal().
+     */
+    private final LatencyHistogram [] latencies = new LatencyHistogram[Command.values().length];
+
+    /**
+     * The number of each command that overflowed or underflowed.
+     */
+    private final long [] failures = new long[Command.values().length];
+
+    /**
+     * The listing P writes into.
+     */
+    private final Writer discard = Writer.nullWriter();
+
+    private byte [] buffer = new byte[BUFFER_SIZE];
+
+    private long invalid;
+
+    /**
+     * The line number of the first invalid line, or 0 if there is none.
+     */
+    private long firstInvalidLine;
+
+    private long lines;
+
+    /**
+     * The time spent in run(), parsing included.
+     */
+    private long elapsedNanos;
+
+    private boolean quit;
+
+
+    /**
+     * Create a batch that runs commands against a queue.
+     *
+     * @param queue
+     */
+    public CommandBatch(PriorityQueue<Person> queue)
+    {
+        this.queue = queue;
+        for(int i = 0; i < latencies.length; ++i)
+            latencies[i] = new LatencyHistogram();
+    }
+
+
+    /**
+     * Run every command in a stream, up to its end or a Q command. Nothing
+     * is run once a Q has been read.
+     *
+     * @param in The commands, one per line. It is read in large blocks, so
+     * need not be buffered, and is not closed.
+     * @return False if a Q command was read.
+     * @throws IOException if in throws one.
+     */
+    public boolean run(InputStream in) throws IOException
+    {
+        long started = System.nanoTime();
+        try
+        {
+            int start = 0;
+            int end = 0;
+            int scanned = 0;
+            while(!quit)
+            {
+                int newline = scanned;
+                while(newline < end && buffer[newline] != '\n')
+                    ++newline;
+                if(newline < end)
+                {
+                    runLine(start, newline);
+                    start = newline + 1;
+                    scanned = start;
+                    continue;
+                }
+
+                /* No whole line left, so keep the part line and read more. */
+                if(start > 0)
+                {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                else if(end == buffer.length)
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                scanned = end;
+                int read = in.read(buffer, end, buffer.length - end);
+                if(read < 0)
+                {
+                    if(end > 0)
+                        runLine(0, end);
+                    break;
+                }
+                end += read;
+            }
+        } finally {
+            elapsedNanos += System.nanoTime() - started;
+        }
+        return !quit;
+    }
+
+
+    /**
+     * Helper method to run the command on one line of the buffer.
+     *
+     * @param from The index of its first byte.
+     * @param to The index after its last byte, not counting the newline.
+     */
+    private void runLine(int from, int to)
+    {
+        ++lines;
+        if(to > from && buffer[to - 1] == '\r')
+            --to;
+        if(to == from)
+            return;
+
+        switch(buffer[from] | 0x20)
+        {
+            case 'a':
+                add(from, to);
+                break;
+            case 'h':
+                head(from, to);
+                break;
+            case 'r':
+                remove(from, to);
+                break;
+            case 'e':
+                empty(from, to);
+                break;
+            case 'p':
+                print(from, to);
+                break;
+            case 'q':
+                if(to - from == 1)
+                    quit = true;
+                else
+                    invalid();
+                break;
+            default:
+                invalid();
+                break;
+        }
+    }
+
+
+    /**
+     * Helper method to run "A name priority". The name runs from after the
+     * first space to the last one, as at the QueueManager prompt.
+     *
+     * @param from
+     * @param to
+     */
+    private void add(int from, int to)
+    {
+        int lastSpace = nameEnd(buffer, from, to);
+        long priority = (lastSpace < 0) ? Long.MIN_VALUE : parseInt(buffer, lastSpace + 1, to);
+        if(priority == Long.MIN_VALUE)
+        {
+            invalid();
+            return;
+        }
+        Person person = new Person(new String(buffer, from + 2, lastSpace - from - 2, StandardCharsets.UTF_8));
+
+        long start = System.nanoTime();
+        try
+        {
+            queue.add(person, (int) priority);
+        } catch(QueueOverflowException e) {
+            ++failures[Command.ADD.ordinal()];
+        }
+        record(Command.ADD, start);
+    }
+
+
+    /**
+     * Helper method to run "H".
+     *
+     * @param from
+     * @param to
+     */
+    private void head(int from, int to)
+    {
+        if(to - from != 1)
+        {
+            invalid();
+            return;
+        }
+        long start = System.nanoTime();
+        try
+        {
+            queue.head();
+        } catch(QueueUnderflowException e) {
+            ++failures[Command.HEAD.ordinal()];
+        }
+        record(Command.HEAD, start);
+    }
+
+
+    /**
+     * Helper method to run "R".
+     *
+     * @param from
+     * @param to
+     */
+    private void remove(int from, int to)
+    {
+        if(to - from != 1)
+        {
+            invalid();
+            return;
+        }
+        long start = System.nanoTime();
+        try
+        {
+            queue.poll();
+        } catch(QueueUnderflowException e) {
+            ++failures[Command.REMOVE.ordinal()];
+        }
+        record(Command.REMOVE, start);
+    }
+
+
+    /**
+     * Helper method to run "E".
+     *
+     * @param from
+     * @param to
+     */
+    private void empty(int from, int to)
+    {
+        if(to - from != 1)
+        {
+            invalid();
+            return;
+        }
+        long start = System.nanoTime();
+        queue.isEmpty();
+        record(Command.EMPTY, start);
+    }
+
+
+    /**
+     * Helper method to run "P" or "P n".
+     *
+     * @param from
+     * @param to
+     */
+    private void print(int from, int to)
+    {
+        int first = from + 1;
+        while(first < to && buffer[first] == ' ')
+            ++first;
+        int last = to;
+        while(last > first && buffer[last - 1] == ' ')
+            --last;
+        long limit = (first == last) ? Integer.MAX_VALUE : parseInt(buffer, first, last);
+        if(limit < 0)
+        {
+            invalid();
+            return;
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            queue.writeTo(discard, (int) limit, first != last);
+        } catch(IOException e) {
+            /* The null writer never throws. */
+            throw new IllegalStateException(e);
+        }
+        record(Command.PRINT, start);
+    }
+
+
+    /**
+     * Helper method to find the end of the name in an "A name priority"
+     * line: the last space, as at the QueueManager prompt.
+     *
+     * @param buffer
+     * @param from The index of the A.
+     * @param to The index after the end of the line.
+     * @return The index of the space before the priority, or -1 if the line
+     * has no name.
+     */
+    static int nameEnd(byte [] buffer, int from, int to)
+    {
+        int lastSpace = to - 1;
+        while(lastSpace > from && buffer[lastSpace] != ' ')
+            --lastSpace;
+        if(to - from < 2 || buffer[from + 1] != ' ' || lastSpace < from + 2)
+            return -1;
+        return lastSpace;
+    }
+
+
+    /**
+     * Helper method to parse a decimal int from a buffer without making a
+     * String of it.
+     *
+     * @param buffer
+     * @param from
+     * @param to
+     * @return The value, or Long.MIN_VALUE if the bytes are not an int.
+     */
+    static long parseInt(byte [] buffer, int from, int to)
+    {
+        boolean negative = from < to && buffer[from] == '-';
+        int i = negative ? from + 1 : from;
+        if(i == to)
+            return Long.MIN_VALUE;
+        long value = 0;
+        for(; i < to; ++i)
+        {
+            int digit = buffer[i] - '0';
+            if(digit < 0 || digit > 9)
+                return Long.MIN_VALUE;
+            value = value * 10 + digit;
+            if(value > (long) Integer.MAX_VALUE + 1)
+                return Long.MIN_VALUE;
+        }
+        value = negative ? -value : value;
+        return (value > Integer.MAX_VALUE) ? Long.MIN_VALUE : value;
+    }
+
+
+    /**
+     * Helper method to record how long a command took.
+     *
+     * @param command
+     * @param start The time it started, from System.nanoTime().
+     */
+    private void record(Command command, long start)
+    {
+        latencies[command.ordinal()].record(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Helper method to count an invalid line.
+     */
+    private void invalid()
+    {
+        if(invalid++ == 0)
+            firstInvalidLine = lines;
+    }
+
+
+    /**
+     * The number of times a command has been run.
+     *
+     * @param command
+     * @return The count.
+     */
+    public long getCount(Command command)
+    {
+        return latencies[command.ordinal()].getCount();
+    }
+
+
+    /**
+     * The number of times a command has overflowed or underflowed.
+     *
+     * @param command
+     * @return The count.
+     */
+    public long getFailures(Command command)
+    {
+        return failures[command.ordinal()];
+    }
+
+
+    /**
+     * How long a command has taken, in nanoseconds.
+     *
+     * @param command
+     * @return The histogram.
+     */
+    public LatencyHistogram getLatency(Command command)
+    {
+        return latencies[command.ordinal()];
+    }
+
+
+    /**
+     * The number of lines that were not commands.
+     *
+     * @return The count.
+     */
+    public long getInvalidCount()
+    {
+        return invalid;
+    }
+
+
+    /**
+     * The number of lines read, including blank and invalid ones.
+     *
+     * @return The count.
+     */
+    public long getLineCount()
+    {
+        return lines;
+    }
+
+
+    /**
+     * Write the throughput of the whole batch and the latencies of each
+     * command, in microseconds.
+     *
+     * @param out
+     * @throws IOException if out throws one.
+     */
+    public void writeSummary(Appendable out) throws IOException
+    {
+        long commands = 0;
+        for(LatencyHistogram latency : latencies)
+            commands += latency.getCount();
+        double seconds = elapsedNanos / 1e9;
+        out.append(String.format(Locale.ROOT, "%d commands from %d lines in %.3f s, %.0f commands/s%n",
+            commands, lines, seconds, (seconds > 0) ? commands / seconds : 0.0));
+        if(invalid > 0)
+            out.append(String.format(Locale.ROOT, "%d invalid lines, the first on line %d%n", invalid, firstInvalidLine));
+        out.append(String.format(Locale.ROOT, "%-8s %10s %8s %10s %10s %10s %10s %10s%n",
+            "Command", "Count", "Failed", "Mean us", "p50 us", "p99 us", "p99.9 us", "Max us"));
+        for(Command command : Command.values())
+        {
+            LatencyHistogram latency = latencies[command.ordinal()];
+            if(latency.getCount() == 0)
+                continue;
+            out.append(String.format(Locale.ROOT, "%-8s %10d %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                command.name().toLowerCase(Locale.ROOT), latency.getCount(), failures[command.ordinal()],
+                latency.getMean() / NANOS_PER_MICRO,
+                latency.getValueAtPercentile(50) / NANOS_PER_MICRO,
+                latency.getValueAtPercentile(99) / NANOS_PER_MICRO,
+                latency.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+                latency.getMax() / NANOS_PER_MICRO));
+        }
+    }
+
+
+    /**
+     * Create a new empty queue of people for a batch.
+     *
+     * @param code The implementation: the codes offered at the QueueManager
+     * prompt, or "ph", "st", "pa", "cs", "mq", "rh" or "D" followed by an
+     * arity for the other implementations.
+     * @param capacity The capacity to use for fixed capacity implementations.
+     * @return A new empty queue.
+     * @throws IllegalArgumentException if the code is not recognised.
+     */
+    public static PriorityQueue<Person> createQueue(String code, int capacity)
+    {
+        if(code.length() > 1 && (code.charAt(0) == 'D' || code.charAt(0) == 'd'))
+            return new DaryHeapPriorityQueue<>(capacity, Integer.parseInt(code.substring(1)));
+
+        switch(code.toLowerCase(Locale.ROOT))
+        {
+            case "sa":
+                return new SortedArrayPriorityQueue<>(capacity);
+            case "ua":
+                return new UnsortedArrayPriorityQueue<>(capacity);
+            case "sl":
+                return new SortedLinkedPriorityQueue<>();
+            case "ul":
+                return new UnsortedLinkedPriorityQueue<>();
+            case "h":
+                return new HeapPriorityQueue<>(capacity);
+            case "ph":
+                return new PrimitiveHeapPriorityQueue<>(capacity);
+            case "st":
+                return new StableHeapPriorityQueue<>(capacity);
+            case "pa":
+                return new PairingHeapPriorityQueue<>();
+            case "cs":
+                return new ConcurrentSkipListPriorityQueue<>();
+            case "mq":
+                return new MultiQueuePriorityQueue<>();
+            case "rh":
+                /* Only valid for monotone workloads. */
+                return new RadixHeapPriorityQueue<>();
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + code);
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, lock-free implementation of the PriorityQueue ADT using a
+ * concurrent skip list for storage.
+ *
+ * The skip list is java.util.concurrent's ConcurrentSkipListSet, which is
+ * updated with compare-and-swap operations only, so producers and consumers
+ * never block each other. Entries are ordered by priority, highest first,
+ * and then by the order they were added in, which gives every entry a unique
+ * key and makes equal priorities come out first in, first out.
+ *
+ * add, head and remove are each linearizable. Note that a head() followed by
+ * a remove() is not atomic: another thread may remove the head in between.
+ * Use poll() to take the head and remove it in a single atomic step.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class ConcurrentSkipListPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * A PriorityItem tagged with the order it was added in.
+     *
+     * @param <T> The type of thing being stored.
+     */
+    private static final class Entry<T> extends PriorityItem<T>
+    {
+        private final long sequence;
+
+        Entry(T item, int priority, long sequence)
+        {
+            super(item, priority);
+            this.sequence = sequence;
+        }
+    }
+
+
+    /**
+     * Orders entries highest priority first and then oldest first.
+     */
+    private static final Comparator<Entry<?>> ORDER = new Comparator<Entry<?>>()
+    {
+        @Override
+        public int compare(Entry<?> a, Entry<?> b)
+        {
+            int byPriority = Integer.compare(b.getPriority(), a.getPriority());
+            return (byPriority != 0) ? byPriority : Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+
+    /**
+     * Where the data is actually stored.
+     */
+    private final ConcurrentSkipListSet<Entry<T>> entries = new ConcurrentSkipListSet<>(ORDER);
+
+    /**
+     * Source of the sequence numbers used to break ties.
+     */
+    private final AtomicLong nextSequence = new AtomicLong();
+
+
+    /**
+     * Atomically remove the highest priority item from the queue and return
+     * it. Throw an exception if it's empty.
+     *
+     * @return The item that was removed.
+     * @throws QueueUnderflowException
+     */
+    @Override
+    public T poll() throws QueueUnderflowException
+    {
+        Entry<T> first = entries.pollFirst();
+        if(first == null)
+            throw new QueueUnderflowException();
+
+        return first.getItem();
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        entries.add(new Entry<>(item, priority, nextSequence.getAndIncrement()));
+    }
+
+
+    /**
+     * Add all of the given items to the queue.
+     *
+     * Each item is added individually, so other threads may see some of the
+     * batch before the rest.
+     *
+     * @param items
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        for(PriorityItem<T> item : items)
+            add(item.getItem(), item.getPriority());
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        /* first() throws if the set is empty, so use an iterator to avoid a
+         * race between checking for and reading the first entry. */
+        Iterator<Entry<T>> it = entries.iterator();
+        if(!it.hasNext())
+            throw new QueueUnderflowException();
+
+        return it.next().getItem();
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        poll();
+    }
+
+
+    /**
+     * Remove up to max of the highest priority items, adding them to target
+     * highest priority first.
+     *
+     * Each item is taken atomically, so items removed by other threads at
+     * the same time are never also drained, but the batch as a whole is not
+     * atomic.
+     *
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
+    @Override
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        if(max < 0)
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+
+        int count = 0;
+        while(count < max)
+        {
+            Entry<T> first = entries.pollFirst();
+            if(first == null)
+                break;
+            target.add(first.getItem());
+            ++count;
+        }
+        return count;
+    }
+
+
+    /**
+     * Write every item in the queue, with its priority, to a snapshot.
+     *
+     * The snapshot is of a copy taken first, so it is consistent with itself
+     * but may miss changes other threads make while the copy is taken.
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        List<Entry<T>> copy = new ArrayList<>(entries);
+        out.begin(Snapshot.Order.SORTED, 0, copy.size());
+        for(Entry<T> entry : copy)
+            out.write(entry.getItem(), entry.getPriority());
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * The old entries are cleared and the new ones added individually, so
+     * other threads may see the queue part way through being restored.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Read everything first so nothing changes if reading fails. */
+        List<PriorityItem<T>> items = in.readAll();
+        entries.clear();
+        addAll(items);
+    }
+
+
+    /**
+     * The number of items stored. This has to count them, so it takes time
+     * linear in the size of the queue, and it is only a snapshot if other
+     * threads are active.
+     *
+     * @return The size.
+     */
+    @Override
+    public int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     * An iterator over every item in the queue, with its priority, in
+     * priority order.
+     *
+     * The iterator is weakly consistent rather than fail-fast: it never
+     * throws a ConcurrentModificationException, and it may or may not see
+     * changes made while it is used.
+     *
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return Collections.<PriorityItem<T>>unmodifiableCollection(entries).iterator();
+    }
+
+
+    /**
+     * A Spliterator over the same items as iterator().
+     *
+     * The size of a concurrent queue is not fixed, so this reports CONCURRENT
+     * rather than SIZED, and splits the skip list by its index levels.
+     *
+     * @return The Spliterator.
+     */
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        /* Entries are only read, so they can be passed on as PriorityItems. */
+        Spliterator<? extends PriorityItem<T>> split = entries.spliterator();
+        return (Spliterator<PriorityItem<T>>) split;
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        /* List the items in priority order, which is always the order of the
+         * set. The list is only a snapshot if other threads are active. */
+        Listing listing = new Listing(out, limit);
+        for(Entry<T> entry : entries)
+            if(!listing.add(entry))
+                break;
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+}
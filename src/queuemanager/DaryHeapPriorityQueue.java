@@ -0,0 +1,498 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+/**
+ * Implementation of the PriorityQueue ADT using a d-ary heap, where each node
+ * has up to arity children rather than two.
+ *
+ * A wider node makes the tree shallower, so remove visits log_d(n) levels
+ * instead of log_2(n). The children of a node are stored next to each other
+ * and, with priorities kept in their own int array as in
+ * PrimitiveHeapPriorityQueue, the default arity of 4 places all of a node's
+ * child priorities in 16 contiguous bytes: normally a single cache line. Once
+ * the heap is much larger than the CPU caches this trades a few extra
+ * comparisons per level for far fewer cache misses.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class DaryHeapPriorityQueue<T> implements PriorityQueue<T>, WorkCounting
+{
+
+    /**
+     * The arity used when none is given.
+     */
+    public static final int DEFAULT_ARITY = 4;
+
+    /**
+     * The number of children each node may have.
+     */
+    private final int arity;
+
+    /**
+     * log2(arity) when arity is a power of two, so that parents can be found
+     * with a shift rather than a division; otherwise -1.
+     */
+    private final int arityShift;
+
+    /**
+     * The priorities of the items stored, in heap order.
+     */
+    private int [] priorities;
+
+    /**
+     * The items stored. items[i] has priority priorities[i].
+     */
+    private Object [] items;
+
+    /**
+     * The maximum number of items the Queue can store.
+     */
+    private final int capacity;
+
+    /**
+     * The current number of items stored.
+     */
+    private int size = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+    /**
+     * The number of priority comparisons made while sifting.
+     */
+    private long comparisons = 0;
+
+    /**
+     * The number of entries moved while sifting.
+     */
+    private long swaps = 0;
+
+
+    /**
+     * Create a new empty 4-ary heap with the given capacity. The queue will
+     * never grow beyond this.
+     *
+     * @param capacity
+     */
+    public DaryHeapPriorityQueue(int capacity)
+    {
+        this(capacity, capacity, DEFAULT_ARITY);
+    }
+
+
+    /**
+     * Create a new empty heap with the given capacity and arity. The queue
+     * will never grow beyond this capacity.
+     *
+     * @param capacity
+     * @param arity The number of children each node may have, at least 2.
+     */
+    public DaryHeapPriorityQueue(int capacity, int arity)
+    {
+        this(capacity, capacity, arity);
+    }
+
+
+    /**
+     * Create a new empty 4-ary heap that grows as items are added, with no
+     * limit on the number of items it may hold.
+     */
+    public DaryHeapPriorityQueue()
+    {
+        this(HeapPriorityQueue.DEFAULT_INITIAL_CAPACITY, HeapPriorityQueue.MAX_CAPACITY, DEFAULT_ARITY);
+    }
+
+
+    /**
+     * Create a new empty heap that doubles its storage whenever it fills up,
+     * until capacity items are stored.
+     *
+     * @param initialCapacity The number of items to allocate space for up front.
+     * @param capacity The maximum number of items the queue may hold.
+     * @param arity The number of children each node may have, at least 2.
+     */
+    public DaryHeapPriorityQueue(int initialCapacity, int capacity, int arity)
+    {
+        if(initialCapacity < 0 || capacity < initialCapacity || capacity > HeapPriorityQueue.MAX_CAPACITY)
+            throw new IllegalArgumentException("Invalid capacity: " + initialCapacity + ", " + capacity);
+        if(arity < 2)
+            throw new IllegalArgumentException("Invalid arity: " + arity);
+
+        this.arity = arity;
+        this.arityShift = (Integer.bitCount(arity) == 1) ? Integer.numberOfTrailingZeros(arity) : -1;
+        this.capacity = capacity;
+        priorities = new int[initialCapacity];
+        items = new Object[initialCapacity];
+    }
+
+
+    /**
+     * The number of children each node may have.
+     *
+     * @return The arity of the heap.
+     */
+    public int getArity()
+    {
+        return arity;
+    }
+
+
+    /**
+     * Helper method to grow both arrays so that they can hold at least
+     * minLength items. They are at least doubled in size but never made
+     * larger than capacity.
+     *
+     * @param minLength The number of items that must fit.
+     */
+    private void grow(int minLength)
+    {
+        int newLength = (items.length < capacity / 2) ? items.length * 2 : capacity;
+        newLength = Math.max(Math.max(newLength, minLength), 1);
+        QueueEvents.Resize event = new QueueEvents.Resize();
+        event.begin();
+        int oldLength = items.length;
+        priorities = Arrays.copyOf(priorities, newLength);
+        items = Arrays.copyOf(items, newLength);
+        event.commit(this, size, oldLength, newLength);
+    }
+
+
+    /**
+     * Helper method to place an entry in the heap starting from the hole at
+     * index and moving up towards the root.
+     *
+     * @param index The index of the hole.
+     * @param priority The priority of the entry being placed.
+     * @param item The item being placed.
+     */
+    private void siftUp(int index, int priority, Object item)
+    {
+        while(index > 0)
+        {
+            int parentIndex = (arityShift >= 0) ? (index - 1) >>> arityShift : (index - 1) / arity;
+            ++comparisons;
+            if(priorities[parentIndex] >= priority)
+                break;
+
+            /* Move the parent down into the hole. */
+            ++swaps;
+            priorities[index] = priorities[parentIndex];
+            items[index] = items[parentIndex];
+            index = parentIndex;
+        }
+        priorities[index] = priority;
+        items[index] = item;
+    }
+
+
+    /**
+     * Helper method to place an entry in the heap starting from the hole at
+     * index and moving down towards the leaves.
+     *
+     * @param index The index of the hole.
+     * @param priority The priority of the entry being placed.
+     * @param item The item being placed.
+     */
+    private void siftDown(int index, int priority, Object item)
+    {
+        while(true)
+        {
+            /* In long, as a wide heap near the end of a large array can have
+             * child indices past Integer.MAX_VALUE. */
+            long first = (long) arity * index + 1;
+            if(first >= size)
+                break;
+
+            /* Scan the children, which sit next to each other in memory, for
+             * the one with the highest priority. */
+            int firstChild = (int) first;
+            int lastChild = (int) Math.min(first + arity, size);
+            comparisons += lastChild - firstChild;
+            int childIndex = firstChild;
+            int childPriority = priorities[firstChild];
+            for(int i = firstChild + 1; i < lastChild; ++i)
+            {
+                if(priorities[i] > childPriority)
+                {
+                    childIndex = i;
+                    childPriority = priorities[i];
+                }
+            }
+
+            if(priority >= childPriority)
+                break;
+
+            /* Move the child up into the hole. */
+            ++swaps;
+            priorities[index] = childPriority;
+            items[index] = items[childIndex];
+            index = childIndex;
+        }
+        priorities[index] = priority;
+        items[index] = item;
+    }
+
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return new PriorityItem<>((T) items[index], priorities[index]);
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+
+
+    /**
+     * The number of priority comparisons made while sifting. Scanning the
+     * children of a node for the highest counts one comparison per child.
+     *
+     * @return The count.
+     */
+    @Override
+    public long getComparisons()
+    {
+        return comparisons;
+    }
+
+
+    /**
+     * The number of entries moved into a hole while sifting.
+     *
+     * @return The count.
+     */
+    @Override
+    public long getSwaps()
+    {
+        return swaps;
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        if(size == capacity)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        if(size == items.length)
+            grow(size + 1);
+
+        ++size;
+        siftUp(size - 1, priority, item);
+    }
+
+
+    /**
+     * Add all of the given items to the queue.
+     *
+     * When the batch is at least as large as the items already stored the
+     * whole heap is rebuilt bottom-up in linear time, otherwise each new item
+     * is sifted up individually.
+     *
+     * @param batch
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> batch) throws QueueOverflowException
+    {
+        int count = batch.size();
+        if(count > capacity - size)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        if(size + count > items.length)
+            grow(size + count);
+
+        if(count < size)
+        {
+            for(PriorityItem<T> item : batch)
+            {
+                ++size;
+                siftUp(size - 1, item.getPriority(), item.getItem());
+            }
+            return;
+        }
+
+        /* Append the batch then sift down every parent, last parent first. */
+        for(PriorityItem<T> item : batch)
+        {
+            priorities[size] = item.getPriority();
+            items[size] = item.getItem();
+            ++size;
+        }
+        for(int i = (size - 2) / arity; i >= 0 && size > 1; --i)
+            siftDown(i, priorities[i], items[i]);
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        return (T) items[0];
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        ++modCount;
+        --size;
+        int lastPriority = priorities[size];
+        Object lastItem = items[size];
+        items[size] = null;
+
+        /* Re-insert the last entry starting from the hole left at the root. */
+        if(size > 0)
+            siftDown(0, lastPriority, lastItem);
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        /* Write the arrays as they are, so that a heap of the same arity can
+         * restore them as they are, unless the arity is too wide for the
+         * header. */
+        if(arity <= Snapshot.MAX_ARITY)
+            out.begin(Snapshot.Order.HEAP, arity, size);
+        else
+            out.begin(Snapshot.Order.UNORDERED, 0, size);
+        for(int i = 0; i < size; ++i)
+            out.write((T) items[i], priorities[i]);
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * Snapshots of a heap of the same arity, or of a sorted queue, are used
+     * as they are. Anything else is heapified bottom-up in linear time.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        int count = in.getCount();
+        if(count > capacity)
+            throw new QueueOverflowException();
+
+        /* Read into new arrays so nothing changes if reading fails. */
+        int length = Math.max(count, items.length);
+        int [] restoredPriorities = new int[length];
+        Object [] restoredItems = new Object[length];
+        for(int i = 0; i < count; ++i)
+        {
+            in.next();
+            restoredPriorities[i] = in.getPriority();
+            restoredItems[i] = in.getItem();
+        }
+
+        ++modCount;
+        priorities = restoredPriorities;
+        items = restoredItems;
+        size = count;
+        if(!in.isHeapOf(arity))
+            for(int i = (size - 2) / arity; i >= 0 && size > 1; --i)
+                siftDown(i, priorities[i], items[i]);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size);
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size);
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+            listing.addHeap(size, arity, new Listing.HeapEntries()
+            {
+                @Override
+                public long keyAt(int index)
+                {
+                    return priorities[index];
+                }
+
+
+                @Override
+                public boolean addTo(Listing listing, int index) throws IOException
+                {
+                    return listing.add(items[index], priorities[index]);
+                }
+            });
+        else
+            /* List the items in heap order. */
+            for(int i = 0; i < size; ++i)
+                if(!listing.add(items[i], priorities[i]))
+                    break;
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (size < 1);
+    }
+
+}
@@ -0,0 +1,968 @@
+package queuemanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.zip.CRC32;
+
+/**
+ * Implementation of the PriorityQueue ADT that survives the process being
+ * restarted, using a binary heap kept in a memory-mapped file together with a
+ * write-ahead log.
+ *
+ * The queue lives in a directory holding two files. The heap file has a
+ * header followed by two regions, each big enough for a full heap of
+ * fixed-size entries encoded by a FixedSizeCodec. One region holds the last
+ * checkpoint and is never written to; the other is the live heap that add and
+ * remove work on directly. Every change is also appended to the log file.
+ *
+ * A checkpoint forces the live region to disk, makes it the new checkpoint
+ * and empties the log. Checkpoints happen automatically once the log outgrows
+ * the heap, so the log never holds much more than a heap's worth of changes
+ * and the cost of checkpointing is spread over the operations that filled it.
+ *
+ * After a checkpoint, and on opening, the heap is read straight from the
+ * checkpoint region. The first change after that copies the region in bulk
+ * to the other one, without decoding a single entry, and carries on there.
+ * Opening a queue that was closed cleanly therefore takes constant time, and
+ * opening one after a crash replays only the log since the checkpoint, plus
+ * that one copy if the log is not empty. Log records are written in
+ * checksummed frames, so a frame torn by a crash is detected and dropped.
+ *
+ * Each change is validated and logged before it is made to the heap, so a
+ * change that is refused, or whose frame cannot be written, leaves the heap
+ * and the log as they were. A failure to write the log is reported with an
+ * UncheckedIOException.
+ *
+ * Changes are committed in groups. Each frame holds up to groupSize changes
+ * and, depending on the SyncPolicy, the log is forced to disk after every
+ * change, after every group, or never. sync() commits the current group
+ * straight away. Changes that have not been committed are lost in a crash,
+ * but the queue always recovers to the state after some committed change.
+ *
+ * The queue must be closed when it is no longer needed. Closing takes a final
+ * checkpoint, so the next open has no log to replay.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class DurableHeapPriorityQueue<T> implements PriorityQueue<T>, Closeable
+{
+
+    /**
+     * When the log is forced to disk.
+     */
+    public enum SyncPolicy
+    {
+        /**
+         * After every change, each in a frame of its own. Nothing is lost.
+         */
+        ALWAYS,
+
+        /**
+         * After every group of changes. At most a group is lost.
+         */
+        GROUP,
+
+        /**
+         * Never; the log is written a group at a time and the operating
+         * system decides when it reaches the disk. Survives the process
+         * crashing but not the machine.
+         */
+        NEVER
+    }
+
+    /**
+     * The number of changes committed together by default.
+     */
+    public static final int DEFAULT_GROUP_SIZE = 64;
+
+    /**
+     * The names of the files within the queue's directory.
+     */
+    private static final String HEAP_FILE = "heap";
+    private static final String LOG_FILE = "log";
+
+    /**
+     * The layout of the header at the start of the heap file.
+     */
+    private static final int MAGIC = 0x44485051;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int ENTRY_SIZE_OFFSET = 12;
+    private static final int CHECKPOINT_REGION_OFFSET = 16;
+    private static final int CHECKPOINT_SIZE_OFFSET = 20;
+    private static final int GENERATION_OFFSET = 24;
+
+    /**
+     * Each log frame starts with the length of its records, the generation
+     * of the checkpoint they follow and a CRC32 of the records.
+     */
+    private static final int FRAME_HEADER_SIZE = 16;
+
+    /**
+     * The kinds of log record.
+     */
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte ADD_ALL = 3;
+    private static final byte REMOVE_BATCH = 4;
+
+    /**
+     * The log may always grow to this many bytes before a checkpoint, however
+     * small the heap.
+     */
+    private static final long MIN_CHECKPOINT_BYTES = 1 << 20;
+
+    /**
+     * The converter between items and bytes.
+     */
+    private final FixedSizeCodec<T> codec;
+
+    /**
+     * The maximum number of items the Queue can store.
+     */
+    private final int capacity;
+
+    /**
+     * The size in bytes of each entry: a priority followed by an item.
+     */
+    private final int entrySize;
+
+    /**
+     * The size in bytes of each region of the heap file.
+     */
+    private final int regionSize;
+
+    private final SyncPolicy policy;
+
+    /**
+     * The most changes committed together.
+     */
+    private final int groupSize;
+
+    private final FileChannel heapChannel;
+
+    private final FileChannel logChannel;
+
+    /**
+     * The whole heap file, mapped into memory. Null once closed.
+     */
+    private MappedByteBuffer map;
+
+    /**
+     * The heap in the live region.
+     */
+    private OffHeapPriorityQueue<T> heap;
+
+    /**
+     * The region, 0 or 1, holding the live heap.
+     */
+    private int liveRegion;
+
+    /**
+     * True while the live heap is still the checkpoint region itself, which
+     * must be copied before it is changed.
+     */
+    private boolean sharingCheckpoint;
+
+    /**
+     * The generation of the last checkpoint, which is written into every
+     * log frame that follows it.
+     */
+    private long generation;
+
+    /**
+     * The changes not yet committed.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(1024);
+
+    /**
+     * The number of changes in pending.
+     */
+    private int pendingChanges = 0;
+
+    /**
+     * Reused to build each frame's header.
+     */
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+    /**
+     * The current length of the log file.
+     */
+    private long logSize = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+
+    /**
+     * Open the queue in the given directory, creating it if it doesn't exist,
+     * committing changes in groups of DEFAULT_GROUP_SIZE.
+     *
+     * @param directory
+     * @param capacity
+     * @param codec The converter between items and bytes.
+     * @throws IOException if the files cannot be opened or were created with
+     * a different capacity or codec size.
+     */
+    public DurableHeapPriorityQueue(Path directory, int capacity, FixedSizeCodec<T> codec) throws IOException
+    {
+        this(directory, capacity, codec, SyncPolicy.GROUP, DEFAULT_GROUP_SIZE);
+    }
+
+
+    /**
+     * Open the queue in the given directory, creating it if it doesn't exist.
+     *
+     * @param directory
+     * @param capacity
+     * @param codec The converter between items and bytes.
+     * @param policy When the log is forced to disk.
+     * @param groupSize The most changes committed together. Ignored by
+     * SyncPolicy.ALWAYS.
+     * @throws IOException if the files cannot be opened or were created with
+     * a different capacity or codec size.
+     */
+    public DurableHeapPriorityQueue(Path directory, int capacity, FixedSizeCodec<T> codec,
+            SyncPolicy policy, int groupSize) throws IOException
+    {
+        this.codec = codec;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.groupSize = (policy == SyncPolicy.ALWAYS) ? 1 : groupSize;
+        entrySize = 4 + codec.size();
+
+        long region = ((long) capacity + 1) * entrySize;
+        if(capacity < 0 || HEADER_SIZE + 2 * region > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        if(groupSize < 1)
+            throw new IllegalArgumentException("Invalid group size: " + groupSize);
+        regionSize = (int) region;
+
+        Files.createDirectories(directory);
+        heapChannel = FileChannel.open(directory.resolve(HEAP_FILE), StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try
+        {
+            logChannel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        } catch(IOException e) {
+            heapChannel.close();
+            throw e;
+        }
+
+        try
+        {
+            boolean created = (heapChannel.size() == 0);
+            map = heapChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * regionSize);
+            if(created)
+                format();
+            else
+                checkHeader();
+            recover();
+        } catch(IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Helper method to write the header of a new, empty queue.
+     *
+     * @throws IOException
+     */
+    private void format() throws IOException
+    {
+        map.putInt(MAGIC_OFFSET, MAGIC);
+        map.putInt(VERSION_OFFSET, VERSION);
+        map.putInt(CAPACITY_OFFSET, capacity);
+        map.putInt(ENTRY_SIZE_OFFSET, entrySize);
+        map.putInt(CHECKPOINT_REGION_OFFSET, 0);
+        map.putInt(CHECKPOINT_SIZE_OFFSET, 0);
+        map.putLong(GENERATION_OFFSET, 1);
+        map.force();
+        logChannel.truncate(0);
+    }
+
+
+    /**
+     * Helper method to check the header matches this queue.
+     *
+     * @throws IOException if it does not.
+     */
+    private void checkHeader() throws IOException
+    {
+        if(map.getInt(MAGIC_OFFSET) != MAGIC || map.getInt(VERSION_OFFSET) != VERSION)
+            throw new IOException("Not a queue file");
+        if(map.getInt(CAPACITY_OFFSET) != capacity || map.getInt(ENTRY_SIZE_OFFSET) != entrySize)
+            throw new IOException("Queue was created with capacity " + map.getInt(CAPACITY_OFFSET)
+                + " and entry size " + map.getInt(ENTRY_SIZE_OFFSET));
+    }
+
+
+    /**
+     * Helper method to get a view of one region of the heap file.
+     *
+     * @param index 0 or 1.
+     * @return The region.
+     */
+    private ByteBuffer region(int index)
+    {
+        ByteBuffer view = map.duplicate();
+        view.position(HEADER_SIZE + index * regionSize);
+        view.limit(HEADER_SIZE + (index + 1) * regionSize);
+        return view.slice();
+    }
+
+
+    /**
+     * Helper method to read the heap straight from the checkpoint region,
+     * without copying it.
+     */
+    private void openCheckpoint()
+    {
+        liveRegion = map.getInt(CHECKPOINT_REGION_OFFSET);
+        heap = new OffHeapPriorityQueue<>(region(liveRegion), capacity, codec,
+            map.getInt(CHECKPOINT_SIZE_OFFSET));
+        sharingCheckpoint = true;
+    }
+
+
+    /**
+     * Helper method to call before the heap is changed. If the heap is still
+     * the checkpoint region, it is copied to the other region first, which
+     * then becomes live.
+     */
+    private void beforeChange()
+    {
+        if(!sharingCheckpoint)
+            return;
+
+        int size = heap.size();
+        ByteBuffer source = region(liveRegion);
+        source.limit(size * entrySize);
+        ByteBuffer target = region(1 - liveRegion);
+        target.put(source);
+
+        liveRegion = 1 - liveRegion;
+        heap = new OffHeapPriorityQueue<>(region(liveRegion), capacity, codec, size);
+        sharingCheckpoint = false;
+    }
+
+
+    /**
+     * Helper method to restore the queue from the last checkpoint and the
+     * log that follows it, then drop any torn frame from the end of the log.
+     *
+     * @throws IOException
+     */
+    private void recover() throws IOException
+    {
+        generation = map.getLong(GENERATION_OFFSET);
+        openCheckpoint();
+
+        long position = 0;
+        long end = logChannel.size();
+        CRC32 crc = new CRC32();
+        while(position + FRAME_HEADER_SIZE <= end)
+        {
+            frameHeader.clear();
+            readFully(frameHeader, position);
+            int length = frameHeader.getInt(0);
+            long frameGeneration = frameHeader.getLong(4);
+            if(length < 0 || length > end - position - FRAME_HEADER_SIZE)
+                break;
+
+            ByteBuffer records = ByteBuffer.allocate(length);
+            readFully(records, position + FRAME_HEADER_SIZE);
+            crc.reset();
+            crc.update(records.array(), 0, length);
+            if((int) crc.getValue() != frameHeader.getInt(12) || frameGeneration > generation)
+                break;
+
+            /* Frames from before the last checkpoint are already in it. */
+            if(frameGeneration == generation)
+            {
+                records.flip();
+                replay(records);
+            }
+            position += FRAME_HEADER_SIZE + length;
+        }
+
+        logChannel.truncate(position);
+        logChannel.position(position);
+        logSize = position;
+    }
+
+
+    /**
+     * Helper method to fill a buffer from the log.
+     *
+     * @param buffer
+     * @param position Where in the log to start reading.
+     * @throws IOException
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            int read = logChannel.read(buffer, position);
+            if(read < 0)
+                throw new IOException("Unexpected end of log");
+            position += read;
+        }
+    }
+
+
+    /**
+     * Helper method to apply the changes in a frame to the heap.
+     *
+     * @param records
+     * @throws IOException if the records are not valid.
+     */
+    private void replay(ByteBuffer records) throws IOException
+    {
+        try
+        {
+            beforeChange();
+            while(records.hasRemaining())
+            {
+                byte kind = records.get();
+                if(kind == ADD)
+                {
+                    PriorityItem<T> entry = readEntry(records);
+                    heap.add(entry.getItem(), entry.getPriority());
+                }
+                else if(kind == REMOVE)
+                    heap.remove();
+                else if(kind == ADD_ALL)
+                {
+                    int count = records.getInt();
+                    List<PriorityItem<T>> batch = new ArrayList<>(count);
+                    for(int i = 0; i < count; ++i)
+                        batch.add(readEntry(records));
+                    heap.addAll(batch);
+                }
+                else if(kind == REMOVE_BATCH)
+                {
+                    int count = records.getInt();
+                    if(heap.drainTo(new ArrayList<T>(count), count) != count)
+                        throw new IOException("Log does not match checkpoint");
+                }
+                else
+                    throw new IOException("Unknown log record: " + kind);
+            }
+        } catch(QueueOverflowException | QueueUnderflowException e) {
+            throw new IOException("Log does not match checkpoint", e);
+        } catch(RuntimeException e) {
+            throw new IOException("Invalid log record", e);
+        }
+    }
+
+
+    /**
+     * Helper method to read an entry from a log record.
+     *
+     * @param records
+     * @return The entry.
+     */
+    private PriorityItem<T> readEntry(ByteBuffer records)
+    {
+        int priority = records.getInt();
+        T item = codec.read(records, records.position());
+        records.position(records.position() + codec.size());
+        return new PriorityItem<>(item, priority);
+    }
+
+
+    /**
+     * Helper method to make sure there is room in pending for more records.
+     *
+     * @param bytes
+     */
+    private void reserve(long bytes)
+    {
+        if(pending.remaining() >= bytes)
+            return;
+
+        long needed = pending.position() + bytes;
+        if(needed > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Change too large to log");
+
+        ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE,
+            Math.max(needed, 2L * pending.capacity())));
+        pending.flip();
+        bigger.put(pending);
+        pending = bigger;
+    }
+
+
+    /**
+     * Helper method to append an entry to the pending records.
+     *
+     * @param item
+     * @param priority
+     */
+    private void writeEntry(T item, int priority)
+    {
+        pending.putInt(priority);
+        codec.write(pending, pending.position(), item);
+        pending.position(pending.position() + codec.size());
+    }
+
+
+    /**
+     * Helper method to count a change whose record has been added to pending,
+     * committing the group once it is full. If the group cannot be written,
+     * the record is taken back out of pending, so the caller must not make the
+     * change.
+     *
+     * @param mark The position in pending where the record starts.
+     * @throws UncheckedIOException if the group cannot be written.
+     */
+    private void logChange(int mark)
+    {
+        if(++pendingChanges < groupSize)
+            return;
+
+        try
+        {
+            flush();
+        } catch(IOException e) {
+            pending.position(mark);
+            --pendingChanges;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Helper method to call once a change has been made to the heap, to
+     * checkpoint once the log has outgrown the heap.
+     *
+     * @throws UncheckedIOException if the checkpoint cannot be written. The
+     * change is already logged, so it is not lost.
+     */
+    private void changed()
+    {
+        ++modCount;
+        checkpointIfDue();
+    }
+
+
+    /**
+     * Helper method to checkpoint once the log has outgrown the heap.
+     *
+     * @throws UncheckedIOException if the checkpoint cannot be written.
+     */
+    private void checkpointIfDue()
+    {
+        if(logSize > Math.max(MIN_CHECKPOINT_BYTES, (long) heap.size() * entrySize))
+        {
+            try
+            {
+                checkpoint();
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+
+    /**
+     * Helper method to write the pending records to the log as one frame,
+     * forcing it to disk unless the policy is NEVER.
+     *
+     * @throws IOException
+     */
+    private void flush() throws IOException
+    {
+        if(pending.position() == 0)
+            return;
+
+        ByteBuffer records = pending.duplicate();
+        records.flip();
+        CRC32 crc = new CRC32();
+        crc.update(records.array(), 0, records.limit());
+        frameHeader.clear();
+        frameHeader.putInt(records.limit());
+        frameHeader.putLong(generation);
+        frameHeader.putInt((int) crc.getValue());
+        frameHeader.flip();
+
+        /* If the frame cannot be written in full, cut it off again so that
+         * later frames are not lost behind it, and keep it pending. */
+        ByteBuffer [] frame = { frameHeader, records };
+        long written = logSize;
+        try
+        {
+            while(records.hasRemaining())
+                written += logChannel.write(frame);
+            if(policy != SyncPolicy.NEVER)
+                logChannel.force(false);
+        } catch(IOException e) {
+            try
+            {
+                logChannel.truncate(logSize);
+                logChannel.position(logSize);
+            } catch(IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        logSize = written;
+        pending.clear();
+        pendingChanges = 0;
+    }
+
+
+    /**
+     * Helper method to throw an exception if the queue has been closed.
+     */
+    private void checkOpen()
+    {
+        if(map == null)
+            throw new IllegalStateException("Queue has been closed");
+    }
+
+
+    /**
+     * Commit any changes not yet committed, forcing the log to disk unless
+     * the policy is NEVER.
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException
+    {
+        checkOpen();
+        flush();
+    }
+
+
+    /**
+     * Make the live heap the new checkpoint and empty the log. This also
+     * commits every change made so far.
+     *
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException
+    {
+        checkOpen();
+        writeCheckpoint();
+        sharingCheckpoint = true;
+    }
+
+
+    /**
+     * Helper method to make the live region the checkpoint. Pending changes
+     * are committed to the log first, the live region is forced to disk
+     * before the header points at it, and the header before the log is
+     * emptied, so a failure or crash at any point leaves a checkpoint and log
+     * that agree.
+     *
+     * @throws IOException
+     */
+    private void writeCheckpoint() throws IOException
+    {
+        flush();
+
+        map.force();
+        map.putInt(CHECKPOINT_REGION_OFFSET, liveRegion);
+        map.putInt(CHECKPOINT_SIZE_OFFSET, heap.size());
+        map.putLong(GENERATION_OFFSET, ++generation);
+        map.force();
+
+        logChannel.truncate(0);
+        logChannel.position(0);
+        logSize = 0;
+    }
+
+
+    /**
+     * Take a final checkpoint and release the queue's files. Closing an
+     * already closed queue has no effect.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(map == null)
+            return;
+
+        try
+        {
+            writeCheckpoint();
+        } finally {
+            release();
+        }
+    }
+
+
+    /**
+     * Helper method to unmap the heap file and close both files.
+     *
+     * @throws IOException
+     */
+    private void release() throws IOException
+    {
+        if(map != null)
+        {
+            MappedByteBuffer mapped = map;
+            map = null;
+            heap = null;
+            ++modCount;
+            OffHeapPriorityQueue.free(mapped);
+        }
+
+        try
+        {
+            heapChannel.close();
+        } finally {
+            logChannel.close();
+        }
+    }
+
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     * @throws IllegalStateException if the queue has been closed.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        checkOpen();
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return heap.get(index);
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        checkOpen();
+        if(heap.size() == capacity)
+            throw new QueueOverflowException();
+
+        reserve(1 + entrySize);
+        int mark = pending.position();
+        try
+        {
+            pending.put(ADD);
+            writeEntry(item, priority);
+        } catch(RuntimeException e) {
+            pending.position(mark);
+            throw e;
+        }
+        logChange(mark);
+
+        beforeChange();
+        heap.add(item, priority);
+        changed();
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        checkOpen();
+        if(items.size() > capacity - heap.size())
+            throw new QueueOverflowException();
+
+        reserve(5 + (long) items.size() * entrySize);
+        int mark = pending.position();
+        try
+        {
+            pending.put(ADD_ALL);
+            pending.putInt(items.size());
+            for(PriorityItem<T> item : items)
+                writeEntry(item.getItem(), item.getPriority());
+        } catch(RuntimeException e) {
+            pending.position(mark);
+            throw e;
+        }
+        logChange(mark);
+
+        beforeChange();
+        heap.addAll(items);
+        changed();
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        checkOpen();
+        return heap.head();
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        checkOpen();
+        if(heap.isEmpty())
+            throw new QueueUnderflowException();
+
+        reserve(1);
+        int mark = pending.position();
+        pending.put(REMOVE);
+        logChange(mark);
+
+        beforeChange();
+        heap.remove();
+        changed();
+    }
+
+
+    /**
+     * Remove up to max of the highest priority items, adding them to target
+     * highest priority first.
+     *
+     * The whole batch is logged as a single record. It is logged before the
+     * items are removed, and they are handed over only once they have been,
+     * so the log still matches the heap if target refuses one. They are
+     * handed over before any checkpoint is taken, so a checkpoint that fails
+     * does not lose them.
+     *
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
+    @Override
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        checkOpen();
+        if(max < 0)
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+        int count = Math.min(max, heap.size());
+        if(count == 0)
+            return 0;
+
+        reserve(5);
+        int mark = pending.position();
+        pending.put(REMOVE_BATCH);
+        pending.putInt(count);
+        logChange(mark);
+
+        beforeChange();
+        List<T> batch = new ArrayList<>(count);
+        heap.drainTo(batch, count);
+        ++modCount;
+        target.addAll(batch);
+        checkpointIfDue();
+        return count;
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        checkOpen();
+        heap.snapshot(out);
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * Rather than logging every item, the restored heap is made the new
+     * checkpoint straight away.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        checkOpen();
+        /* Commit the changes so far first, so the checkpoint that follows
+         * only has to write the restored heap. */
+        flush();
+        beforeChange();
+        heap.restore(in);
+        ++modCount;
+        checkpoint();
+    }
+
+
+    @Override
+    public int size()
+    {
+        checkOpen();
+        return heap.size();
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size());
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size());
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        checkOpen();
+        heap.writeTo(out, limit, inPriorityOrder);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        checkOpen();
+        return heap.isEmpty();
+    }
+
+}
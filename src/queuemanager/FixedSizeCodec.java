@@ -0,0 +1,79 @@
+package queuemanager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts items to and from a fixed number of bytes, so that they can be
+ * stored outside of the Java heap.
+ *
+ * @param <T> The type of items converted.
+ */
+public interface FixedSizeCodec<T> {
+
+    /**
+     * Codec for Integer items, such as ids referring to the real payload.
+     */
+    public static final FixedSizeCodec<Integer> INTEGER = new FixedSizeCodec<Integer>() {
+        @Override
+        public int size() {
+            return 4;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Integer item) {
+            buffer.putInt(offset, item);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+    };
+
+    /**
+     * Codec for Long items, such as ids referring to the real payload.
+     */
+    public static final FixedSizeCodec<Long> LONG = new FixedSizeCodec<Long>() {
+        @Override
+        public int size() {
+            return 8;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Long item) {
+            buffer.putLong(offset, item);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+    };
+
+    /**
+     * The number of bytes every item takes.
+     *
+     * @return The size in bytes.
+     */
+    public int size();
+
+    /**
+     * Write an item into size() bytes of the buffer starting at offset,
+     * without changing the buffer's position.
+     *
+     * @param buffer
+     * @param offset
+     * @param item
+     */
+    public void write(ByteBuffer buffer, int offset, T item);
+
+    /**
+     * Read an item back from size() bytes of the buffer starting at offset,
+     * without changing the buffer's position.
+     *
+     * @param buffer
+     * @param offset
+     * @return The item.
+     */
+    public T read(ByteBuffer buffer, int offset);
+}
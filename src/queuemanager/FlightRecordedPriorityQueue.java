@@ -0,0 +1,276 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+/**
+ * Wrapper around any PriorityQueue that emits JDK Flight Recorder events for
+ * it, so that slow operations show up in a recording next to whatever caused
+ * them. The events are described in QueueEvents.
+ *
+ * Adds and removes are timed and only recorded when they take longer than
+ * the threshold set for them, 20 microseconds by default. Every overflow and
+ * underflow is recorded. While no recording is running each operation costs
+ * a few checks more than calling the wrapped queue directly, so a queue can
+ * be left wrapped in production. The growable heaps record their own resizes
+ * whether or not they are wrapped.
+ *
+ * The wrapper adds no locking of its own: it is as safe to share between
+ * threads as the queue it wraps.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class FlightRecordedPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The queue actually storing the items.
+     */
+    private final PriorityQueue<T> queue;
+
+
+    /**
+     * Wrap the given queue.
+     *
+     * @param queue The queue to store the items in.
+     */
+    public FlightRecordedPriorityQueue(PriorityQueue<T> queue)
+    {
+        this.queue = queue;
+    }
+
+
+    /**
+     * Helper method to record that an add did not fit.
+     *
+     * @param priority The priority of the last item that was being added.
+     * @param count The number of items that were being added.
+     */
+    private void overflowed(int priority, int count)
+    {
+        QueueEvents.Overflow event = new QueueEvents.Overflow();
+        if(event.shouldCommit())
+        {
+            event.describe(queue, queue.size());
+            event.priority = priority;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Helper method to record that an operation found the queue empty.
+     *
+     * @param operation The name of the operation.
+     */
+    private void underflowed(String operation)
+    {
+        QueueEvents.Underflow event = new QueueEvents.Underflow();
+        if(event.shouldCommit())
+        {
+            event.describe(queue, 0);
+            event.operation = operation;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Helper method to end the timing of a remove and record it if it was
+     * slow enough.
+     *
+     * @param event
+     * @param count The number of items removed.
+     */
+    private void removed(QueueEvents.Remove event, int count)
+    {
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.describe(queue, queue.size());
+            event.count = count;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Helper method to find the priority of the last item of a batch.
+     *
+     * @param items
+     * @return The priority, or 0 if there are no items.
+     */
+    private static <T> int lastPriority(Collection<PriorityItem<T>> items)
+    {
+        int priority = 0;
+        for(PriorityItem<T> item : items)
+            priority = item.getPriority();
+        return priority;
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        QueueEvents.Add event = new QueueEvents.Add();
+        event.begin();
+        try
+        {
+            queue.add(item, priority);
+        } catch(QueueOverflowException e) {
+            overflowed(priority, 1);
+            throw e;
+        }
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.describe(queue, queue.size());
+            event.priority = priority;
+            event.count = 1;
+            event.commit();
+        }
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        QueueEvents.Add event = new QueueEvents.Add();
+        event.begin();
+        try
+        {
+            queue.addAll(items);
+        } catch(QueueOverflowException e) {
+            overflowed(lastPriority(items), items.size());
+            throw e;
+        }
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.describe(queue, queue.size());
+            event.priority = lastPriority(items);
+            event.count = items.size();
+            event.commit();
+        }
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        try
+        {
+            return queue.head();
+        } catch(QueueUnderflowException e) {
+            underflowed("head");
+            throw e;
+        }
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        QueueEvents.Remove event = new QueueEvents.Remove();
+        event.begin();
+        try
+        {
+            queue.remove();
+        } catch(QueueUnderflowException e) {
+            underflowed("remove");
+            throw e;
+        }
+        removed(event, 1);
+    }
+
+
+    @Override
+    public T poll() throws QueueUnderflowException
+    {
+        QueueEvents.Remove event = new QueueEvents.Remove();
+        event.begin();
+        T item;
+        try
+        {
+            item = queue.poll();
+        } catch(QueueUnderflowException e) {
+            underflowed("poll");
+            throw e;
+        }
+        removed(event, 1);
+        return item;
+    }
+
+
+    @Override
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        QueueEvents.Remove event = new QueueEvents.Remove();
+        event.begin();
+        int count = queue.drainTo(target, max);
+        removed(event, count);
+        return count;
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        queue.snapshot(out);
+    }
+
+
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        queue.restore(in);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return queue.size();
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return queue.iterator();
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return queue.spliterator();
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        queue.writeTo(out, limit, inPriorityOrder);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return queue.toString();
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return queue.isEmpty();
+    }
+
+}
@@ -1,5 +1,12 @@
 package queuemanager;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+
 /**
  * Implementation of the PriorityQueue ADT using a binary heap for storage.
  *
@@ -13,34 +20,192 @@ package queuemanager;
  *
  * @author Calum Lindsay
  */
-public class HeapPriorityQueue<T> implements PriorityQueue<T>
+public class HeapPriorityQueue<T> implements PriorityQueue<T>, WorkCounting
 {
 
+    /**
+     * The capacity used by the no argument constructor.
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 16;
+    
+    /**
+     * The largest capacity a queue may have; the largest array the VM can
+     * reliably allocate.
+     */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    
     /**
      * Where the data is actually stored.
      */
-    private final Object [] storage;
+    private Object [] storage;
     
     /**
      * The maximum number of items the Queue can store.
      */
     private final int capacity;
     
+    /**
+     * The smallest the storage array will shrink to.
+     */
+    private final int initialCapacity;
+    
+    /**
+     * Whether storage is shrunk again after the queue has been drained.
+     */
+    private final boolean shrinkable;
+    
     /**
      * The current number of items stored.
      */
     private int size = 0;
     
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+    
+    /**
+     * The number of priority comparisons made while sifting.
+     */
+    private long comparisons = 0;
     
     /**
-     * Create a new empty queue with the given capacity.
+     * The number of swaps made while sifting.
+     */
+    private long swaps = 0;
+    
+    
+    /**
+     * Create a new empty queue with the given capacity. The queue will never
+     * grow beyond this.
      *
      * @param capacity
      */
     public HeapPriorityQueue(int capacity)
     {
+        this(capacity, capacity, false);
+    }
+    
+    
+    /**
+     * Create a new empty queue that grows as items are added, with no limit
+     * on the number of items it may hold.
+     */
+    public HeapPriorityQueue()
+    {
+        this(DEFAULT_INITIAL_CAPACITY, MAX_CAPACITY, false);
+    }
+    
+    
+    /**
+     * Create a new empty queue that grows as items are added.
+     * 
+     * Storage starts at initialCapacity and doubles whenever it fills up, so
+     * the cost of copying is amortized over the items added. Once capacity
+     * items are stored a QueueOverflowException is thrown as for a fixed size
+     * queue. If shrinkable is true the storage is halved whenever it falls to
+     * a quarter full, but never below initialCapacity.
+     *
+     * @param initialCapacity The number of items to allocate space for up front.
+     * @param capacity The maximum number of items the queue may hold.
+     * @param shrinkable Whether to release storage after large drains.
+     */
+    public HeapPriorityQueue(int initialCapacity, int capacity, boolean shrinkable)
+    {
+        if(initialCapacity < 0 || capacity < initialCapacity || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Invalid capacity: " + initialCapacity + ", " + capacity);
+        
+        this.initialCapacity = initialCapacity;
         this.capacity = capacity;
-        storage = new Object[capacity];
+        this.shrinkable = shrinkable;
+        storage = new Object[initialCapacity];
+    }
+    
+    
+    /**
+     * The number of items stored.
+     * 
+     * @return The size.
+     */
+    @Override
+    public int size()
+    {
+        return size;
+    }
+    
+    
+    /**
+     * The item stored at the given index of the heap, for classes built on
+     * top of this one.
+     * 
+     * @param index Less than size().
+     * @return The item with its priority.
+     */
+    PriorityItem<T> get(int index)
+    {
+        return (PriorityItem<T>)storage[index];
+    }
+    
+    
+    /**
+     * Remove every item from the queue.
+     */
+    void clear()
+    {
+        ++modCount;
+        storage = new Object[initialCapacity];
+        size = 0;
+    }
+    
+    
+    @Override
+    public long getComparisons()
+    {
+        return comparisons;
+    }
+    
+    
+    @Override
+    public long getSwaps()
+    {
+        return swaps;
+    }
+    
+    
+    /**
+     * Helper method to grow the storage array so that it can hold at least
+     * minLength items. The array is at least doubled in size but never made
+     * larger than capacity.
+     * 
+     * @param minLength The number of items that must fit.
+     */
+    private void grow(int minLength)
+    {
+        int newLength = (storage.length < capacity / 2) ? storage.length * 2 : capacity;
+        newLength = Math.max(Math.max(newLength, minLength), 1);
+        QueueEvents.Resize event = new QueueEvents.Resize();
+        event.begin();
+        int oldLength = storage.length;
+        storage = Arrays.copyOf(storage, newLength);
+        event.commit(this, size, oldLength, newLength);
+    }
+    
+    
+    /**
+     * Helper method to halve the storage array once it is a quarter full,
+     * leaving room for the queue to fill again before it needs to grow.
+     */
+    private void shrinkIfSparse()
+    {
+        if(shrinkable && storage.length > initialCapacity && size <= storage.length / 4)
+        {
+            QueueEvents.Resize event = new QueueEvents.Resize();
+            event.begin();
+            int oldLength = storage.length;
+            storage = Arrays.copyOf(storage, Math.max(storage.length / 2, initialCapacity));
+            event.commit(this, size, oldLength, storage.length);
+        }
     }
     
     
@@ -61,11 +226,13 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
             int childPriority = ((PriorityItem<T>)storage[index]).getPriority();
             
             /* If parent has a higher priority then we're done. */
+            ++comparisons;
             if(parentPriority >= childPriority)
                 break;
             else
             {
                 /* Otherwise we swap parent and child. */
+                ++swaps;
                 Object temp = storage[index];
                 storage[index] = storage[parentIndex];
                 storage[parentIndex] = temp;
@@ -80,21 +247,26 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
     
     /**
      * Helper method to ensure the integrity of the binary heap is maintained
-     * after an item is removed from the queue.
+     * after an item is removed from the queue, or while building the heap.
+     * 
+     * @param index The index of the item that may be out of place.
      */
-    private void bubbleDown()
+    private void bubbleDown(int index)
     {
-        /* Initilalize indexes. */
-        int index = 0;
-        int childIndex = 1;
+        /* Only the first half of the heap has children. Testing the index
+         * against that, rather than the child index against size, keeps
+         * index * 2 + 1 from overflowing in a heap of over 2^30 items. */
+        int half = size >>> 1;
         
-        while(childIndex < size)
+        while(index < half)
         {
             /* Get the index and priority of the highest priority child. */
+            int childIndex = index * 2 + 1;
             int childPriority = ((PriorityItem<T>)storage[childIndex]).getPriority();
             if(childIndex + 1 < size)
             {
                 int rightChildPriority = ((PriorityItem<T>)storage[childIndex+1]).getPriority();
+                ++comparisons;
                 if(childPriority<rightChildPriority)
                 {
                     childPriority = rightChildPriority;
@@ -105,19 +277,18 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
             /* Get parent priority and compare to child priority. If the parent
              * has a higher property we can break out of the method. */
             int parentPriority = ((PriorityItem<T>)storage[index]).getPriority();            
+            ++comparisons;
             if(parentPriority > childPriority)
                 break;
             else
             {
                 /* Otherwise we will swap parent and child then update index. */
+                ++swaps;
                 Object temp = storage[index];
                 storage[index] = storage[childIndex];
                 storage[childIndex] = temp;
                 index = childIndex;
             }
-            
-            /* Re-calculate the index of the next left child */
-            childIndex = index * 2 + 1;
         }
     }
     
@@ -131,10 +302,33 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
      */
     private boolean isStartOfHeapLevel(int index)
     {
-        for(int i = 2; i <= index + 1; i *= 2)
-            if(i - 1 == index)
-                return true;
-        return false;
+        /* Levels after the first start at indexes one less than a power of
+         * two, which is a constant time test with no loop to overflow. */
+        return index > 0 && ((index + 1) & index) == 0;
+    }
+    
+    
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return get(index);
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
     }
     
     
@@ -146,6 +340,10 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
         if(size == capacity)
             throw new QueueOverflowException();
         
+        if(size == storage.length)
+            grow(size + 1);
+        
+        ++modCount;
         /* Create the new item at the end of the heap */
         storage[size] = new PriorityItem<>(item,priority);
         ++size;
@@ -155,6 +353,49 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
     }
 
     
+    /**
+     * Add all of the given items to the queue.
+     * 
+     * When the batch is at least as large as the items already stored the
+     * whole heap is rebuilt bottom-up (Floyd's method) in linear time,
+     * otherwise each new item is bubbled up individually.
+     * 
+     * @param items
+     * @throws QueueOverflowException 
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        int count = items.size();
+        if(count > capacity - size)
+            throw new QueueOverflowException();
+        
+        ++modCount;
+        if(size + count > storage.length)
+            grow(size + count);
+        
+        if(count < size)
+        {
+            for(PriorityItem<T> item : items)
+            {
+                storage[size] = item;
+                ++size;
+                bubbleUp();
+            }
+            return;
+        }
+        
+        /* Append the batch then sift down every parent, last parent first. */
+        for(PriorityItem<T> item : items)
+        {
+            storage[size] = item;
+            ++size;
+        }
+        for(int i = size/2-1; i >= 0; --i)
+            bubbleDown(i);
+    }
+
+    
     @Override
     public T head() throws QueueUnderflowException
     {
@@ -165,13 +406,38 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
     }
 
     
+    /**
+     * The priority of the highest priority item stored. Throw an exception if
+     * it's empty.
+     * 
+     * @return The priority of the item returned by head()
+     * @throws QueueUnderflowException 
+     */
+    public int headPriority() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+        
+        return ((PriorityItem<T>)storage[0]).getPriority();
+    }
+
+    
     @Override
     public void remove() throws QueueUnderflowException
     {
         if(isEmpty())
             throw new QueueUnderflowException();
         
-        /* If no exception was thrown there is at least one item to remove. */
+        ++modCount;
+        removeHead();
+    }
+    
+    
+    /**
+     * Helper method to remove the head of a heap known not to be empty.
+     */
+    private void removeHead()
+    {
         size--;
         /* If there was only one item size == 0 and we are done. */
         if(size > 0)
@@ -179,29 +445,197 @@ public class HeapPriorityQueue<T> implements PriorityQueue<T>
             /* Replace head with the last item in the heap. */
             storage[0] = storage[size];
             /* Resolve integrity of the binary heap. */
-            bubbleDown();
-        }  
+            bubbleDown(0);
+        }
+        
+        /* Don't keep the removed item reachable from the unused slot. */
+        storage[size] = null;
+        shrinkIfSparse();
     }
     
     
+    /**
+     * Remove up to max of the highest priority items, adding them to target
+     * highest priority first.
+     * 
+     * Small batches are removed one at a time, each costing a sift-down from
+     * the root. Once the batch is large enough that those would cost more
+     * than rebuilding the heap, the batch is instead found by walking the
+     * heap best first, keeping the children of every item taken in a small
+     * frontier ordered by priority. The items left are then packed together
+     * and heapified bottom-up in a single linear pass.
+     * 
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
     @Override
-    public String toString()
+    public int drainTo(Collection<? super T> target, int max)
     {
-        /* Construct a comma delimited list of items in the queue. Displaying
-         * each level of the heap on a new line. */
-        String result = "[";
-        for (int i = 0; i < size; ++i) {
-            
-            if (i > 0)
-                result += ", ";
-            
-            if(isStartOfHeapLevel(i))
-                result += '\n';
+        if(max < 0)
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+        
+        int count = Math.min(max, size);
+        if(count == 0)
+            return 0;
+        
+        ++modCount;
+        
+        /* Each sift-down takes up to log2(size) swaps, and a rebuild about
+         * 2 * size. */
+        int depth = 32 - Integer.numberOfLeadingZeros(size);
+        if((long) count * depth < 2L * size)
+        {
+            for(int i = 0; i < count; ++i)
+            {
+                target.add(get(0).getItem());
+                removeHead();
+            }
+            return count;
+        }
+        
+        java.util.PriorityQueue<Integer> frontier = new java.util.PriorityQueue<>(16, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Integer.compare(get(b).getPriority(), get(a).getPriority());
+            }
+        });
+        boolean [] taken = new boolean[size];
+        frontier.add(0);
+        for(int i = 0; i < count; ++i)
+        {
+            int index = frontier.poll();
+            target.add(get(index).getItem());
+            taken[index] = true;
             
-            result += storage[i];
+            if(index < size >>> 1)
+            {
+                int childIndex = index * 2 + 1;
+                frontier.add(childIndex);
+                if(childIndex + 1 < size)
+                    frontier.add(childIndex + 1);
+            }
+        }
+        
+        /* Only drop the batch once it has all been handed over. */
+        int kept = 0;
+        for(int i = 0; i < size; ++i)
+            if(!taken[i])
+                storage[kept++] = storage[i];
+        Arrays.fill(storage, kept, size, null);
+        size = kept;
+        for(int i = size/2-1; i >= 0; --i)
+            bubbleDown(i);
+        shrinkIfSparse();
+        return count;
+    }
+    
+    
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        /* Write storage as it is, so that it can be restored as it is. */
+        out.begin(Snapshot.Order.HEAP, 2, size);
+        for(int i = 0; i < size; ++i)
+        {
+            PriorityItem<T> item = (PriorityItem<T>)storage[i];
+            out.write(item.getItem(), item.getPriority());
         }
-        result = result + "]";
-        return result;
+        out.finish();
+    }
+    
+    
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     * 
+     * Snapshots of a binary heap, or of a sorted queue, are already laid out
+     * as a binary heap and are used as they are. Anything else is heapified
+     * bottom-up in linear time.
+     * 
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException 
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        int count = in.getCount();
+        if(count > capacity)
+            throw new QueueOverflowException();
+        
+        /* Read into new storage so nothing changes if reading fails. */
+        Object [] restored = new Object[Math.max(count, initialCapacity)];
+        for(int i = 0; i < count; ++i)
+        {
+            in.next();
+            restored[i] = new PriorityItem<>(in.getItem(), in.getPriority());
+        }
+        
+        ++modCount;
+        storage = restored;
+        size = count;
+        if(!in.isHeapOf(2))
+            for(int i = size/2-1; i >= 0; --i)
+                bubbleDown(i);
+    }
+    
+    
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size);
+    }
+    
+    
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size);
+    }
+    
+    
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+        {
+            listing.addHeap(size, 2, new Listing.HeapEntries()
+            {
+                @Override
+                public long keyAt(int index)
+                {
+                    return get(index).getPriority();
+                }
+                
+                @Override
+                public boolean addTo(Listing listing, int index) throws IOException
+                {
+                    return listing.add(get(index));
+                }
+            });
+        }
+        else
+        {
+            /* Display each level of the heap on a new line. */
+            for(int i = 0; i < size; ++i)
+            {
+                if(isStartOfHeapLevel(i))
+                    listing.breakLine();
+                if(!listing.add(get(i)))
+                    break;
+            }
+        }
+        listing.finish();
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
     }
 
     
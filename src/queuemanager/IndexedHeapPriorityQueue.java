@@ -0,0 +1,475 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+
+/**
+ * Implementation of the PriorityQueue ADT using a binary heap, as
+ * HeapPriorityQueue, that also keeps track of where each item is stored.
+ *
+ * A map from each item to its index in storage is kept up to date every time
+ * items are moved within the heap. This lets a specific item be found in O(1)
+ * time and so have its priority changed, or be removed, in O(log n) time
+ * rather than by searching the whole queue.
+ *
+ * Because items are used as keys, each item may only be in the queue once at
+ * a time, and items must have consistent equals and hashCode methods.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class IndexedHeapPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * Where the data is actually stored.
+     */
+    private Object [] storage;
+
+    /**
+     * The index in storage of each item.
+     */
+    private final Map<T, Integer> indexes = new HashMap<>();
+
+    /**
+     * The maximum number of items the Queue can store.
+     */
+    private final int capacity;
+
+    /**
+     * The current number of items stored.
+     */
+    private int size = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+
+    /**
+     * Create a new empty queue with the given capacity. The queue will never
+     * grow beyond this.
+     *
+     * @param capacity
+     */
+    public IndexedHeapPriorityQueue(int capacity)
+    {
+        this.capacity = capacity;
+        storage = new Object[capacity];
+    }
+
+
+    /**
+     * Create a new empty queue that grows as items are added, with no limit
+     * on the number of items it may hold.
+     */
+    public IndexedHeapPriorityQueue()
+    {
+        capacity = HeapPriorityQueue.MAX_CAPACITY;
+        storage = new Object[HeapPriorityQueue.DEFAULT_INITIAL_CAPACITY];
+    }
+
+
+    /**
+     * Is the given item in the queue?
+     *
+     * @param item
+     * @return True if the item is stored, otherwise False
+     */
+    public boolean contains(T item)
+    {
+        return indexes.containsKey(item);
+    }
+
+
+    /**
+     * Change the priority of the given item.
+     *
+     * @param item
+     * @param priority The new priority.
+     * @return True if the item was found and changed, otherwise False
+     */
+    public boolean updatePriority(T item, int priority)
+    {
+        Integer index = indexes.get(item);
+        if(index == null)
+            return false;
+
+        ++modCount;
+        int oldPriority = priorityAt(index);
+        storage[index] = new PriorityItem<>(item, priority);
+
+        /* The item can only be out of place in the direction it moved. */
+        if(priority > oldPriority)
+            bubbleUp(index);
+        else
+            bubbleDown(index);
+        return true;
+    }
+
+
+    /**
+     * Remove the given item from the queue, wherever it is.
+     *
+     * @param item
+     * @return True if the item was found and removed, otherwise False
+     */
+    public boolean remove(T item)
+    {
+        Integer index = indexes.get(item);
+        if(index == null)
+            return false;
+
+        removeAt(index);
+        return true;
+    }
+
+
+    /**
+     * Helper method to read the priority of the item at an index.
+     *
+     * @param index
+     * @return The priority of the item stored there.
+     */
+    private int priorityAt(int index)
+    {
+        return ((PriorityItem<T>)storage[index]).getPriority();
+    }
+
+
+    /**
+     * Helper method to store an item at an index and record where it is.
+     *
+     * @param index
+     * @param item
+     */
+    private void place(int index, Object item)
+    {
+        storage[index] = item;
+        indexes.put(((PriorityItem<T>)item).getItem(), index);
+    }
+
+
+    /**
+     * Helper method to swap two items and update their recorded indexes.
+     *
+     * @param a
+     * @param b
+     */
+    private void swap(int a, int b)
+    {
+        Object temp = storage[a];
+        place(a, storage[b]);
+        place(b, temp);
+    }
+
+
+    /**
+     * Helper method to ensure the integrity of the binary heap is maintained
+     * after the item at index may have gained priority.
+     *
+     * @param index The index of the item that may be out of place.
+     */
+    private void bubbleUp(int index)
+    {
+        while(index > 0)
+        {
+            int parentIndex = (index+1)/2-1;
+
+            /* If parent has a higher priority then we're done. */
+            if(priorityAt(parentIndex) >= priorityAt(index))
+                break;
+
+            /* Otherwise we swap parent and child. */
+            swap(index, parentIndex);
+            index = parentIndex;
+        }
+    }
+
+
+    /**
+     * Helper method to ensure the integrity of the binary heap is maintained
+     * after the item at index may have lost priority.
+     *
+     * @param index The index of the item that may be out of place.
+     */
+    private void bubbleDown(int index)
+    {
+        int childIndex = index * 2 + 1;
+        while(childIndex < size)
+        {
+            /* Get the index of the highest priority child. */
+            if(childIndex + 1 < size && priorityAt(childIndex) < priorityAt(childIndex+1))
+                ++childIndex;
+
+            /* If the parent has a higher priority we're done. */
+            if(priorityAt(index) >= priorityAt(childIndex))
+                break;
+
+            swap(index, childIndex);
+            index = childIndex;
+            childIndex = index * 2 + 1;
+        }
+    }
+
+
+    /**
+     * Helper method to remove the item at the given index.
+     *
+     * @param index
+     */
+    private void removeAt(int index)
+    {
+        ++modCount;
+        indexes.remove(((PriorityItem<T>)storage[index]).getItem());
+        size--;
+
+        if(index < size)
+        {
+            /* Fill the gap with the last item, which may then belong either
+             * above or below it. */
+            int oldPriority = priorityAt(index);
+            place(index, storage[size]);
+            if(priorityAt(index) > oldPriority)
+                bubbleUp(index);
+            else
+                bubbleDown(index);
+        }
+        storage[size] = null;
+    }
+
+
+    /**
+     * Helper method to make room for one more item. The array is doubled in
+     * size but never made larger than capacity.
+     */
+    private void grow()
+    {
+        int newLength = (storage.length < capacity / 2) ? Math.max(storage.length * 2, 1) : capacity;
+        QueueEvents.Resize event = new QueueEvents.Resize();
+        event.begin();
+        int oldLength = storage.length;
+        storage = Arrays.copyOf(storage, newLength);
+        event.commit(this, size, oldLength, newLength);
+    }
+
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return (PriorityItem<T>) storage[index];
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    /**
+     * Add the given item to the queue with the given priority. Throw an
+     * exception if it's already full to capacity.
+     *
+     * @param item An item not already in the queue.
+     * @param priority
+     * @throws QueueOverflowException
+     * @throws IllegalArgumentException if the item is already in the queue.
+     */
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        if(size == capacity)
+            throw new QueueOverflowException();
+        if(indexes.containsKey(item))
+            throw new IllegalArgumentException("Item already queued: " + item);
+
+        ++modCount;
+        if(size == storage.length)
+            grow();
+
+        place(size, new PriorityItem<>(item, priority));
+        ++size;
+        bubbleUp(size - 1);
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        if(items.size() > capacity - size)
+            throw new QueueOverflowException();
+
+        /* Check for repeated items first so that none are added if any
+         * would be rejected. */
+        Set<T> batch = new HashSet<>();
+        for(PriorityItem<T> item : items)
+            if(indexes.containsKey(item.getItem()) || !batch.add(item.getItem()))
+                throw new IllegalArgumentException("Item already queued: " + item.getItem());
+
+        for(PriorityItem<T> item : items)
+            add(item.getItem(), item.getPriority());
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        return ((PriorityItem<T>)storage[0]).getItem();
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        removeAt(0);
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        /* Write storage as it is, so that it can be restored as it is. */
+        out.begin(Snapshot.Order.HEAP, 2, size);
+        for(int i = 0; i < size; ++i)
+        {
+            PriorityItem<T> item = (PriorityItem<T>)storage[i];
+            out.write(item.getItem(), item.getPriority());
+        }
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * Snapshots of a binary heap, or of a sorted queue, are already laid out
+     * as a binary heap and are used as they are. Anything else is heapified
+     * bottom-up in linear time.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     * @throws IllegalArgumentException if the snapshot holds an item more
+     * than once.
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        int count = in.getCount();
+        if(count > capacity)
+            throw new QueueOverflowException();
+
+        /* Read into new storage so nothing changes if reading fails. */
+        Object [] restored = new Object[Math.max(count, storage.length)];
+        Map<T, Integer> restoredIndexes = new HashMap<>();
+        for(int i = 0; i < count; ++i)
+        {
+            in.next();
+            if(restoredIndexes.put(in.getItem(), i) != null)
+                throw new IllegalArgumentException("Item already queued: " + in.getItem());
+            restored[i] = new PriorityItem<>(in.getItem(), in.getPriority());
+        }
+
+        ++modCount;
+        storage = restored;
+        size = count;
+        indexes.clear();
+        indexes.putAll(restoredIndexes);
+        if(!in.isHeapOf(2))
+            for(int i = size/2-1; i >= 0; --i)
+                bubbleDown(i);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size);
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size);
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+            listing.addHeap(size, 2, new Listing.HeapEntries()
+            {
+                @Override
+                public long keyAt(int index)
+                {
+                    return priorityAt(index);
+                }
+
+
+                @Override
+                public boolean addTo(Listing listing, int index) throws IOException
+                {
+                    return listing.add((PriorityItem<T>) storage[index]);
+                }
+            });
+        else
+            /* List the items in heap order. */
+            for(int i = 0; i < size; ++i)
+                if(!listing.add((PriorityItem<T>) storage[i]))
+                    break;
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (size < 1);
+    }
+
+}
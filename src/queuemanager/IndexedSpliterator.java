@@ -0,0 +1,161 @@
+package queuemanager;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A fail-fast Spliterator over the entries of a queue that keeps them at
+ * indexes 0 to size - 1, such as an array or a heap. Used by the
+ * implementations of PriorityQueue.iterator() and spliterator().
+ *
+ * It splits its range of indexes in half, so the parts are always exactly
+ * sized and a parallel stream divides the work evenly between threads. The
+ * queue counts the changes made to it, and a change made after the
+ * Spliterator or iterator was created is reported with a
+ * ConcurrentModificationException.
+ *
+ * @param <T> The type of items stored.
+ */
+final class IndexedSpliterator<T> implements Spliterator<PriorityItem<T>>
+{
+
+    /**
+     * Access to the storage of a queue, for IndexedSpliterator.
+     *
+     * @param <T> The type of items stored.
+     */
+    interface Storage<T>
+    {
+        /**
+         * The entry at an index.
+         *
+         * @param index Less than the size of the queue.
+         * @return The item with its priority.
+         */
+        PriorityItem<T> entryAt(int index);
+
+        /**
+         * The number of changes made to the queue so far.
+         *
+         * @return The count.
+         */
+        int modCount();
+    }
+
+    private final Storage<T> storage;
+
+    /**
+     * The next index to visit.
+     */
+    private int index;
+
+    /**
+     * One past the last index to visit.
+     */
+    private final int fence;
+
+    /**
+     * The modCount of the queue when iteration began.
+     */
+    private final int expectedModCount;
+
+
+    /**
+     * Create a Spliterator over every entry of a queue.
+     *
+     * @param storage
+     * @param size The number of entries stored.
+     */
+    IndexedSpliterator(Storage<T> storage, int size)
+    {
+        this(storage, 0, size, storage.modCount());
+    }
+
+
+    private IndexedSpliterator(Storage<T> storage, int origin, int fence, int expectedModCount)
+    {
+        this.storage = storage;
+        this.index = origin;
+        this.fence = fence;
+        this.expectedModCount = expectedModCount;
+    }
+
+
+    /**
+     * Create a fail-fast iterator over every entry of a queue.
+     *
+     * @param <T> The type of items stored.
+     * @param storage
+     * @param size The number of entries stored.
+     * @return The iterator.
+     */
+    static <T> Iterator<PriorityItem<T>> iterator(final Storage<T> storage, final int size)
+    {
+        return new Iterator<PriorityItem<T>>()
+        {
+            private final int expectedModCount = storage.modCount();
+
+            private int index = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < size;
+            }
+
+            @Override
+            public PriorityItem<T> next()
+            {
+                if(storage.modCount() != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if(index >= size)
+                    throw new NoSuchElementException();
+                return storage.entryAt(index++);
+            }
+        };
+    }
+
+
+    @Override
+    public boolean tryAdvance(Consumer<? super PriorityItem<T>> action)
+    {
+        if(index >= fence)
+            return false;
+
+        if(storage.modCount() != expectedModCount)
+            throw new ConcurrentModificationException();
+        action.accept(storage.entryAt(index++));
+        return true;
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> trySplit()
+    {
+        int middle = (index + fence) >>> 1;
+        if(middle <= index)
+            return null;
+
+        Spliterator<PriorityItem<T>> prefix = new IndexedSpliterator<>(storage, index, middle, expectedModCount);
+        index = middle;
+        return prefix;
+    }
+
+
+    @Override
+    public long estimateSize()
+    {
+        return fence - index;
+    }
+
+
+    @Override
+    public int characteristics()
+    {
+        return SIZED | SUBSIZED | NONNULL;
+    }
+
+}
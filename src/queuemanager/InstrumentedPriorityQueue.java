@@ -0,0 +1,525 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wrapper around any PriorityQueue that records how it is used: how many
+ * times each operation is called and how many of those fail, a
+ * LatencyHistogram of how long each takes, the number of items stored and
+ * the most there have been at once. If the wrapped queue implements
+ * WorkCounting, the comparisons and swaps it makes are reported too.
+ *
+ * Recording can be turned off and on again while the queue is in use. While
+ * it is off every operation goes straight to the wrapped queue after reading
+ * a single flag, so a queue can be left wrapped at almost no cost. The size
+ * is counted again from the wrapped queue when recording is turned back on.
+ *
+ * The wrapper adds no locking of its own: it is as safe to share between
+ * threads as the queue it wraps. The latencies and counts it records itself
+ * are safe to read from any thread. The comparisons and swaps come from the
+ * wrapped queue's own counters, which are plain fields so as to cost nothing
+ * on its hot paths, so reading them from another thread needs the same
+ * synchronization as using the queue. The wrapped queue must not be used
+ * directly once it has been wrapped.
+ *
+ * PrometheusExporter writes the figures out for monitoring.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class InstrumentedPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The operations that are timed.
+     */
+    public enum Operation
+    {
+        ADD, ADD_ALL, HEAD, REMOVE, POLL, DRAIN
+    }
+
+    /**
+     * The queue actually storing the items.
+     */
+    private final PriorityQueue<T> queue;
+
+    /**
+     * Whether operations are being recorded.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * How long each operation took, indexed by Operation.ordinal(). The count
+     * of each is the number of calls.
+     */
+    private final LatencyHistogram [] latencies = new LatencyHistogram[Operation.values().length];
+
+    /**
+     * The number of calls to each operation that threw a
+     * QueueOverflowException or QueueUnderflowException.
+     */
+    private final AtomicLongArray failures = new AtomicLongArray(Operation.values().length);
+
+    private final AtomicLong itemsAdded = new AtomicLong();
+
+    private final AtomicLong itemsRemoved = new AtomicLong();
+
+    /**
+     * The number of items stored, counted as they are added and removed.
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * The largest size since recording started.
+     */
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /**
+     * The counts of the wrapped queue when recording started, if it counts
+     * its work.
+     */
+    private volatile long comparisonsAtReset;
+    private volatile long swapsAtReset;
+
+
+    /**
+     * Wrap the given queue, recording from the start.
+     *
+     * @param queue The queue to store the items in.
+     */
+    public InstrumentedPriorityQueue(PriorityQueue<T> queue)
+    {
+        this(queue, true);
+    }
+
+
+    /**
+     * Wrap the given queue.
+     *
+     * @param queue The queue to store the items in.
+     * @param enabled Whether to start recording straight away.
+     */
+    public InstrumentedPriorityQueue(PriorityQueue<T> queue, boolean enabled)
+    {
+        this.queue = queue;
+        for(int i = 0; i < latencies.length; ++i)
+            latencies[i] = new LatencyHistogram();
+        reset();
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * Is recording turned on?
+     *
+     * @return True if operations are being recorded.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+    /**
+     * Turn recording on or off. The figures recorded so far are kept.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled)
+    {
+        if(enabled && !this.enabled)
+            resize(queue.size());
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * Forget everything recorded so far and start again from the current
+     * contents of the queue.
+     */
+    public final void reset()
+    {
+        for(int i = 0; i < latencies.length; ++i)
+        {
+            latencies[i].reset();
+            failures.set(i, 0);
+        }
+        itemsAdded.set(0);
+        itemsRemoved.set(0);
+        highWaterMark.set(0);
+        resize(queue.size());
+
+        if(queue instanceof WorkCounting)
+        {
+            comparisonsAtReset = ((WorkCounting) queue).getComparisons();
+            swapsAtReset = ((WorkCounting) queue).getSwaps();
+        }
+    }
+
+
+    /**
+     * The number of times an operation has been called.
+     *
+     * @param operation
+     * @return The count.
+     */
+    public long getCount(Operation operation)
+    {
+        return latencies[operation.ordinal()].getCount();
+    }
+
+
+    /**
+     * The number of times an operation has thrown a QueueOverflowException
+     * or QueueUnderflowException.
+     *
+     * @param operation
+     * @return The count.
+     */
+    public long getFailures(Operation operation)
+    {
+        return failures.get(operation.ordinal());
+    }
+
+
+    /**
+     * How long an operation has taken, in nanoseconds.
+     *
+     * @param operation
+     * @return The live histogram, which keeps being recorded into.
+     */
+    public LatencyHistogram getLatency(Operation operation)
+    {
+        return latencies[operation.ordinal()];
+    }
+
+
+    /**
+     * The number of items added, counting every item of a batch.
+     *
+     * @return The count.
+     */
+    public long getItemsAdded()
+    {
+        return itemsAdded.get();
+    }
+
+
+    /**
+     * The number of items removed, counting every item of a batch.
+     *
+     * @return The count.
+     */
+    public long getItemsRemoved()
+    {
+        return itemsRemoved.get();
+    }
+
+
+    /**
+     * The most items the queue has held at once since recording started.
+     *
+     * @return The count.
+     */
+    public long getSizeHighWaterMark()
+    {
+        return highWaterMark.get();
+    }
+
+
+    /**
+     * Does the wrapped queue count its comparisons and swaps?
+     *
+     * @return True if it implements WorkCounting.
+     */
+    public boolean isWorkCounted()
+    {
+        return queue instanceof WorkCounting;
+    }
+
+
+    /**
+     * The number of comparisons the wrapped queue has made since recording
+     * started, including any made while recording was turned off.
+     *
+     * @return The count, or 0 if the queue does not count them.
+     */
+    public long getComparisons()
+    {
+        return isWorkCounted() ? ((WorkCounting) queue).getComparisons() - comparisonsAtReset : 0;
+    }
+
+
+    /**
+     * The number of swaps the wrapped queue has made since recording started,
+     * including any made while recording was turned off.
+     *
+     * @return The count, or 0 if the queue does not count them.
+     */
+    public long getSwaps()
+    {
+        return isWorkCounted() ? ((WorkCounting) queue).getSwaps() - swapsAtReset : 0;
+    }
+
+
+    /**
+     * Helper method to record how long an operation took.
+     *
+     * @param operation
+     * @param start The time it started, from System.nanoTime().
+     */
+    private void record(Operation operation, long start)
+    {
+        latencies[operation.ordinal()].record(System.nanoTime() - start);
+    }
+
+
+    /**
+     * Helper method to record that an operation failed.
+     *
+     * @param operation
+     */
+    private void fail(Operation operation)
+    {
+        failures.incrementAndGet(operation.ordinal());
+    }
+
+
+    /**
+     * Helper method to count items added and raise the high water mark.
+     *
+     * @param count
+     */
+    private void grow(long count)
+    {
+        itemsAdded.addAndGet(count);
+        raiseHighWaterMark(size.addAndGet(count));
+    }
+
+
+    /**
+     * Helper method to count items removed.
+     *
+     * @param count
+     */
+    private void shrink(long count)
+    {
+        itemsRemoved.addAndGet(count);
+        size.addAndGet(-count);
+    }
+
+
+    /**
+     * Helper method to set the size after the contents have been replaced.
+     *
+     * @param count
+     */
+    private void resize(long count)
+    {
+        size.set(count);
+        raiseHighWaterMark(count);
+    }
+
+
+    /**
+     * Helper method to raise the high water mark to a size if it is lower.
+     *
+     * @param current
+     */
+    private void raiseHighWaterMark(long current)
+    {
+        long mark = highWaterMark.get();
+        while(current > mark && !highWaterMark.compareAndSet(mark, current))
+            mark = highWaterMark.get();
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        if(!enabled)
+        {
+            queue.add(item, priority);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            queue.add(item, priority);
+            record(Operation.ADD, start);
+        } catch(QueueOverflowException e) {
+            record(Operation.ADD, start);
+            fail(Operation.ADD);
+            throw e;
+        }
+        grow(1);
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        if(!enabled)
+        {
+            queue.addAll(items);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            queue.addAll(items);
+            record(Operation.ADD_ALL, start);
+        } catch(QueueOverflowException e) {
+            record(Operation.ADD_ALL, start);
+            fail(Operation.ADD_ALL);
+            throw e;
+        }
+        grow(items.size());
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(!enabled)
+            return queue.head();
+
+        long start = System.nanoTime();
+        try
+        {
+            T item = queue.head();
+            record(Operation.HEAD, start);
+            return item;
+        } catch(QueueUnderflowException e) {
+            record(Operation.HEAD, start);
+            fail(Operation.HEAD);
+            throw e;
+        }
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(!enabled)
+        {
+            queue.remove();
+            return;
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            queue.remove();
+            record(Operation.REMOVE, start);
+        } catch(QueueUnderflowException e) {
+            record(Operation.REMOVE, start);
+            fail(Operation.REMOVE);
+            throw e;
+        }
+        shrink(1);
+    }
+
+
+    @Override
+    public T poll() throws QueueUnderflowException
+    {
+        if(!enabled)
+            return queue.poll();
+
+        long start = System.nanoTime();
+        T item;
+        try
+        {
+            item = queue.poll();
+            record(Operation.POLL, start);
+        } catch(QueueUnderflowException e) {
+            record(Operation.POLL, start);
+            fail(Operation.POLL);
+            throw e;
+        }
+        shrink(1);
+        return item;
+    }
+
+
+    @Override
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        if(!enabled)
+            return queue.drainTo(target, max);
+
+        long start = System.nanoTime();
+        int count = queue.drainTo(target, max);
+        record(Operation.DRAIN, start);
+        shrink(count);
+        return count;
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        queue.snapshot(out);
+    }
+
+
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        queue.restore(in);
+        if(enabled)
+            resize(queue.size());
+    }
+
+
+    @Override
+    public int size()
+    {
+        return queue.size();
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return queue.iterator();
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return queue.spliterator();
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        queue.writeTo(out, limit, inPriorityOrder);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return queue.toString();
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return queue.isEmpty();
+    }
+
+}
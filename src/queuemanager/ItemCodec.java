@@ -0,0 +1,51 @@
+package queuemanager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts items to and from bytes of any length, so that they can be saved
+ * in a snapshot.
+ *
+ * @param <T> The type of items converted.
+ */
+public interface ItemCodec<T> {
+
+    /**
+     * Codec for String items, stored as UTF-8.
+     */
+    public static final ItemCodec<String> STRING = new ItemCodec<String>() {
+        @Override
+        public byte[] encode(String item) {
+            return item.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer source) {
+            if (source.hasArray()) {
+                return new String(source.array(), source.arrayOffset() + source.position(),
+                        source.remaining(), StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Convert an item to bytes.
+     *
+     * @param item
+     * @return The bytes.
+     */
+    public byte[] encode(T item);
+
+    /**
+     * Convert bytes back to an item.
+     *
+     * @param source Holds exactly the bytes of one item between its position
+     * and limit. The position may be left anywhere.
+     * @return The item.
+     */
+    public T decode(ByteBuffer source);
+}
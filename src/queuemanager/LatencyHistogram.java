@@ -0,0 +1,191 @@
+package queuemanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with a fixed relative precision, in
+ * the style of HdrHistogram.
+ *
+ * Values below 2 * SUB_BUCKETS each have a bucket of their own. Above that,
+ * every power of two is split into SUB_BUCKETS equal buckets, so a value is
+ * only ever rounded by less than 1 part in SUB_BUCKETS (under 1%), however
+ * large it is. Recording is a couple of shifts and an atomic increment, with
+ * no allocation, and may be done from several threads at once. Values of
+ * MAX_VALUE or more are counted as MAX_VALUE.
+ */
+public final class LatencyHistogram
+{
+
+    /**
+     * log2(SUB_BUCKETS).
+     */
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /**
+     * The number of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest value recorded as it is, a little over 18 minutes.
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Helper method to find the bucket a value is counted in.
+     *
+     * @param value Between 0 and MAX_VALUE.
+     * @return The index of the bucket.
+     */
+    private static int indexOf(long value)
+    {
+        if(value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        /* Keep the top SUB_BUCKET_BITS + 1 bits of the value. The first of
+         * them is always set, so it is dropped from the index. */
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * Helper method to find the largest value counted in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The value.
+     */
+    private static long highestValueIn(int index)
+    {
+        if(index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+
+    /**
+     * Record a value.
+     *
+     * @param nanos The duration, which is taken to be 0 if negative.
+     */
+    public void record(long nanos)
+    {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while(value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+
+    /**
+     * The number of values recorded.
+     *
+     * @return The count.
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * The total of the values recorded.
+     *
+     * @return The sum, in nanoseconds.
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+
+    /**
+     * The largest value recorded, exactly.
+     *
+     * @return The value, or 0 if none have been recorded.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * The mean of the values recorded.
+     *
+     * @return The mean, or 0 if none have been recorded.
+     */
+    public double getMean()
+    {
+        long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+
+    /**
+     * The value that the given percentage of the values recorded are at or
+     * below, to within the precision of the histogram.
+     *
+     * @param percentile From 0 to 100.
+     * @return The value, or 0 if none have been recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if(percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+
+        /* Count through the buckets, which may still be being added to, so
+         * the total is taken from them rather than from count. */
+        long total = 0;
+        for(int i = 0; i < counts.length(); ++i)
+            total += counts.get(i);
+        if(total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); ++i)
+        {
+            seen += counts.get(i);
+            if(seen >= rank)
+                return Math.min(highestValueIn(i), getMax());
+        }
+        return getMax();
+    }
+
+
+    /**
+     * Forget every value recorded. Values recorded by other threads at the
+     * same time may or may not be kept.
+     */
+    public void reset()
+    {
+        for(int i = 0; i < counts.length(); ++i)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+}
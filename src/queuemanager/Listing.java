@@ -0,0 +1,268 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes the list of items in a queue, in the format described by
+ * PriorityQueue.toString(), an entry at a time to an Appendable. Used by the
+ * implementations of PriorityQueue.writeTo().
+ *
+ * Entries are added until the limit is reached; adding one more then fails
+ * and the list is ended with "..." to show that it was cut short.
+ */
+final class Listing
+{
+
+    private final Appendable out;
+
+    private final int limit;
+
+    /**
+     * The number of entries written so far.
+     */
+    private int count = 0;
+
+    /**
+     * Was an entry refused because the limit had been reached?
+     */
+    private boolean truncated = false;
+
+    /**
+     * Should the next entry start on a new line?
+     */
+    private boolean lineBreak = false;
+
+
+    /**
+     * Access to the entries of an array-based heap, for addHeap.
+     */
+    interface HeapEntries
+    {
+        /**
+         * The key of the entry at an index. Entries with larger keys are
+         * written first.
+         *
+         * @param index
+         * @return The key.
+         */
+        long keyAt(int index);
+
+        /**
+         * Add the entry at an index to a listing.
+         *
+         * @param listing
+         * @param index
+         * @return The result of the listing's add.
+         * @throws IOException
+         */
+        boolean addTo(Listing listing, int index) throws IOException;
+    }
+
+
+    /**
+     * Start a list, writing its opening bracket.
+     *
+     * @param out Where the list is written.
+     * @param limit The most entries to write.
+     * @throws IOException
+     */
+    Listing(Appendable out, int limit) throws IOException
+    {
+        if(limit < 0)
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+
+        this.out = out;
+        this.limit = limit;
+        out.append('[');
+    }
+
+
+    /**
+     * Write a queue to a string with no limit, for toString().
+     *
+     * @param queue
+     * @return The list of every item in the queue.
+     */
+    static String toString(PriorityQueue<?> queue)
+    {
+        StringBuilder result = new StringBuilder();
+        try
+        {
+            queue.writeTo(result, Integer.MAX_VALUE, false);
+        } catch(IOException e) {
+            /* A StringBuilder never throws one. */
+            throw new AssertionError(e);
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Write an entry, unless the limit has been reached.
+     *
+     * @param item
+     * @param priority
+     * @return True if it was written, otherwise False and nothing more
+     * should be added.
+     * @throws IOException
+     */
+    boolean add(Object item, int priority) throws IOException
+    {
+        if(!separate())
+            return false;
+        out.append('(').append(String.valueOf(item)).append(", ")
+            .append(Integer.toString(priority)).append(')');
+        return true;
+    }
+
+
+    /**
+     * Write an entry, unless the limit has been reached.
+     *
+     * @param entry
+     * @return True if it was written, otherwise False and nothing more
+     * should be added.
+     * @throws IOException
+     */
+    boolean add(PriorityItem<?> entry) throws IOException
+    {
+        return add(entry.getItem(), entry.getPriority());
+    }
+
+
+    /**
+     * Start the next entry written on a new line.
+     */
+    void breakLine()
+    {
+        lineBreak = true;
+    }
+
+
+    /**
+     * Write entries highest priority first, and in the order given when
+     * priorities are equal, until the limit is reached.
+     *
+     * When only a few more entries can be written, the priority of the last
+     * of them is found first with a small heap, and only the entries at
+     * least that high are sorted.
+     *
+     * @param entries The entries, which may be sorted in place.
+     * @return True if they were all written, otherwise False.
+     * @throws IOException
+     */
+    boolean addSorted(List<? extends PriorityItem<?>> entries) throws IOException
+    {
+        int wanted = limit - count;
+        if(wanted < entries.size() / 8)
+        {
+            /* Keep the highest wanted + 1 priorities, lowest on top, so the
+             * cut-off is still known to be reached once the limit is. */
+            java.util.PriorityQueue<Integer> highest = new java.util.PriorityQueue<>(wanted + 2);
+            for(PriorityItem<?> entry : entries)
+            {
+                highest.add(entry.getPriority());
+                if(highest.size() > wanted + 1)
+                    highest.poll();
+            }
+            int cutOff = highest.peek();
+            List<PriorityItem<?>> kept = new ArrayList<>();
+            for(PriorityItem<?> entry : entries)
+                if(entry.getPriority() >= cutOff)
+                    kept.add(entry);
+            entries = kept;
+        }
+
+        /* The sort is stable, so ties keep their order. */
+        Collections.sort(entries, PriorityItem.HIGHEST_PRIORITY_FIRST);
+        for(PriorityItem<?> entry : entries)
+            if(!add(entry))
+                return false;
+        return true;
+    }
+
+
+    /**
+     * Write the entries of an array-based heap highest key first, until the
+     * limit is reached.
+     *
+     * The heap is walked best first, keeping the children of every entry
+     * written in a frontier ordered by key, so the cost depends on the number
+     * of entries written and not on the size of the heap.
+     *
+     * @param size The number of entries in the heap.
+     * @param arity The number of children each entry has.
+     * @param entries
+     * @return True if they were all written, otherwise False.
+     * @throws IOException
+     */
+    boolean addHeap(int size, int arity, final HeapEntries entries) throws IOException
+    {
+        java.util.PriorityQueue<Integer> frontier = new java.util.PriorityQueue<>(16, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(entries.keyAt(b), entries.keyAt(a));
+            }
+        });
+        if(size > 0)
+            frontier.add(0);
+
+        while(!frontier.isEmpty())
+        {
+            int index = frontier.poll();
+            if(!entries.addTo(this, index))
+                return false;
+
+            long firstChild = (long) arity * index + 1;
+            for(long child = firstChild; child < firstChild + arity && child < size; ++child)
+                frontier.add((int) child);
+        }
+        return true;
+    }
+
+
+    /**
+     * End the list, writing "..." if it was cut short and the closing
+     * bracket.
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException
+    {
+        if(truncated)
+            out.append(count > 0 ? ", ..." : "...");
+        out.append(']');
+    }
+
+
+    /**
+     * Helper method to check the limit and write what comes before an
+     * entry.
+     *
+     * @return True if the entry may be written, otherwise False.
+     * @throws IOException
+     */
+    private boolean separate() throws IOException
+    {
+        if(count == limit)
+        {
+            truncated = true;
+            return false;
+        }
+
+        if(count > 0)
+            out.append(", ");
+        if(lineBreak)
+            out.append('\n');
+        lineBreak = false;
+        ++count;
+        return true;
+    }
+
+}
@@ -0,0 +1,712 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe, relaxed implementation of the PriorityQueue ADT built from
+ * many HeapPriorityQueue shards, each with its own lock (a "MultiQueue").
+ *
+ * add puts the item into a randomly chosen shard. remove samples two shards
+ * at random and removes the head of whichever has the higher priority. A
+ * thread that finds its chosen shard locked simply picks again, so threads
+ * rarely wait for each other and throughput scales with the number of cores.
+ *
+ * The price is that items are not removed in strict priority order: remove
+ * takes an item that is close to, but not necessarily, the highest priority
+ * item stored. How far from strict order the queue drifts can be watched
+ * through getRankErrorStatistics(). With a single shard the queue is strict.
+ *
+ * head() and isEmpty() look at every shard, but without locking them all, so
+ * their results are only a snapshot when other threads are active.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class MultiQueuePriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The value of Shard.top when the shard is empty. Lower than any int
+     * priority.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+
+    /**
+     * A heap together with the lock guarding it.
+     *
+     * @param <T> The type of things being stored.
+     */
+    private static final class Shard<T>
+    {
+        final ReentrantLock lock = new ReentrantLock();
+        final HeapPriorityQueue<T> heap = new HeapPriorityQueue<>();
+
+        /**
+         * The priority at the head of the heap, or EMPTY. Written only while
+         * holding the lock, but read without it to choose between shards.
+         */
+        volatile long top = EMPTY;
+
+        /**
+         * Must be called while holding the lock after the heap changes.
+         */
+        void updateTop()
+        {
+            try
+            {
+                top = heap.isEmpty() ? EMPTY : heap.headPriority();
+            } catch(QueueUnderflowException e) {
+                top = EMPTY;
+            }
+        }
+    }
+
+
+    /**
+     * A snapshot of how far removals have strayed from strict priority order.
+     *
+     * The rank error of a removal is the number of items stored at the time
+     * with a strictly higher priority than the one removed; zero for a strict
+     * priority queue. Counting them exactly would mean searching every shard,
+     * so it is estimated as the number of other shards whose head had a
+     * higher priority. This is a lower bound on the true rank error.
+     */
+    public static final class RankErrorStatistics
+    {
+        private final long removals;
+        private final long outOfOrderRemovals;
+        private final long totalRankError;
+        private final long maxRankError;
+
+        RankErrorStatistics(long removals, long outOfOrderRemovals, long totalRankError, long maxRankError)
+        {
+            this.removals = removals;
+            this.outOfOrderRemovals = outOfOrderRemovals;
+            this.totalRankError = totalRankError;
+            this.maxRankError = maxRankError;
+        }
+
+        /**
+         * @return The number of removals measured.
+         */
+        public long getRemovals()
+        {
+            return removals;
+        }
+
+        /**
+         * @return The number of removals with a rank error above zero.
+         */
+        public long getOutOfOrderRemovals()
+        {
+            return outOfOrderRemovals;
+        }
+
+        /**
+         * @return The mean rank error over all removals measured.
+         */
+        public double getMeanRankError()
+        {
+            return (removals == 0) ? 0.0 : (double) totalRankError / removals;
+        }
+
+        /**
+         * @return The largest rank error seen.
+         */
+        public long getMaxRankError()
+        {
+            return maxRankError;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "removals=" + removals + ", outOfOrder=" + outOfOrderRemovals
+                + ", meanRankError=" + getMeanRankError() + ", maxRankError=" + maxRankError;
+        }
+    }
+
+
+    /**
+     * The shards the items are spread across.
+     */
+    private final Shard<T> [] shards;
+
+    /**
+     * Whether removals are measured for rank error. This costs a scan of the
+     * shard heads per removal so it is off unless asked for.
+     */
+    private final boolean trackRankError;
+
+    /* Rank error counters, only updated when trackRankError is set. */
+    private final AtomicLong removals = new AtomicLong();
+    private final AtomicLong outOfOrderRemovals = new AtomicLong();
+    private final AtomicLong totalRankError = new AtomicLong();
+    private final AtomicLong maxRankError = new AtomicLong();
+
+
+    /**
+     * Create a new empty queue with two shards per available processor.
+     */
+    public MultiQueuePriorityQueue()
+    {
+        this(2 * Runtime.getRuntime().availableProcessors(), false);
+    }
+
+
+    /**
+     * Create a new empty queue with the given number of shards.
+     *
+     * @param shardCount The number of shards, at least 1.
+     */
+    public MultiQueuePriorityQueue(int shardCount)
+    {
+        this(shardCount, false);
+    }
+
+
+    /**
+     * Create a new empty queue with the given number of shards.
+     *
+     * @param shardCount The number of shards, at least 1.
+     * @param trackRankError Whether to measure the rank error of removals.
+     */
+    public MultiQueuePriorityQueue(int shardCount, boolean trackRankError)
+    {
+        if(shardCount < 1)
+            throw new IllegalArgumentException("Invalid shard count: " + shardCount);
+
+        this.trackRankError = trackRankError;
+        shards = newShardArray(shardCount);
+        for(int i = 0; i < shardCount; ++i)
+            shards[i] = new Shard<>();
+    }
+
+
+    /**
+     * Helper method to create an array of shards, as an array of a generic
+     * type cannot be created directly.
+     *
+     * @param <T> The type of things being stored.
+     * @param length
+     * @return An array of nulls.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Shard<T> [] newShardArray(int length)
+    {
+        return (Shard<T> []) new Shard<?>[length];
+    }
+
+
+    /**
+     * The rank error of the removals made so far. Only measured if the queue
+     * was created with trackRankError set.
+     *
+     * @return A snapshot of the statistics.
+     */
+    public RankErrorStatistics getRankErrorStatistics()
+    {
+        return new RankErrorStatistics(removals.get(), outOfOrderRemovals.get(),
+            totalRankError.get(), maxRankError.get());
+    }
+
+
+    /**
+     * Helper method to pick a shard at random.
+     *
+     * @param random The current thread's random number generator.
+     * @return A shard.
+     */
+    private Shard<T> randomShard(ThreadLocalRandom random)
+    {
+        return shards[random.nextInt(shards.length)];
+    }
+
+
+    /**
+     * Helper method to find the shard with the highest priority head.
+     *
+     * @return The shard, or null if every shard is empty.
+     */
+    private Shard<T> bestShard()
+    {
+        Shard<T> best = null;
+        long bestTop = EMPTY;
+        for(Shard<T> shard : shards)
+        {
+            long top = shard.top;
+            if(top > bestTop)
+            {
+                best = shard;
+                bestTop = top;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+     * Helper method to record the rank error of a removal.
+     *
+     * @param from The shard removed from.
+     * @param priority The priority of the item removed.
+     */
+    private void recordRankError(Shard<T> from, long priority)
+    {
+        long error = 0;
+        for(Shard<T> shard : shards)
+            if(shard != from && shard.top > priority)
+                ++error;
+
+        removals.incrementAndGet();
+        if(error > 0)
+        {
+            outOfOrderRemovals.incrementAndGet();
+            totalRankError.addAndGet(error);
+            long max = maxRankError.get();
+            while(error > max && !maxRankError.compareAndSet(max, error))
+                max = maxRankError.get();
+        }
+    }
+
+
+    /**
+     * Remove a high priority item from the queue and return it. Throw an
+     * exception if it's empty.
+     *
+     * The item is the head of the better of two randomly chosen shards, so it
+     * is not necessarily the highest priority item stored.
+     *
+     * @return The item that was removed.
+     * @throws QueueUnderflowException
+     */
+    @Override
+    public T poll() throws QueueUnderflowException
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while(true)
+        {
+            Shard<T> first = randomShard(random);
+            Shard<T> second = randomShard(random);
+            Shard<T> chosen = (first.top >= second.top) ? first : second;
+
+            /* Both samples were empty so fall back to searching them all. */
+            if(chosen.top == EMPTY)
+            {
+                chosen = bestShard();
+                if(chosen == null)
+                    throw new QueueUnderflowException();
+            }
+
+            if(!chosen.lock.tryLock())
+                continue;
+            try
+            {
+                /* Another thread may have emptied it since we looked. */
+                if(chosen.heap.isEmpty())
+                    continue;
+
+                int priority = chosen.heap.headPriority();
+                T item = chosen.heap.head();
+                chosen.heap.remove();
+                chosen.updateTop();
+
+                if(trackRankError)
+                    recordRankError(chosen, priority);
+                return item;
+            }
+            finally
+            {
+                chosen.lock.unlock();
+            }
+        }
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while(true)
+        {
+            Shard<T> shard = randomShard(random);
+            if(!shard.lock.tryLock())
+                continue;
+            try
+            {
+                shard.heap.add(item, priority);
+                shard.updateTop();
+                return;
+            }
+            finally
+            {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Add all of the given items to the queue.
+     *
+     * The batch is dealt round-robin across every shard, starting from a
+     * random one, so that a bulk load is spread as evenly as single adds
+     * would be. Each shard is locked once and built bottom-up by
+     * HeapPriorityQueue.addAll. If a shard overflows, the items already
+     * given to the shards before it stay added.
+     *
+     * @param items
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        List<List<PriorityItem<T>>> dealt = new ArrayList<>(shards.length);
+        for(int i = 0; i < shards.length; ++i)
+            dealt.add(new ArrayList<PriorityItem<T>>(items.size() / shards.length + 1));
+        int next = ThreadLocalRandom.current().nextInt(shards.length);
+        for(PriorityItem<T> item : items)
+        {
+            dealt.get(next).add(item);
+            if(++next == shards.length)
+                next = 0;
+        }
+
+        for(int i = 0; i < shards.length; ++i)
+        {
+            if(dealt.get(i).isEmpty())
+                continue;
+            Shard<T> shard = shards[i];
+            shard.lock.lock();
+            try
+            {
+                shard.heap.addAll(dealt.get(i));
+                shard.updateTop();
+            }
+            finally
+            {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * The number of items in one shard, for tests.
+     *
+     * @param index
+     * @return The size of the shard.
+     */
+    int shardSize(int index)
+    {
+        Shard<T> shard = shards[index];
+        shard.lock.lock();
+        try
+        {
+            return shard.heap.size();
+        }
+        finally
+        {
+            shard.lock.unlock();
+        }
+    }
+
+
+    /**
+     * The highest priority item stored, found by looking at the head of every
+     * shard. Throw an exception if it's empty.
+     *
+     * @return The item with the highest priority
+     * @throws QueueUnderflowException
+     */
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        while(true)
+        {
+            Shard<T> best = bestShard();
+            if(best == null)
+                throw new QueueUnderflowException();
+
+            best.lock.lock();
+            try
+            {
+                if(!best.heap.isEmpty())
+                    return best.heap.head();
+            }
+            finally
+            {
+                best.lock.unlock();
+            }
+        }
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        poll();
+    }
+
+
+    /**
+     * Remove up to max high priority items, adding them to target.
+     *
+     * Each item is taken as by poll(), so the batch holds high priority
+     * items rather than exactly the highest, in roughly priority order.
+     *
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
+    @Override
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        if(max < 0)
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+
+        int count = 0;
+        try
+        {
+            while(count < max)
+            {
+                target.add(poll());
+                ++count;
+            }
+        } catch(QueueUnderflowException e) {
+            /* Every shard is empty. */
+        }
+        return count;
+    }
+
+
+    /**
+     * Helper method to lock every shard, always in the same order.
+     */
+    private void lockAll()
+    {
+        for(Shard<T> shard : shards)
+            shard.lock.lock();
+    }
+
+
+    /**
+     * Helper method to unlock every shard.
+     */
+    private void unlockAll()
+    {
+        for(Shard<T> shard : shards)
+            shard.lock.unlock();
+    }
+
+
+    /**
+     * Helper method to copy every entry, with every shard locked so that the
+     * copy is consistent.
+     *
+     * @return The entries, shard by shard.
+     */
+    private List<PriorityItem<T>> copyEntries()
+    {
+        List<PriorityItem<T>> entries = new ArrayList<>();
+        lockAll();
+        try
+        {
+            for(Shard<T> shard : shards)
+                for(int i = 0; i < shard.heap.size(); ++i)
+                    entries.add(shard.heap.get(i));
+        }
+        finally
+        {
+            unlockAll();
+        }
+        return entries;
+    }
+
+
+    /**
+     * The number of items stored, counted with every shard locked.
+     *
+     * @return The size.
+     */
+    @Override
+    public int size()
+    {
+        lockAll();
+        try
+        {
+            int count = 0;
+            for(Shard<T> shard : shards)
+                count += shard.heap.size();
+            return count;
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+
+    /**
+     * An iterator over every item in the queue, with its priority.
+     *
+     * The items are copied with every shard locked and the copy is iterated,
+     * so it never throws a ConcurrentModificationException and does not see
+     * changes made after it was created.
+     *
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return Collections.unmodifiableList(copyEntries()).iterator();
+    }
+
+
+    /**
+     * A Spliterator over a copy of the items, made as for iterator().
+     *
+     * @return The Spliterator.
+     */
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return copyEntries().spliterator();
+    }
+
+
+    /**
+     * Write every item in the queue, with its priority, to a snapshot.
+     *
+     * Every shard is locked while the snapshot is written, so it is
+     * consistent even when other threads are active.
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        lockAll();
+        try
+        {
+            int count = 0;
+            for(Shard<T> shard : shards)
+                count += shard.heap.size();
+
+            out.begin(Snapshot.Order.UNORDERED, 0, count);
+            for(Shard<T> shard : shards)
+                for(int i = 0; i < shard.heap.size(); ++i)
+                    out.write(shard.heap.get(i).getItem(), shard.heap.get(i).getPriority());
+            out.finish();
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * The items are dealt out evenly between the shards, each of which is
+     * built bottom-up by HeapPriorityQueue.addAll while every shard is
+     * locked.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Read everything first so nothing changes if reading fails. */
+        List<PriorityItem<T>> items = in.readAll();
+
+        lockAll();
+        try
+        {
+            for(int i = 0; i < shards.length; ++i)
+            {
+                int from = (int) ((long) items.size() * i / shards.length);
+                int to = (int) ((long) items.size() * (i + 1) / shards.length);
+                shards[i].heap.clear();
+                shards[i].heap.addAll(items.subList(from, to));
+                shards[i].updateTop();
+            }
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+
+    /**
+     * Write the list given by toString() to out an entry at a time.
+     *
+     * Shards are listed one after another, each locked only while it is
+     * listed. In priority order every shard is locked while their items are
+     * copied, and the copy is sorted and written once they are unlocked.
+     *
+     * @param out
+     * @param limit
+     * @param inPriorityOrder
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+        {
+            listing.addSorted(copyEntries());
+        }
+        else
+        {
+            boolean more = true;
+            for(int s = 0; s < shards.length && more; ++s)
+            {
+                Shard<T> shard = shards[s];
+                shard.lock.lock();
+                try
+                {
+                    for(int i = 0; i < shard.heap.size() && more; ++i)
+                        more = listing.add(shard.heap.get(i));
+                }
+                finally
+                {
+                    shard.lock.unlock();
+                }
+            }
+        }
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return bestShard() == null;
+    }
+
+}
@@ -0,0 +1,536 @@
+package queuemanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+/**
+ * Implementation of the PriorityQueue ADT using a binary heap held in native
+ * memory, outside of the Java heap.
+ *
+ * Each entry is a 4 byte priority followed by the item, converted to a fixed
+ * number of bytes by a FixedSizeCodec. Large items are best stored elsewhere
+ * and queued by id using FixedSizeCodec.INTEGER or FixedSizeCodec.LONG. The
+ * entries live in a direct ByteBuffer, so however many there are they add
+ * nothing to the work of the garbage collector; items are only turned back
+ * into objects when head() is called.
+ *
+ * The native memory is allocated up front for the given capacity and is
+ * released by close(). The queue cannot be used after it has been closed.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class OffHeapPriorityQueue<T> implements PriorityQueue<T>, Closeable
+{
+
+    /**
+     * The converter between items and bytes.
+     */
+    private final FixedSizeCodec<T> codec;
+
+    /**
+     * The size in bytes of each entry: a priority followed by an item.
+     */
+    private final int entrySize;
+
+    /**
+     * The maximum number of items the Queue can store.
+     */
+    private final int capacity;
+
+    /**
+     * Where the data is actually stored. Holds capacity entries plus one
+     * more used as scratch space while moving entries. Null once closed.
+     */
+    private ByteBuffer storage;
+
+    /**
+     * The current number of items stored.
+     */
+    private int size = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+    /**
+     * Whether storage was allocated by this queue, rather than borrowed.
+     */
+    private final boolean owned;
+
+
+    /**
+     * Create a new empty queue with the given capacity, allocating its
+     * native memory.
+     *
+     * @param capacity
+     * @param codec The converter between items and bytes.
+     */
+    public OffHeapPriorityQueue(int capacity, FixedSizeCodec<T> codec)
+    {
+        this.codec = codec;
+        this.capacity = capacity;
+        entrySize = 4 + codec.size();
+
+        long bytes = ((long) capacity + 1) * entrySize;
+        if(capacity < 0 || bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+
+        storage = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+        owned = true;
+    }
+
+
+    /**
+     * Create a queue over storage owned by someone else, such as a region of
+     * a memory-mapped file, that already holds a heap of the given size.
+     * Queues created this way must not be closed.
+     *
+     * @param storage Room for capacity + 1 entries.
+     * @param capacity
+     * @param codec The converter between items and bytes.
+     * @param size The number of entries already in storage.
+     */
+    OffHeapPriorityQueue(ByteBuffer storage, int capacity, FixedSizeCodec<T> codec, int size)
+    {
+        this.codec = codec;
+        this.capacity = capacity;
+        entrySize = 4 + codec.size();
+        this.storage = storage;
+        this.size = size;
+        owned = false;
+    }
+
+
+    /**
+     * The number of items in the queue.
+     *
+     * @return The size.
+     */
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * The item stored at the given index of the heap, for classes built on
+     * top of this one.
+     *
+     * @param index Less than size().
+     * @return The item with its priority.
+     */
+    PriorityItem<T> get(int index)
+    {
+        ByteBuffer buffer = storage();
+        return new PriorityItem<>(codec.read(buffer, offsetOf(index) + 4), buffer.getInt(offsetOf(index)));
+    }
+
+
+    /**
+     * Release the queue's native memory. Closing an already closed queue has
+     * no effect.
+     */
+    @Override
+    public void close()
+    {
+        if(storage == null)
+            return;
+
+        ++modCount;
+        ByteBuffer released = storage;
+        storage = null;
+        size = 0;
+        free(released);
+    }
+
+
+    /**
+     * Helper method to release a direct buffer's memory straight away rather
+     * than when the buffer is garbage collected. There is no public API for
+     * this before the foreign memory API, so it uses the JDK's internal
+     * Unsafe.invokeCleaner where that is available and otherwise leaves it to
+     * the garbage collector.
+     *
+     * @param buffer A direct or mapped buffer.
+     */
+    static void free(ByteBuffer buffer)
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            /* Not available, so the memory is freed by the collector. */
+        }
+    }
+
+
+    /**
+     * Helper method to get the storage, throwing an exception if the queue
+     * has been closed.
+     *
+     * @return The storage buffer.
+     */
+    private ByteBuffer storage()
+    {
+        if(storage == null)
+            throw new IllegalStateException("Queue has been closed");
+        return storage;
+    }
+
+
+    /**
+     * Helper method to find the offset in storage of an entry.
+     *
+     * @param index The index of the entry. capacity is the scratch entry.
+     * @return The offset of its first byte.
+     */
+    private int offsetOf(int index)
+    {
+        return index * entrySize;
+    }
+
+
+    /**
+     * Helper method to read the priority of an entry.
+     *
+     * @param index
+     * @return The priority.
+     */
+    private int priorityAt(int index)
+    {
+        return storage.getInt(offsetOf(index));
+    }
+
+
+    /**
+     * Helper method to copy an entry within storage, eight bytes at a time
+     * where possible.
+     *
+     * @param from The index of the entry to copy.
+     * @param to The index of the entry to overwrite.
+     */
+    private void copy(int from, int to)
+    {
+        int source = offsetOf(from);
+        int target = offsetOf(to);
+        int i = 0;
+        for(; i + 8 <= entrySize; i += 8)
+            storage.putLong(target + i, storage.getLong(source + i));
+        for(; i < entrySize; ++i)
+            storage.put(target + i, storage.get(source + i));
+    }
+
+
+    /**
+     * Helper method to place the scratch entry in the heap starting from the
+     * hole at index and moving up towards the root.
+     *
+     * @param index The index of the hole.
+     */
+    private void siftUp(int index)
+    {
+        int priority = priorityAt(capacity);
+        while(index > 0)
+        {
+            int parentIndex = (index - 1) >>> 1;
+            if(priorityAt(parentIndex) >= priority)
+                break;
+
+            copy(parentIndex, index);
+            index = parentIndex;
+        }
+        copy(capacity, index);
+    }
+
+
+    /**
+     * Helper method to place the scratch entry in the heap starting from the
+     * hole at index and moving down towards the leaves.
+     *
+     * @param index The index of the hole.
+     */
+    private void siftDown(int index)
+    {
+        int priority = priorityAt(capacity);
+        int half = size >>> 1;
+        while(index < half)
+        {
+            int childIndex = 2 * index + 1;
+            int childPriority = priorityAt(childIndex);
+            if(childIndex + 1 < size && priorityAt(childIndex + 1) > childPriority)
+            {
+                ++childIndex;
+                childPriority = priorityAt(childIndex);
+            }
+
+            if(priority >= childPriority)
+                break;
+
+            copy(childIndex, index);
+            index = childIndex;
+        }
+        copy(capacity, index);
+    }
+
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     * @throws IllegalStateException if the queue has been closed.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        storage();
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return get(index);
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        ByteBuffer buffer = storage();
+        if(size == capacity)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        /* Build the entry in the scratch slot, then sift it into place. */
+        buffer.putInt(offsetOf(capacity), priority);
+        codec.write(buffer, offsetOf(capacity) + 4, item);
+        ++size;
+        siftUp(size - 1);
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        ByteBuffer buffer = storage();
+        if(items.size() > capacity - size)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        /* Write the whole batch into the spare slots after the heap. The
+         * size only takes it in once it is all written, so an item the codec
+         * fails on leaves the heap as it was. */
+        int end = size;
+        for(PriorityItem<T> item : items)
+        {
+            buffer.putInt(offsetOf(end), item.getPriority());
+            codec.write(buffer, offsetOf(end) + 4, item.getItem());
+            ++end;
+        }
+
+        /* Heapify bottom-up if the batch is at least as large as what was
+         * already there, otherwise sift each new entry up in turn. */
+        if(items.size() >= size)
+        {
+            size = end;
+            for(int i = (size >>> 1) - 1; i >= 0; --i)
+            {
+                copy(i, capacity);
+                siftDown(i);
+            }
+        }
+        else
+        {
+            while(size < end)
+            {
+                copy(size, capacity);
+                ++size;
+                siftUp(size - 1);
+            }
+        }
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        ByteBuffer buffer = storage();
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        return codec.read(buffer, offsetOf(0) + 4);
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        storage();
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        ++modCount;
+        --size;
+        if(size > 0)
+        {
+            /* Re-insert the last entry starting from the hole at the root. */
+            copy(size, capacity);
+            siftDown(0);
+        }
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        ByteBuffer buffer = storage();
+
+        /* Write the heap as it is, so that it can be restored as it is. */
+        out.begin(Snapshot.Order.HEAP, 2, size);
+        for(int i = 0; i < size; ++i)
+            out.write(codec.read(buffer, offsetOf(i) + 4), priorityAt(i));
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * The items are written straight into native memory as they are read.
+     * Snapshots of a binary heap, or of a sorted queue, are already laid out
+     * as a binary heap and are used as they are. Anything else is heapified
+     * bottom-up in linear time.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        ByteBuffer current = storage();
+        int count = in.getCount();
+        if(count > capacity)
+            throw new QueueOverflowException();
+
+        /* Read into new memory so nothing changes if reading fails. */
+        ByteBuffer restored = ByteBuffer.allocateDirect(current.capacity()).order(current.order());
+        try
+        {
+            for(int i = 0; i < count; ++i)
+            {
+                in.next();
+                restored.putInt(offsetOf(i), in.getPriority());
+                codec.write(restored, offsetOf(i) + 4, in.getItem());
+            }
+        } catch(IOException | RuntimeException e) {
+            free(restored);
+            throw e;
+        }
+
+        ++modCount;
+        if(owned)
+        {
+            storage = restored;
+            free(current);
+        }
+        else
+        {
+            /* Borrowed storage must stay where it is, so copy it across. */
+            restored.limit(offsetOf(count));
+            ByteBuffer target = current.duplicate();
+            target.clear();
+            target.put(restored);
+            free(restored);
+        }
+
+        size = count;
+        if(!in.isHeapOf(2))
+            for(int i = (size >>> 1) - 1; i >= 0; --i)
+            {
+                copy(i, capacity);
+                siftDown(i);
+            }
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size);
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size);
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        final ByteBuffer buffer = storage();
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+            listing.addHeap(size, 2, new Listing.HeapEntries()
+            {
+                @Override
+                public long keyAt(int index)
+                {
+                    return priorityAt(index);
+                }
+
+
+                @Override
+                public boolean addTo(Listing listing, int index) throws IOException
+                {
+                    return listing.add(codec.read(buffer, offsetOf(index) + 4), priorityAt(index));
+                }
+            });
+        else
+            /* List the items in heap order. */
+            for(int i = 0; i < size; ++i)
+                if(!listing.add(codec.read(buffer, offsetOf(i) + 4), priorityAt(i)))
+                    break;
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (size < 1);
+    }
+
+}
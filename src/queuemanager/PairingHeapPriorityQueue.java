@@ -0,0 +1,559 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of the PriorityQueue ADT using a pairing heap, which allows
+ * the priority of an item to be changed after it has been added.
+ *
+ * insert() adds an item and returns a Handle to it. Through the handle the
+ * item's priority can be raised in O(1) time, lowered in amortized O(log n)
+ * time, or the item removed from wherever it is in the queue in amortized
+ * O(log n) time. add, head and addAll are O(1) per item and remove is
+ * amortized O(log n).
+ *
+ * The heap is a tree where each node keeps a link to its first child and,
+ * through the next link inherited from Node, to its next sibling, so each
+ * node's children form a linked list just like the lists used by the linked
+ * implementations.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class PairingHeapPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * A reference to an item in the queue through which its priority can be
+     * changed or the item removed.
+     *
+     * @param <T> The type of thing being stored.
+     */
+    public interface Handle<T>
+    {
+        /**
+         * The item this handle refers to.
+         *
+         * @return The item.
+         */
+        T getItem();
+
+        /**
+         * The item's current priority.
+         *
+         * @return The priority.
+         */
+        int getPriority();
+
+        /**
+         * Is the item still in the queue?
+         *
+         * @return True until the item is removed, otherwise False
+         */
+        boolean isQueued();
+
+        /**
+         * Change the item's priority. This is O(1) when the priority is
+         * raised and amortized O(log n) when it is lowered. Throw an
+         * exception if the item is no longer in the queue.
+         *
+         * @param priority The new priority.
+         */
+        void setPriority(int priority);
+
+        /**
+         * Remove the item from the queue, wherever it is. Throw an exception
+         * if the item is no longer in the queue.
+         */
+        void remove();
+    }
+
+
+    /**
+     * A node of the heap. The next link inherited from Node points to the
+     * node's next sibling.
+     *
+     * @param <T> The type of thing being stored.
+     */
+    private static final class PairingNode<T> extends Node<T> implements Handle<T>
+    {
+        /**
+         * The queue holding this node, or null once it has been removed.
+         */
+        private PairingHeapPriorityQueue<T> owner;
+
+        private int priority;
+
+        /**
+         * The first of this node's children.
+         */
+        private PairingNode<T> child = null;
+
+        /**
+         * This node's previous sibling or, for a first child, its parent.
+         */
+        private PairingNode<T> previous = null;
+
+        PairingNode(PairingHeapPriorityQueue<T> owner, T item, int priority)
+        {
+            super(item);
+            this.owner = owner;
+            this.priority = priority;
+        }
+
+        PairingNode<T> nextSibling()
+        {
+            return (PairingNode<T>) getNext();
+        }
+
+        @Override
+        public T getItem()
+        {
+            return getValue();
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return priority;
+        }
+
+        @Override
+        public boolean isQueued()
+        {
+            return owner != null;
+        }
+
+        @Override
+        public void setPriority(int priority)
+        {
+            if(owner == null)
+                throw new IllegalStateException("Item is no longer queued");
+            owner.changePriority(this, priority);
+        }
+
+        @Override
+        public void remove()
+        {
+            if(owner == null)
+                throw new IllegalStateException("Item is no longer queued");
+            owner.delete(this);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + getValue() + ", " + priority + ")";
+        }
+    }
+
+
+    /**
+     * The root of the heap, holding the highest priority item.
+     */
+    private PairingNode<T> root = null;
+
+    /**
+     * The number of items held in the queue.
+     */
+    private int count = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+    /**
+     * Reused by combineSiblings to hold the results of its first pass.
+     */
+    private final ArrayList<PairingNode<T>> pairs = new ArrayList<>();
+
+
+    /**
+     * Add the given item to the queue with the given priority and return a
+     * handle to it.
+     *
+     * @param item
+     * @param priority
+     * @return A handle through which the item can be changed or removed.
+     */
+    public Handle<T> insert(T item, int priority)
+    {
+        ++modCount;
+        PairingNode<T> node = new PairingNode<>(this, item, priority);
+        root = (root == null) ? node : meld(root, node);
+        ++count;
+        return node;
+    }
+
+
+    /**
+     * Helper method to join two heaps by making the root with the lower
+     * priority the first child of the other.
+     *
+     * @param a The root of a heap with no siblings.
+     * @param b The root of a heap with no siblings.
+     * @return The root of the joined heap.
+     */
+    private PairingNode<T> meld(PairingNode<T> a, PairingNode<T> b)
+    {
+        if(a.priority < b.priority)
+        {
+            PairingNode<T> temp = a;
+            a = b;
+            b = temp;
+        }
+
+        /* Make b the first child of a. */
+        b.setNext(a.child);
+        if(a.child != null)
+            a.child.previous = b;
+        b.previous = a;
+        a.child = b;
+        return a;
+    }
+
+
+    /**
+     * Helper method to join a list of sibling heaps into one using the
+     * standard two pass method: meld them in pairs from left to right, then
+     * meld the results from right to left.
+     *
+     * @param first The first of the siblings, or null.
+     * @return The root of the joined heap, or null if there were none.
+     */
+    private PairingNode<T> combineSiblings(PairingNode<T> first)
+    {
+        if(first == null)
+            return null;
+
+        /* First pass, left to right in pairs. */
+        PairingNode<T> current = first;
+        while(current != null)
+        {
+            PairingNode<T> a = current;
+            PairingNode<T> b = a.nextSibling();
+            current = (b == null) ? null : b.nextSibling();
+
+            detach(a);
+            if(b == null)
+                pairs.add(a);
+            else
+            {
+                detach(b);
+                pairs.add(meld(a, b));
+            }
+        }
+
+        /* Second pass, right to left. */
+        PairingNode<T> result = pairs.get(pairs.size() - 1);
+        for(int i = pairs.size() - 2; i >= 0; --i)
+            result = meld(pairs.get(i), result);
+
+        pairs.clear();
+        return result;
+    }
+
+
+    /**
+     * Helper method to clear a node's sibling links.
+     *
+     * @param node
+     */
+    private void detach(PairingNode<T> node)
+    {
+        node.setNext(null);
+        node.previous = null;
+    }
+
+
+    /**
+     * Helper method to cut a node, along with its children, out of the tree.
+     *
+     * @param node A node other than the root.
+     */
+    private void cut(PairingNode<T> node)
+    {
+        PairingNode<T> next = node.nextSibling();
+        if(node.previous.child == node)
+            node.previous.child = next;
+        else
+            node.previous.setNext(next);
+
+        if(next != null)
+            next.previous = node.previous;
+
+        detach(node);
+    }
+
+
+    /**
+     * Helper method to change the priority of a node in this queue.
+     *
+     * @param node
+     * @param priority
+     */
+    private void changePriority(PairingNode<T> node, int priority)
+    {
+        ++modCount;
+        if(priority >= node.priority)
+        {
+            /* Raising a priority can only break the heap between the node and
+             * its parent, so cut it out and meld it back in at the root. */
+            node.priority = priority;
+            if(node != root)
+            {
+                cut(node);
+                root = meld(root, node);
+            }
+        }
+        else
+        {
+            /* Lowering it may break the heap with any of its children, so
+             * take it out and put it back in again. */
+            delete(node);
+            node.priority = priority;
+            node.owner = this;
+            root = (root == null) ? node : meld(root, node);
+            ++count;
+        }
+    }
+
+
+    /**
+     * Helper method to remove a node in this queue from the heap.
+     *
+     * @param node
+     */
+    private void delete(PairingNode<T> node)
+    {
+        ++modCount;
+        if(node == root)
+            root = combineSiblings(node.child);
+        else
+        {
+            cut(node);
+            PairingNode<T> children = combineSiblings(node.child);
+            if(children != null)
+                root = meld(root, children);
+        }
+
+        node.child = null;
+        node.owner = null;
+        --count;
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        insert(item, priority);
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        /* Inserting into a pairing heap is already O(1). */
+        for(PriorityItem<T> item : items)
+            insert(item.getItem(), item.getPriority());
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        return root.getItem();
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        delete(root);
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        /* Walk the tree depth first, as toString does. */
+        out.begin(Snapshot.Order.UNORDERED, 0, count);
+        Deque<PairingNode<T>> toVisit = new ArrayDeque<>();
+        if(root != null)
+            toVisit.push(root);
+        while(!toVisit.isEmpty())
+        {
+            PairingNode<T> node = toVisit.pop();
+            out.write(node.getItem(), node.priority);
+
+            if(node.nextSibling() != null)
+                toVisit.push(node.nextSibling());
+            if(node.child != null)
+                toVisit.push(node.child);
+        }
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * Handles to the items that were in the queue stop being queued, just as
+     * if the items had been removed.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Read everything first so nothing changes if reading fails. */
+        List<PriorityItem<T>> items = in.readAll();
+
+        Deque<PairingNode<T>> toVisit = new ArrayDeque<>();
+        if(root != null)
+            toVisit.push(root);
+        while(!toVisit.isEmpty())
+        {
+            PairingNode<T> node = toVisit.pop();
+            if(node.nextSibling() != null)
+                toVisit.push(node.nextSibling());
+            if(node.child != null)
+                toVisit.push(node.child);
+            node.owner = null;
+        }
+        ++modCount;
+        root = null;
+        count = 0;
+
+        addAll(items);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return count;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        /* Walk the tree depth first, as toString does. */
+        final Deque<PairingNode<T>> toVisit = new ArrayDeque<>();
+        if(root != null)
+            toVisit.push(root);
+
+        return new Iterator<PriorityItem<T>>()
+        {
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext()
+            {
+                return !toVisit.isEmpty();
+            }
+
+            @Override
+            public PriorityItem<T> next()
+            {
+                if(modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if(toVisit.isEmpty())
+                    throw new NoSuchElementException();
+
+                PairingNode<T> node = toVisit.pop();
+                if(node.nextSibling() != null)
+                    toVisit.push(node.nextSibling());
+                if(node.child != null)
+                    toVisit.push(node.child);
+                return new PriorityItem<>(node.getItem(), node.priority);
+            }
+        };
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+        {
+            /* Walk the tree best first: every node outranks its children, so
+             * the highest priority node not yet listed is always among the
+             * children of those listed. */
+            java.util.PriorityQueue<PairingNode<T>> frontier = new java.util.PriorityQueue<>(16, new Comparator<PairingNode<T>>()
+            {
+                @Override
+                public int compare(PairingNode<T> a, PairingNode<T> b)
+                {
+                    return Integer.compare(b.priority, a.priority);
+                }
+            });
+            for(PairingNode<T> node = root; node != null; node = node.nextSibling())
+                frontier.add(node);
+            while(!frontier.isEmpty())
+            {
+                PairingNode<T> node = frontier.poll();
+                if(!listing.add(node.getValue(), node.priority))
+                    break;
+                for(PairingNode<T> child = node.child; child != null; child = child.nextSibling())
+                    frontier.add(child);
+            }
+        }
+        else
+        {
+            /* Walk the tree depth first. */
+            Deque<PairingNode<T>> toVisit = new ArrayDeque<>();
+            if(root != null)
+                toVisit.push(root);
+            while(!toVisit.isEmpty())
+            {
+                PairingNode<T> node = toVisit.pop();
+                if(!listing.add(node.getValue(), node.priority))
+                    break;
+
+                if(node.nextSibling() != null)
+                    toVisit.push(node.nextSibling());
+                if(node.child != null)
+                    toVisit.push(node.child);
+            }
+        }
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (count < 1);
+    }
+
+}
@@ -1,5 +1,7 @@
 package queuemanager;
 
+import java.nio.ByteBuffer;
+
 /**
  * Minimal "person" class.
  *
@@ -8,6 +10,21 @@ package queuemanager;
  */
 public class Person {
 
+    /**
+     * Codec for saving people in snapshots, by name.
+     */
+    public static final ItemCodec<Person> CODEC = new ItemCodec<Person>() {
+        @Override
+        public byte[] encode(Person item) {
+            return ItemCodec.STRING.encode(item.getName());
+        }
+
+        @Override
+        public Person decode(ByteBuffer source) {
+            return new Person(ItemCodec.STRING.decode(source));
+        }
+    };
+
     protected String name;
 
     public Person(String name) {
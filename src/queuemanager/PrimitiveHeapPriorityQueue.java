@@ -0,0 +1,401 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+/**
+ * Implementation of the PriorityQueue ADT using a binary heap stored as two
+ * parallel arrays: an int array of priorities and an Object array of items.
+ *
+ * Unlike HeapPriorityQueue no PriorityItem is created for each item added, so
+ * once the arrays are large enough add and remove allocate nothing. The heap
+ * is ordered by comparing entries of the priority array only, which is laid
+ * out contiguously in memory rather than spread across separate objects.
+ *
+ * Items are moved by sliding a "hole" up or down the heap and writing the
+ * moving entry once at its final position, rather than by repeated swaps.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class PrimitiveHeapPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The priorities of the items stored, in heap order.
+     */
+    private int [] priorities;
+
+    /**
+     * The items stored. items[i] has priority priorities[i].
+     */
+    private Object [] items;
+
+    /**
+     * The maximum number of items the Queue can store.
+     */
+    private final int capacity;
+
+    /**
+     * The current number of items stored.
+     */
+    private int size = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+
+    /**
+     * Create a new empty queue with the given capacity. The queue will never
+     * grow beyond this.
+     *
+     * @param capacity
+     */
+    public PrimitiveHeapPriorityQueue(int capacity)
+    {
+        this(capacity, capacity);
+    }
+
+
+    /**
+     * Create a new empty queue that grows as items are added, with no limit
+     * on the number of items it may hold.
+     */
+    public PrimitiveHeapPriorityQueue()
+    {
+        this(HeapPriorityQueue.DEFAULT_INITIAL_CAPACITY, HeapPriorityQueue.MAX_CAPACITY);
+    }
+
+
+    /**
+     * Create a new empty queue that doubles its storage whenever it fills up,
+     * until capacity items are stored.
+     *
+     * @param initialCapacity The number of items to allocate space for up front.
+     * @param capacity The maximum number of items the queue may hold.
+     */
+    public PrimitiveHeapPriorityQueue(int initialCapacity, int capacity)
+    {
+        if(initialCapacity < 0 || capacity < initialCapacity || capacity > HeapPriorityQueue.MAX_CAPACITY)
+            throw new IllegalArgumentException("Invalid capacity: " + initialCapacity + ", " + capacity);
+
+        this.capacity = capacity;
+        priorities = new int[initialCapacity];
+        items = new Object[initialCapacity];
+    }
+
+
+    /**
+     * Helper method to grow both arrays so that they can hold at least
+     * minLength items. They are at least doubled in size but never made
+     * larger than capacity.
+     *
+     * @param minLength The number of items that must fit.
+     */
+    private void grow(int minLength)
+    {
+        int newLength = (items.length < capacity / 2) ? items.length * 2 : capacity;
+        newLength = Math.max(Math.max(newLength, minLength), 1);
+        QueueEvents.Resize event = new QueueEvents.Resize();
+        event.begin();
+        int oldLength = items.length;
+        priorities = Arrays.copyOf(priorities, newLength);
+        items = Arrays.copyOf(items, newLength);
+        event.commit(this, size, oldLength, newLength);
+    }
+
+
+    /**
+     * Helper method to place an entry in the heap starting from the hole at
+     * index and moving up towards the root.
+     *
+     * @param index The index of the hole.
+     * @param priority The priority of the entry being placed.
+     * @param item The item being placed.
+     */
+    private void siftUp(int index, int priority, Object item)
+    {
+        while(index > 0)
+        {
+            int parentIndex = (index - 1) >>> 1;
+            if(priorities[parentIndex] >= priority)
+                break;
+
+            /* Move the parent down into the hole. */
+            priorities[index] = priorities[parentIndex];
+            items[index] = items[parentIndex];
+            index = parentIndex;
+        }
+        priorities[index] = priority;
+        items[index] = item;
+    }
+
+
+    /**
+     * Helper method to place an entry in the heap starting from the hole at
+     * index and moving down towards the leaves.
+     *
+     * @param index The index of the hole.
+     * @param priority The priority of the entry being placed.
+     * @param item The item being placed.
+     */
+    private void siftDown(int index, int priority, Object item)
+    {
+        int half = size >>> 1;
+        while(index < half)
+        {
+            /* Find the highest priority child. */
+            int childIndex = 2 * index + 1;
+            int childPriority = priorities[childIndex];
+            int rightIndex = childIndex + 1;
+            if(rightIndex < size && priorities[rightIndex] > childPriority)
+            {
+                childIndex = rightIndex;
+                childPriority = priorities[rightIndex];
+            }
+
+            if(priority >= childPriority)
+                break;
+
+            /* Move the child up into the hole. */
+            priorities[index] = childPriority;
+            items[index] = items[childIndex];
+            index = childIndex;
+        }
+        priorities[index] = priority;
+        items[index] = item;
+    }
+
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return new PriorityItem<>((T) items[index], priorities[index]);
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        if(size == capacity)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        if(size == items.length)
+            grow(size + 1);
+
+        ++size;
+        siftUp(size - 1, priority, item);
+    }
+
+
+    /**
+     * Add all of the given items to the queue.
+     *
+     * When the batch is at least as large as the items already stored the
+     * whole heap is rebuilt bottom-up (Floyd's method) in linear time,
+     * otherwise each new item is sifted up individually.
+     *
+     * @param batch
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> batch) throws QueueOverflowException
+    {
+        int count = batch.size();
+        if(count > capacity - size)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        if(size + count > items.length)
+            grow(size + count);
+
+        if(count < size)
+        {
+            for(PriorityItem<T> item : batch)
+            {
+                ++size;
+                siftUp(size - 1, item.getPriority(), item.getItem());
+            }
+            return;
+        }
+
+        /* Append the batch then sift down every parent, last parent first. */
+        for(PriorityItem<T> item : batch)
+        {
+            priorities[size] = item.getPriority();
+            items[size] = item.getItem();
+            ++size;
+        }
+        for(int i = (size >>> 1) - 1; i >= 0; --i)
+            siftDown(i, priorities[i], items[i]);
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        return (T) items[0];
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        ++modCount;
+        --size;
+        int lastPriority = priorities[size];
+        Object lastItem = items[size];
+        items[size] = null;
+
+        /* Re-insert the last entry starting from the hole left at the root. */
+        if(size > 0)
+            siftDown(0, lastPriority, lastItem);
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        /* Write the arrays as they are, so that they can be restored as they
+         * are. */
+        out.begin(Snapshot.Order.HEAP, 2, size);
+        for(int i = 0; i < size; ++i)
+            out.write((T) items[i], priorities[i]);
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * Snapshots of a binary heap, or of a sorted queue, are already laid out
+     * as a binary heap and are used as they are. Anything else is heapified
+     * bottom-up in linear time.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        int count = in.getCount();
+        if(count > capacity)
+            throw new QueueOverflowException();
+
+        /* Read into new arrays so nothing changes if reading fails. */
+        int length = Math.max(count, items.length);
+        int [] restoredPriorities = new int[length];
+        Object [] restoredItems = new Object[length];
+        for(int i = 0; i < count; ++i)
+        {
+            in.next();
+            restoredPriorities[i] = in.getPriority();
+            restoredItems[i] = in.getItem();
+        }
+
+        ++modCount;
+        priorities = restoredPriorities;
+        items = restoredItems;
+        size = count;
+        if(!in.isHeapOf(2))
+            for(int i = (size >>> 1) - 1; i >= 0; --i)
+                siftDown(i, priorities[i], items[i]);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size);
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size);
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+            listing.addHeap(size, 2, new Listing.HeapEntries()
+            {
+                @Override
+                public long keyAt(int index)
+                {
+                    return priorities[index];
+                }
+
+
+                @Override
+                public boolean addTo(Listing listing, int index) throws IOException
+                {
+                    return listing.add(items[index], priorities[index]);
+                }
+            });
+        else
+            /* List the items in heap order. */
+            for(int i = 0; i < size; ++i)
+                if(!listing.add(items[i], priorities[i]))
+                    break;
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (size < 1);
+    }
+
+}
@@ -1,5 +1,7 @@
 package queuemanager;
 
+import java.util.Comparator;
+
 /**
  * A wrapper for bundling up an item and its integer priority.
  * 
@@ -7,6 +9,16 @@ package queuemanager;
  */
 public class PriorityItem<T> {
 
+    /**
+     * Orders items from highest to lowest priority.
+     */
+    public static final Comparator<PriorityItem<?>> HIGHEST_PRIORITY_FIRST = new Comparator<PriorityItem<?>>() {
+        @Override
+        public int compare(PriorityItem<?> a, PriorityItem<?> b) {
+            return Integer.compare(b.getPriority(), a.getPriority());
+        }
+    };
+
     private final T item;
     private final int priority;
 
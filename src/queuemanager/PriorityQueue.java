@@ -1,5 +1,15 @@
 package queuemanager;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Definition of the Priority Queue abstract data type.
  *
@@ -11,10 +21,14 @@ package queuemanager;
  *
  * Implementation method is not specified. Implementations may set a maximum
  * allowed number of items, or not.
+ *
+ * The items can be inspected without removing them by iterating over the
+ * queue or streaming its contents. Each is given with its priority as a
+ * PriorityItem.
  * 
  * @param <T> The type of items stored in the queue.
  */
-public interface PriorityQueue<T> {
+public interface PriorityQueue<T> extends Iterable<PriorityItem<T>> {
 
     /**
      * Add the given item to the queue with the given priority. Throw an
@@ -26,6 +40,19 @@ public interface PriorityQueue<T> {
      */
     public void add(T item, int priority) throws QueueOverflowException;
 
+    /**
+     * Add all of the given items, each with its own priority, to the queue.
+     * Throw an exception, without adding any of them, if they will not all
+     * fit.
+     *
+     * Implementations should do this more cheaply than adding the items one
+     * at a time where they can.
+     *
+     * @param items
+     * @throws QueueOverflowException
+     */
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException;
+
     /**
      * The highest priority item stored. Throw an exception if it's empty.
      *
@@ -42,6 +69,95 @@ public interface PriorityQueue<T> {
      */
     public void remove() throws QueueUnderflowException;
 
+    /**
+     * Remove the highest priority item from the queue and return it. Throw
+     * an exception if it's empty.
+     *
+     * This is the same as head() followed by remove(). Implementations should
+     * override it where that finds the highest priority item twice.
+     *
+     * @return The item that was removed.
+     * @throws QueueUnderflowException
+     */
+    public default T poll() throws QueueUnderflowException {
+        T item = head();
+        remove();
+        return item;
+    }
+
+    /**
+     * Remove up to k of the highest priority items from the queue and return
+     * them, highest priority first. Fewer are returned if the queue holds
+     * fewer, and none if it's empty.
+     *
+     * @param k The most items to remove.
+     * @return The items removed.
+     * @throws IllegalArgumentException if k is negative.
+     */
+    public default List<T> removeBatch(int k) {
+        List<T> batch = new ArrayList<>();
+        drainTo(batch, k);
+        return batch;
+    }
+
+    /**
+     * Remove up to max of the highest priority items from the queue, adding
+     * them to target highest priority first. Fewer are removed if the queue
+     * holds fewer, and none if it's empty.
+     *
+     * The default removes the items one at a time. Implementations should do
+     * it more cheaply where they can.
+     *
+     * @param target The collection the items are added to.
+     * @param max The most items to remove.
+     * @return The number of items removed.
+     * @throws IllegalArgumentException if max is negative.
+     */
+    public default int drainTo(Collection<? super T> target, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+        }
+
+        int count = 0;
+        try {
+            while (count < max && !isEmpty()) {
+                target.add(head());
+                remove();
+                count++;
+            }
+        } catch (QueueUnderflowException e) {
+            /* The loop has checked the queue is not empty. */
+            throw new IllegalStateException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Write every item in the queue, with its priority, to a snapshot. The
+     * queue is not changed.
+     *
+     * Implementations should write the items in the order they are stored
+     * where that lets them be restored more cheaply.
+     *
+     * @param out A writer that has not yet been used.
+     * @throws IOException
+     */
+    public void snapshot(Snapshot.Writer<T> out) throws IOException;
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot. Throw
+     * an exception, leaving the queue unchanged, if they will not all fit or
+     * the snapshot cannot be read.
+     *
+     * Implementations should use the order of the snapshot to avoid sorting
+     * or re-heapifying where they can.
+     *
+     * @param in A reader that has not yet read any records.
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException;
+
     /**
      * Is the queue empty?
      *
@@ -49,6 +165,83 @@ public interface PriorityQueue<T> {
      */
     public boolean isEmpty();
 
+    /**
+     * The number of items stored.
+     *
+     * @return The size.
+     */
+    public int size();
+
+    /**
+     * An iterator over every item in the queue, with its priority, in the
+     * order they are stored. This is the order used by toString() and need
+     * not be priority order. The queue is not changed, and the iterator does
+     * not support remove().
+     *
+     * The iterator is fail-fast: if the queue is changed after it was created
+     * next() throws a ConcurrentModificationException. Implementations made
+     * for use by several threads instead iterate over the contents as they
+     * were at some point and never throw one.
+     *
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<PriorityItem<T>> iterator();
+
+    /**
+     * A Spliterator over the same items as iterator().
+     *
+     * It should report SIZED and SUBSIZED, so that parallel streams split the
+     * work evenly. Implementations whose storage is indexed should split it
+     * directly; the default splits the iterator into batches.
+     *
+     * @return The Spliterator.
+     */
+    @Override
+    public default Spliterator<PriorityItem<T>> spliterator() {
+        return Spliterators.spliterator(iterator(), size(), Spliterator.NONNULL);
+    }
+
+    /**
+     * A sequential stream of every item in the queue, with its priority.
+     *
+     * @return The stream.
+     */
+    public default Stream<PriorityItem<T>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * A parallel stream of every item in the queue, with its priority. The
+     * queue must not be changed while the stream is used.
+     *
+     * @return The stream.
+     */
+    public default Stream<PriorityItem<T>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Write the list given by toString() to out an entry at a time, so that
+     * large queues can be printed without building the whole string first.
+     * The queue is not changed.
+     *
+     * At most limit items are written. If the queue holds more, the list
+     * ends with "..." instead, for example: [(Mabel, 15), (Fred, 10), ...]
+     *
+     * When inPriorityOrder is true the items are listed highest priority
+     * first, so that the limit selects those that will be removed first.
+     * Otherwise they are listed in the same order as toString(), which is
+     * the cheapest.
+     *
+     * @param out Where the list is written, for example a Writer or a
+     * StringBuilder.
+     * @param limit The most items to write, Integer.MAX_VALUE for all.
+     * @param inPriorityOrder
+     * @throws IOException if out throws one.
+     */
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException;
+
     @Override
     /**
      * A string representation of the entire queue.
@@ -62,6 +255,9 @@ public interface PriorityQueue<T> {
      * requirement that the item returned by head() should be listed first.
      *
      * For example: [(Fred, 10), (Mabel, 15), (Jane, 5)]
+     *
+     * Implementations should write it with writeTo(), so that it takes time
+     * linear in the size of the queue.
      */
     public String toString();
 }
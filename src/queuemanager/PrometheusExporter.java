@@ -0,0 +1,206 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the figures recorded by InstrumentedPriorityQueues in the Prometheus
+ * text exposition format.
+ *
+ * Each queue is labelled with the name it is given, and each timed operation
+ * with its name in lower case. Latencies are written as summaries in seconds,
+ * with the quantiles in QUANTILES. writeFile() replaces a file atomically, so
+ * it can be used with the node exporter's textfile collector.
+ */
+public final class PrometheusExporter
+{
+
+    /**
+     * The quantiles written for each latency summary.
+     */
+    private static final double [] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+
+    private PrometheusExporter()
+    {
+    }
+
+
+    /**
+     * Write the figures for some queues.
+     *
+     * @param out
+     * @param queues The queues, by name, in the order they are written.
+     * @throws IOException if out throws one.
+     */
+    public static void write(Appendable out, Map<String, ? extends InstrumentedPriorityQueue<?>> queues) throws IOException
+    {
+        family(out, "priority_queue_operations_total", "counter", "Calls to each queue operation.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            for(InstrumentedPriorityQueue.Operation operation : InstrumentedPriorityQueue.Operation.values())
+                sample(out, "priority_queue_operations_total", queue.getKey(), operation, null,
+                    queue.getValue().getCount(operation));
+
+        family(out, "priority_queue_operation_failures_total", "counter",
+            "Calls to each queue operation that overflowed or underflowed.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            for(InstrumentedPriorityQueue.Operation operation : InstrumentedPriorityQueue.Operation.values())
+                sample(out, "priority_queue_operation_failures_total", queue.getKey(), operation, null,
+                    queue.getValue().getFailures(operation));
+
+        family(out, "priority_queue_operation_duration_seconds", "summary", "Time taken by each queue operation.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            for(InstrumentedPriorityQueue.Operation operation : InstrumentedPriorityQueue.Operation.values())
+            {
+                LatencyHistogram latency = queue.getValue().getLatency(operation);
+                for(double quantile : QUANTILES)
+                    sample(out, "priority_queue_operation_duration_seconds", queue.getKey(), operation,
+                        Double.toString(quantile), (latency.getCount() == 0) ? Double.NaN
+                            : latency.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND);
+                sample(out, "priority_queue_operation_duration_seconds_sum", queue.getKey(), operation, null,
+                    latency.getSum() / NANOS_PER_SECOND);
+                sample(out, "priority_queue_operation_duration_seconds_count", queue.getKey(), operation, null,
+                    latency.getCount());
+            }
+
+        family(out, "priority_queue_operation_duration_max_seconds", "gauge",
+            "Longest time taken by each queue operation.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            for(InstrumentedPriorityQueue.Operation operation : InstrumentedPriorityQueue.Operation.values())
+                sample(out, "priority_queue_operation_duration_max_seconds", queue.getKey(), operation, null,
+                    queue.getValue().getLatency(operation).getMax() / NANOS_PER_SECOND);
+
+        family(out, "priority_queue_items_added_total", "counter", "Items added to the queue.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            sample(out, "priority_queue_items_added_total", queue.getKey(), null, null,
+                queue.getValue().getItemsAdded());
+
+        family(out, "priority_queue_items_removed_total", "counter", "Items removed from the queue.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            sample(out, "priority_queue_items_removed_total", queue.getKey(), null, null,
+                queue.getValue().getItemsRemoved());
+
+        family(out, "priority_queue_size", "gauge", "Items stored in the queue.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            sample(out, "priority_queue_size", queue.getKey(), null, null, queue.getValue().size());
+
+        family(out, "priority_queue_size_high_water_mark", "gauge", "Most items stored in the queue at once.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            sample(out, "priority_queue_size_high_water_mark", queue.getKey(), null, null,
+                queue.getValue().getSizeHighWaterMark());
+
+        /* Only queues that count their work have these. */
+        family(out, "priority_queue_comparisons_total", "counter", "Priority comparisons made by the queue.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            if(queue.getValue().isWorkCounted())
+                sample(out, "priority_queue_comparisons_total", queue.getKey(), null, null,
+                    queue.getValue().getComparisons());
+
+        family(out, "priority_queue_swaps_total", "counter", "Entries swapped or moved by the queue.");
+        for(Map.Entry<String, ? extends InstrumentedPriorityQueue<?>> queue : queues.entrySet())
+            if(queue.getValue().isWorkCounted())
+                sample(out, "priority_queue_swaps_total", queue.getKey(), null, null,
+                    queue.getValue().getSwaps());
+    }
+
+
+    /**
+     * Write the figures for some queues to a file, replacing it atomically
+     * so that a reader never sees it half written.
+     *
+     * @param file
+     * @param queues The queues, by name, in the order they are written.
+     * @throws IOException
+     */
+    public static void writeFile(Path file, Map<String, ? extends InstrumentedPriorityQueue<?>> queues) throws IOException
+    {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try
+        {
+            try(Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8))
+            {
+                write(out, queues);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+
+    /**
+     * Helper method to write the HELP and TYPE lines that start a metric.
+     *
+     * @param out
+     * @param name
+     * @param type
+     * @param help
+     * @throws IOException
+     */
+    private static void family(Appendable out, String name, String type, String help) throws IOException
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+
+    /**
+     * Helper method to write a single sample.
+     *
+     * @param out
+     * @param name
+     * @param queue The name of the queue.
+     * @param operation The operation, or null if the sample is not for one.
+     * @param quantile The quantile, or null if the sample is not for one.
+     * @param value
+     * @throws IOException
+     */
+    private static void sample(Appendable out, String name, String queue,
+        InstrumentedPriorityQueue.Operation operation, String quantile, double value) throws IOException
+    {
+        out.append(name).append("{queue=\"").append(escape(queue)).append('"');
+        if(operation != null)
+            out.append(",operation=\"").append(operation.name().toLowerCase(Locale.ROOT)).append('"');
+        if(quantile != null)
+            out.append(",quantile=\"").append(quantile).append('"');
+        out.append("} ").append(format(value)).append('\n');
+    }
+
+
+    /**
+     * Helper method to format a value, as a whole number where it is one.
+     *
+     * @param value
+     * @return The value as Prometheus expects it.
+     */
+    private static String format(double value)
+    {
+        if(Double.isNaN(value))
+            return "NaN";
+        if(value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+
+    /**
+     * Helper method to escape a label value.
+     *
+     * @param value
+     * @return The value with backslashes, quotes and newlines escaped.
+     */
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
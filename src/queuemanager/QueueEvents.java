@@ -0,0 +1,166 @@
+package queuemanager;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JDK Flight Recorder events emitted by the queues, so that queue
+ * operations can be lined up with garbage collections, safepoints and
+ * everything else in a recording.
+ *
+ * Every event names the class of the queue and its identity hash code, which
+ * is the same for every event from the same queue, along with its size.
+ * Stack traces are not taken, to keep events cheap.
+ *
+ * Add and Remove are emitted by FlightRecordedPriorityQueue and by default
+ * are only recorded when the operation takes longer than 20 microseconds, so
+ * that only the slow ones are kept; the threshold can be changed in the
+ * recording settings, e.g. queuemanager.Add#threshold=1 ms. Resize is emitted
+ * by the growable heaps whenever their storage is reallocated, and Overflow
+ * and Underflow whenever an operation fails.
+ *
+ * While no recording is running, creating and checking an event costs next to
+ * nothing and the JIT compiler removes the allocation.
+ */
+final class QueueEvents
+{
+
+    private QueueEvents()
+    {
+    }
+
+
+    /**
+     * The fields every queue event has.
+     */
+    abstract static class QueueEvent extends Event
+    {
+        @Label("Queue Class")
+        Class<?> queueClass;
+
+        @Label("Queue Identity")
+        @Description("The identity hash code of the queue")
+        int queueId;
+
+        @Label("Size")
+        @Description("The number of items stored after the operation")
+        int size;
+
+
+        /**
+         * Helper method to fill in the fields describing a queue.
+         *
+         * @param queue
+         * @param size
+         */
+        void describe(Object queue, int size)
+        {
+            this.queueClass = queue.getClass();
+            this.queueId = System.identityHashCode(queue);
+            this.size = size;
+        }
+    }
+
+
+    @Name("queuemanager.Add")
+    @Label("Queue Add")
+    @Category("Priority Queue")
+    @Description("Items added to a queue, when slower than the threshold")
+    @StackTrace(false)
+    @Threshold("20 us")
+    static final class Add extends QueueEvent
+    {
+        @Label("Priority")
+        @Description("The priority of the item, or of the last item of a batch")
+        int priority;
+
+        @Label("Count")
+        @Description("The number of items added")
+        int count;
+    }
+
+
+    @Name("queuemanager.Remove")
+    @Label("Queue Remove")
+    @Category("Priority Queue")
+    @Description("Items removed from a queue, when slower than the threshold")
+    @StackTrace(false)
+    @Threshold("20 us")
+    static final class Remove extends QueueEvent
+    {
+        @Label("Count")
+        @Description("The number of items removed")
+        int count;
+    }
+
+
+    @Name("queuemanager.Resize")
+    @Label("Queue Resize")
+    @Category("Priority Queue")
+    @Description("The storage of a queue reallocated to a new capacity")
+    @StackTrace(false)
+    static final class Resize extends QueueEvent
+    {
+        @Label("Old Capacity")
+        @Description("The number of entries the old storage could hold")
+        int oldCapacity;
+
+        @Label("New Capacity")
+        @Description("The number of entries the new storage can hold")
+        int newCapacity;
+
+
+        /**
+         * Commit the event if the recording wants it.
+         *
+         * @param queue
+         * @param size
+         * @param oldCapacity
+         * @param newCapacity
+         */
+        void commit(Object queue, int size, int oldCapacity, int newCapacity)
+        {
+            if(!shouldCommit())
+                return;
+            describe(queue, size);
+            this.oldCapacity = oldCapacity;
+            this.newCapacity = newCapacity;
+            commit();
+        }
+    }
+
+
+    @Name("queuemanager.Overflow")
+    @Label("Queue Overflow")
+    @Category("Priority Queue")
+    @Description("An add refused because the queue was full")
+    @StackTrace(false)
+    static final class Overflow extends QueueEvent
+    {
+        @Label("Priority")
+        @Description("The priority of the item, or of the last item of a batch")
+        int priority;
+
+        @Label("Count")
+        @Description("The number of items that would not fit")
+        int count;
+    }
+
+
+    @Name("queuemanager.Underflow")
+    @Label("Queue Underflow")
+    @Category("Priority Queue")
+    @Description("A head, remove or poll on an empty queue")
+    @StackTrace(false)
+    static final class Underflow extends QueueEvent
+    {
+        @Label("Operation")
+        String operation;
+    }
+
+}
@@ -1,14 +1,48 @@
 package queuemanager;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 /**
  * Simple text based driver program for the PriorityQueue ADT and its different
  * implementations.
+ *
+ * Run with "-batch <implementation> [-capacity n] [file ...]" to run the
+ * commands in the files, or on standard input if there are none, without
+ * prompts, and print a summary of how long they took. See CommandBatch.
+ *
+ * Run with "-serve <implementation> [-capacity n] [-port p]" to share one
+ * queue with other local processes over TCP. See QueueServer.
  */
 public class QueueManager {
 
+    /**
+     * The capacity of fixed capacity queues in batch and server modes,
+     * unless one is given.
+     */
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * The port the server listens on, unless one is given.
+     */
+    private static final int DEFAULT_PORT = 7070;
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-serve")) {
+            runServer(args);
+            return;
+        }
+
         PriorityQueue<Person> q;
         Scanner stdin = new Scanner(System.in);
 
@@ -56,6 +90,7 @@ public class QueueManager {
         System.out.println("R removes the person at the head of the queue");
         System.out.println("E checks if the queue is empty");
         System.out.println("P prints the whole queue");
+        System.out.println("P <n> prints the n highest priority people in order");
         System.out.println("Q quits from the system");
 
         System.out.print("> ");
@@ -90,9 +125,8 @@ public class QueueManager {
 
                 /* Remove the item at the head of the queue */
                 try {
-                    String name = q.head().getName();
+                    String name = q.poll().getName();
                     System.out.println("Removing " + name + " from the head of the queue");
-                    q.remove();
                 } catch (QueueUnderflowException e) {
                     System.out.println("Can't remove head of queue: " + e);
                 }
@@ -106,12 +140,95 @@ public class QueueManager {
                 }
             } else if (input.toLowerCase().charAt(0) == 'p') {
 
-                /* Print out the entire queue (in no particular order) */
-                System.out.println(q);
+                /* Print out the entire queue (in no particular order), or the
+                 * first n in priority order, streaming it to the console */
+                try {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+                    if (input.trim().length() > 1) {
+                        int limit = Integer.parseInt(input.substring(1).trim());
+                        q.writeTo(out, limit, true);
+                    } else {
+                        q.writeTo(out, Integer.MAX_VALUE, false);
+                    }
+                    out.write(System.lineSeparator());
+                    out.flush();
+                } catch (IOException e) {
+                    System.out.println("Print failed: " + e);
+                } catch (IllegalArgumentException e) {
+                    /* Not a number (a NumberFormatException), or a negative one */
+                    System.out.println("Usage: P to print the queue, or P n to print the first n");
+                }
             }
             System.out.print("> ");
             input = stdin.nextLine();
         }
         System.out.println("Bye");
     }
+
+    /**
+     * Run the batch mode given on the command line and print its summary.
+     *
+     * @param args The command line, starting with "-batch".
+     */
+    private static void runBatch(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: QueueManager -batch <implementation> [-capacity n] [file ...]");
+            System.exit(2);
+        }
+        int first = 2;
+        int capacity = DEFAULT_CAPACITY;
+        if (args.length > 3 && args[2].equals("-capacity")) {
+            capacity = Integer.parseInt(args[3]);
+            first = 4;
+        }
+
+        CommandBatch batch = new CommandBatch(CommandBatch.createQueue(args[1], capacity));
+        try {
+            if (first == args.length) {
+                batch.run(System.in);
+            } else {
+                for (int i = first; i < args.length; ++i) {
+                    try (InputStream in = Files.newInputStream(Paths.get(args[i]))) {
+                        if (!batch.run(in))
+                            break;
+                    }
+                }
+            }
+            batch.writeSummary(System.out);
+        } catch (IOException e) {
+            System.err.println("Batch failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run the server given on the command line until the process is killed.
+     *
+     * @param args The command line, starting with "-serve".
+     */
+    private static void runServer(String[] args) {
+        int capacity = DEFAULT_CAPACITY;
+        int port = DEFAULT_PORT;
+        boolean valid = args.length % 2 == 0;
+        for (int i = 2; valid && i < args.length; i += 2) {
+            if (args[i].equals("-capacity"))
+                capacity = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-port"))
+                port = Integer.parseInt(args[i + 1]);
+            else
+                valid = false;
+        }
+        if (!valid) {
+            System.err.println("Usage: QueueManager -serve <implementation> [-capacity n] [-port p]");
+            System.exit(2);
+        }
+
+        try (QueueServer server = new QueueServer(CommandBatch.createQueue(args[1], capacity), port)) {
+            System.out.println("Serving on port " + server.getPort());
+            server.run();
+        } catch (IOException e) {
+            System.err.println("Server failed: " + e);
+            System.exit(1);
+        }
+    }
 }
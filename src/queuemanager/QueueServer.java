@@ -0,0 +1,585 @@
+package queuemanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Serves one queue of people to local processes over TCP, so that they can
+ * share it without each holding a copy.
+ *
+ * The server listens on the loopback address only. Clients send the same
+ * commands as at the QueueManager prompt, one per line, and get one line back
+ * for each, in order:
+ *
+ * A name priority  "OK", or "ERR Queue is full"
+ * H                "OK name", or "ERR Queue is empty"
+ * R                "OK name", or "ERR Queue is empty"
+ * E                "OK true" or "OK false"
+ * P, P n           "OK [...]", the listing on a single line
+ * Q                "BYE", then the connection is closed
+ *
+ * Anything else gets "ERR Invalid command". Blank lines get no reply. If
+ * the queue throws an unchecked exception, such as a RadixHeapPriorityQueue
+ * refusing a priority, the command gets "ERR" and the exception's message,
+ * and the server carries on.
+ *
+ * Requests may be pipelined: a client can send many commands without waiting
+ * for each reply. Every whole line that arrives in one read is run, and all
+ * their replies go back in a single write. While a client is not taking its
+ * replies, no more of its commands are read.
+ *
+ * A single thread serves every client using a Selector, so commands from all
+ * of them are run one at a time and the queue needs no locking of its own,
+ * unless it is also used by other threads in the same process.
+ */
+public final class QueueServer implements Closeable
+{
+
+    /**
+     * The size each client's buffers start at. They grow to fit longer lines
+     * and replies.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final PriorityQueue<Person> queue;
+
+    private final Selector selector;
+
+    private final ServerSocketChannel server;
+
+    /**
+     * Cleared by close() to stop run(). Guarded by this, along with running.
+     */
+    private volatile boolean open = true;
+
+    /**
+     * Set while run() is serving, so that close() leaves it to run() to
+     * release the sockets.
+     */
+    private boolean running;
+
+
+    /**
+     * The state kept for each client.
+     */
+    private static final class Connection
+    {
+        /**
+         * The bytes read but not yet run. Lines before scanned are known to
+         * have no newline.
+         */
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        int scanned;
+
+        final Reply out = new Reply();
+
+        /**
+         * Set once the client has sent Q or closed its side, so the
+         * connection is closed when the replies have been sent.
+         */
+        boolean closing;
+    }
+
+
+    /**
+     * The replies waiting to be sent to a client, encoded as UTF-8.
+     */
+    private static final class Reply implements Appendable
+    {
+        private byte [] bytes = new byte[BUFFER_SIZE];
+        private ByteBuffer view = ByteBuffer.wrap(bytes);
+        private int length;
+        private int sent;
+
+        /**
+         * Set while writing a listing, so that its line breaks are written as
+         * spaces and it stays on one line.
+         */
+        boolean flatten;
+
+
+        /**
+         * Helper method to make room for more bytes.
+         *
+         * @param count
+         */
+        private void ensure(int count)
+        {
+            if(length + count > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+                view = ByteBuffer.wrap(bytes);
+            }
+        }
+
+
+        @Override
+        public Reply append(char c)
+        {
+            if(c >= 0x80)
+                return append(String.valueOf(c));
+            ensure(1);
+            bytes[length++] = (byte) ((flatten && c == '\n') ? ' ' : c);
+            return this;
+        }
+
+
+        @Override
+        public Reply append(CharSequence csq)
+        {
+            return append(csq, 0, csq.length());
+        }
+
+
+        @Override
+        public Reply append(CharSequence csq, int start, int end)
+        {
+            ensure(end - start);
+            for(int i = start; i < end; ++i)
+            {
+                char c = csq.charAt(i);
+                if(c >= 0x80)
+                {
+                    /* Encode the rest the slow way. */
+                    String rest = csq.subSequence(i, end).toString();
+                    byte [] encoded = (flatten ? rest.replace('\n', ' ') : rest).getBytes(StandardCharsets.UTF_8);
+                    ensure(encoded.length);
+                    System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                    length += encoded.length;
+                    return this;
+                }
+                bytes[length++] = (byte) ((flatten && c == '\n') ? ' ' : c);
+            }
+            return this;
+        }
+
+
+        /**
+         * Send as much as the channel will take.
+         *
+         * @param channel
+         * @throws IOException
+         */
+        void send(SocketChannel channel) throws IOException
+        {
+            view.limit(length).position(sent);
+            sent += channel.write(view);
+            if(sent == length)
+                sent = length = 0;
+        }
+
+
+        /**
+         * The number of bytes of replies held, so that a reply can be taken
+         * back with truncate().
+         *
+         * @return The length.
+         */
+        int length()
+        {
+            return length;
+        }
+
+
+        /**
+         * Take back everything appended after a point.
+         *
+         * @param mark A length returned by length().
+         */
+        void truncate(int mark)
+        {
+            length = mark;
+            flatten = false;
+        }
+
+
+        /**
+         * Are there replies still to be sent?
+         *
+         * @return True if some bytes have not been sent.
+         */
+        boolean isPending()
+        {
+            return length > sent;
+        }
+    }
+
+
+    /**
+     * Start listening on the loopback address. Nothing is served until run()
+     * is called.
+     *
+     * @param queue The queue to serve.
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be bound.
+     */
+    public QueueServer(PriorityQueue<Person> queue, int port) throws IOException
+    {
+        this.queue = queue;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try
+        {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch(IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * The port the server is listening on.
+     *
+     * @return The port, which is chosen by the system if 0 was asked for.
+     */
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+
+    /**
+     * Serve clients until close() is called, then close every connection and
+     * stop listening. Returns straight away if the server has already been
+     * closed.
+     *
+     * @throws IOException if the server socket fails. A client whose
+     * connection fails is just dropped.
+     */
+    public void run() throws IOException
+    {
+        synchronized(this)
+        {
+            if(!open)
+                return;
+            running = true;
+        }
+        try
+        {
+            while(open)
+            {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid())
+                        continue;
+                    if(key.isAcceptable())
+                        accept();
+                    else
+                        serve(key);
+                }
+            }
+        } finally {
+            synchronized(this)
+            {
+                running = false;
+                release();
+            }
+        }
+    }
+
+
+    /**
+     * Stop serving. If run() is serving, it returns once it has closed every
+     * connection; otherwise the server stops listening straight away. This
+     * may be called from any thread, and more than once.
+     *
+     * @throws IOException if the sockets cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        open = false;
+        if(running)
+            selector.wakeup();
+        else
+            release();
+    }
+
+
+    /**
+     * Helper method to close every connection, the listening socket and the
+     * selector. Closing them again has no effect.
+     *
+     * @throws IOException
+     */
+    private void release() throws IOException
+    {
+        try
+        {
+            if(selector.isOpen())
+                for(SelectionKey key : selector.keys())
+                    key.channel().close();
+        } finally {
+            try
+            {
+                server.close();
+            } finally {
+                selector.close();
+            }
+        }
+    }
+
+
+    /**
+     * Helper method to accept a waiting client, if there is one.
+     *
+     * @throws IOException
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if(channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+
+    /**
+     * Helper method to read from and write to a client that is ready,
+     * dropping it if its connection fails or anything else goes wrong with
+     * it, so that the other clients are still served.
+     *
+     * @param key
+     */
+    private void serve(SelectionKey key)
+    {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try
+        {
+            if(key.isReadable())
+                read(channel, connection);
+            connection.out.send(channel);
+            if(connection.out.isPending())
+                key.interestOps(SelectionKey.OP_WRITE);
+            else if(connection.closing)
+                channel.close();
+            else
+                key.interestOps(SelectionKey.OP_READ);
+        } catch(IOException | RuntimeException e) {
+            try
+            {
+                channel.close();
+            } catch(IOException ignored) {
+                /* Already being dropped. */
+            }
+        }
+    }
+
+
+    /**
+     * Helper method to read what a client has sent and run every whole line.
+     *
+     * @param channel
+     * @param connection
+     * @throws IOException
+     */
+    private void read(SocketChannel channel, Connection connection) throws IOException
+    {
+        ByteBuffer in = connection.in;
+        int read = channel.read(in);
+        byte [] bytes = in.array();
+        int start = 0;
+        int end = in.position();
+        for(int i = connection.scanned; i < end && !connection.closing; ++i)
+        {
+            if(bytes[i] == '\n')
+            {
+                runLine(connection, bytes, start, i);
+                start = i + 1;
+            }
+        }
+
+        if(read < 0)
+        {
+            /* A last line with no newline still counts. */
+            if(!connection.closing && end > start)
+                runLine(connection, bytes, start, end);
+            connection.closing = true;
+        }
+        if(connection.closing)
+            return;
+
+        /* Keep the part line at the start of the buffer. */
+        in.limit(end).position(start);
+        in.compact();
+        connection.scanned = in.position();
+        if(!in.hasRemaining())
+        {
+            in.flip();
+            connection.in = ByteBuffer.allocate(in.capacity() * 2).put(in);
+        }
+    }
+
+
+    /**
+     * Helper method to run the command on one line and write its reply. An
+     * unchecked exception from the queue takes back anything the command had
+     * written and replies with the exception's message instead.
+     *
+     * @param connection
+     * @param bytes
+     * @param from The index of its first byte.
+     * @param to The index after its last byte, not counting the newline.
+     */
+    private void runLine(Connection connection, byte [] bytes, int from, int to)
+    {
+        if(to > from && bytes[to - 1] == '\r')
+            --to;
+        if(to == from)
+            return;
+
+        Reply out = connection.out;
+        int mark = out.length();
+        try
+        {
+            runCommand(connection, bytes, from, to);
+        } catch(RuntimeException e) {
+            out.truncate(mark);
+            out.append("ERR ").append((e.getMessage() != null) ? e.getMessage() : e.getClass().getSimpleName()).append('\n');
+        }
+    }
+
+
+    /**
+     * Helper method to run the command on a line that is not blank.
+     *
+     * @param connection
+     * @param bytes
+     * @param from The index of its first byte.
+     * @param to The index after its last byte, not counting any newline or
+     * carriage return.
+     */
+    private void runCommand(Connection connection, byte [] bytes, int from, int to)
+    {
+        Reply out = connection.out;
+        int length = to - from;
+        switch(bytes[from] | 0x20)
+        {
+            case 'a':
+                int nameEnd = CommandBatch.nameEnd(bytes, from, to);
+                long priority = (nameEnd < 0) ? Long.MIN_VALUE : CommandBatch.parseInt(bytes, nameEnd + 1, to);
+                if(priority == Long.MIN_VALUE)
+                {
+                    invalid(out);
+                    return;
+                }
+                Person person = new Person(new String(bytes, from + 2, nameEnd - from - 2, StandardCharsets.UTF_8));
+                try
+                {
+                    queue.add(person, (int) priority);
+                    out.append("OK\n");
+                } catch(QueueOverflowException e) {
+                    out.append("ERR ").append(e.getMessage()).append('\n');
+                }
+                return;
+            case 'h':
+            case 'r':
+                if(length != 1)
+                {
+                    invalid(out);
+                    return;
+                }
+                try
+                {
+                    Person head = ((bytes[from] | 0x20) == 'h') ? queue.head() : queue.poll();
+                    out.append("OK ").append(head.getName()).append('\n');
+                } catch(QueueUnderflowException e) {
+                    out.append("ERR ").append(e.getMessage()).append('\n');
+                }
+                return;
+            case 'e':
+                if(length != 1)
+                    invalid(out);
+                else
+                    out.append(queue.isEmpty() ? "OK true\n" : "OK false\n");
+                return;
+            case 'p':
+                print(out, bytes, from, to);
+                return;
+            case 'q':
+                if(length != 1)
+                {
+                    invalid(out);
+                    return;
+                }
+                out.append("BYE\n");
+                connection.closing = true;
+                return;
+            default:
+                invalid(out);
+                return;
+        }
+    }
+
+
+    /**
+     * Helper method to run "P" or "P n", writing the listing on one line.
+     *
+     * @param out
+     * @param bytes
+     * @param from
+     * @param to
+     */
+    private void print(Reply out, byte [] bytes, int from, int to)
+    {
+        int first = from + 1;
+        while(first < to && bytes[first] == ' ')
+            ++first;
+        int last = to;
+        while(last > first && bytes[last - 1] == ' ')
+            --last;
+        long limit = (first == last) ? Integer.MAX_VALUE : CommandBatch.parseInt(bytes, first, last);
+        if(limit < 0)
+        {
+            invalid(out);
+            return;
+        }
+
+        out.append("OK ");
+        out.flatten = true;
+        try
+        {
+            queue.writeTo(out, (int) limit, first != last);
+        } catch(IOException e) {
+            /* A Reply never throws one. */
+            throw new AssertionError(e);
+        } finally {
+            out.flatten = false;
+        }
+        out.append('\n');
+    }
+
+
+    /**
+     * Helper method to reply to a line that is not a command.
+     *
+     * @param out
+     */
+    private static void invalid(Reply out)
+    {
+        out.append("ERR Invalid command\n");
+    }
+
+}
@@ -0,0 +1,402 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Implementation of the PriorityQueue ADT using a radix heap, for monotone
+ * workloads where nothing is ever added with a higher priority than the last
+ * item removed. Dijkstra's shortest path algorithm, using the negated
+ * distance as the priority, is the classic example.
+ *
+ * Items are kept in 33 unsorted buckets according to the highest bit in
+ * which their priority differs from that of the last item removed. Bucket 0
+ * holds items equal to it. remove takes from bucket 0 when it can; otherwise
+ * it finds the lowest non-empty bucket, makes the best item there the new
+ * reference point, and redistributes that bucket's items into lower buckets.
+ * Each item can only move down, so it is moved at most 33 times in all: an
+ * amortized O(log C) per item, where C is the spread of priorities, using
+ * nothing more than XORs and bit counts.
+ *
+ * Adding an item with a higher priority than the last removed breaks the
+ * ordering. With checkMonotone set such adds are rejected with an
+ * IllegalArgumentException, which is useful while debugging; without it the
+ * check is skipped and the order items come out in is undefined.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class RadixHeapPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * Enough buckets for every 32 bit difference, plus bucket 0.
+     */
+    private static final int BUCKETS = 33;
+
+    /**
+     * Whether adds are checked for monotonicity.
+     */
+    private final boolean checkMonotone;
+
+    /**
+     * The keys of the items in each bucket. A key is Integer.MAX_VALUE minus
+     * the priority, so the highest priority has the smallest key and every
+     * key fits in 32 bits without a sign.
+     */
+    private final long [][] keys = new long[BUCKETS][];
+
+    /**
+     * The items in each bucket, parallel to keys.
+     */
+    private final Object [][] items = new Object[BUCKETS][];
+
+    /**
+     * The number of items in each bucket.
+     */
+    private final int [] sizes = new int[BUCKETS];
+
+    /**
+     * The key of the last item removed.
+     */
+    private long last = 0;
+
+    /**
+     * The number of items held in the queue.
+     */
+    private int count = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+
+    /**
+     * Create a new empty queue that does not check adds for monotonicity.
+     */
+    public RadixHeapPriorityQueue()
+    {
+        this(false);
+    }
+
+
+    /**
+     * Create a new empty queue.
+     *
+     * @param checkMonotone Whether to reject adds with a higher priority than
+     * the last item removed.
+     */
+    public RadixHeapPriorityQueue(boolean checkMonotone)
+    {
+        this.checkMonotone = checkMonotone;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            keys[i] = new long[4];
+            items[i] = new Object[4];
+        }
+    }
+
+
+    /**
+     * Helper method to convert a priority to a key.
+     *
+     * @param priority
+     * @return The key.
+     */
+    private static long keyOf(int priority)
+    {
+        return (long) Integer.MAX_VALUE - priority;
+    }
+
+
+    /**
+     * Helper method to find the bucket a key belongs in.
+     *
+     * @param key
+     * @return The bucket: 0 if key equals last, otherwise one more than the
+     * index of the highest bit in which they differ.
+     */
+    private int bucketOf(long key)
+    {
+        return 64 - Long.numberOfLeadingZeros(key ^ last);
+    }
+
+
+    /**
+     * Helper method to append an entry to a bucket.
+     *
+     * @param bucket
+     * @param key
+     * @param item
+     */
+    private void push(int bucket, long key, Object item)
+    {
+        int size = sizes[bucket];
+        if(size == keys[bucket].length)
+        {
+            keys[bucket] = Arrays.copyOf(keys[bucket], size * 2);
+            items[bucket] = Arrays.copyOf(items[bucket], size * 2);
+        }
+        keys[bucket][size] = key;
+        items[bucket][size] = item;
+        sizes[bucket] = size + 1;
+    }
+
+
+    /**
+     * Helper method to make sure bucket 0 holds the best items, by
+     * redistributing the lowest non-empty bucket about its smallest key.
+     * Must only be called when the queue is not empty.
+     */
+    private void refill()
+    {
+        if(sizes[0] > 0)
+            return;
+
+        int bucket = 1;
+        while(sizes[bucket] == 0)
+            ++bucket;
+
+        /* Its smallest key becomes the new reference point. */
+        long [] bucketKeys = keys[bucket];
+        Object [] bucketItems = items[bucket];
+        int size = sizes[bucket];
+        long min = bucketKeys[0];
+        for(int i = 1; i < size; ++i)
+            min = Math.min(min, bucketKeys[i]);
+        last = min;
+
+        /* Every entry now belongs in a lower bucket. */
+        sizes[bucket] = 0;
+        for(int i = 0; i < size; ++i)
+        {
+            push(bucketOf(bucketKeys[i]), bucketKeys[i], bucketItems[i]);
+            bucketItems[i] = null;
+        }
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    /**
+     * Add the given item to the queue with the given priority.
+     *
+     * @param item
+     * @param priority No higher than the priority of the last item removed.
+     * @throws QueueOverflowException
+     * @throws IllegalArgumentException if checking is enabled and the
+     * priority is higher than that of the last item removed.
+     */
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        long key = keyOf(priority);
+        if(checkMonotone && key < last)
+            throw new IllegalArgumentException("Priority " + priority
+                + " is higher than the last removed, " + (Integer.MAX_VALUE - last));
+
+        ++modCount;
+        push(bucketOf(key), key, item);
+        ++count;
+    }
+
+
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        if(checkMonotone)
+            for(PriorityItem<T> item : items)
+                if(keyOf(item.getPriority()) < last)
+                    throw new IllegalArgumentException("Priority " + item.getPriority()
+                        + " is higher than the last removed, " + (Integer.MAX_VALUE - last));
+
+        /* Appending to a bucket is already O(1). */
+        for(PriorityItem<T> item : items)
+            add(item.getItem(), item.getPriority());
+    }
+
+
+    /**
+     * The highest priority item stored. Throw an exception if it's empty.
+     *
+     * This does not change what counts as the last item removed, so it may
+     * have to scan the lowest non-empty bucket.
+     *
+     * @return The item with the highest priority
+     * @throws QueueUnderflowException
+     */
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        if(sizes[0] > 0)
+            return (T) items[0][sizes[0] - 1];
+
+        int bucket = 1;
+        while(sizes[bucket] == 0)
+            ++bucket;
+
+        /* Of equal keys take the last, which is the one refill will leave
+         * on top of bucket 0 for remove. */
+        int best = 0;
+        for(int i = 1; i < sizes[bucket]; ++i)
+            if(keys[bucket][i] <= keys[bucket][best])
+                best = i;
+        return (T) items[bucket][best];
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        ++modCount;
+        refill();
+        --sizes[0];
+        items[0][sizes[0]] = null;
+        --count;
+    }
+
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        out.begin(Snapshot.Order.UNORDERED, 0, count);
+        for(int bucket = 0; bucket < BUCKETS; ++bucket)
+            for(int i = 0; i < sizes[bucket]; ++i)
+                out.write((T) items[bucket][i], (int) (Integer.MAX_VALUE - keys[bucket][i]));
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * The restored queue starts afresh, as if nothing had yet been removed,
+     * so any priority may be added to it.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Read everything first so nothing changes if reading fails. */
+        List<PriorityItem<T>> restored = in.readAll();
+
+        ++modCount;
+        for(int bucket = 0; bucket < BUCKETS; ++bucket)
+        {
+            Arrays.fill(items[bucket], 0, sizes[bucket], null);
+            sizes[bucket] = 0;
+        }
+        last = 0;
+        count = 0;
+
+        addAll(restored);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return count;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        /* Visit the items bucket by bucket, as toString does. */
+        return new Iterator<PriorityItem<T>>()
+        {
+            private final int expectedModCount = modCount;
+
+            private int bucket = 0;
+
+            private int position = 0;
+
+            private int remaining = count;
+
+            @Override
+            public boolean hasNext()
+            {
+                return remaining > 0;
+            }
+
+            @Override
+            public PriorityItem<T> next()
+            {
+                if(modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if(remaining < 1)
+                    throw new NoSuchElementException();
+
+                while(position == sizes[bucket])
+                {
+                    ++bucket;
+                    position = 0;
+                }
+                PriorityItem<T> entry = new PriorityItem<>((T) items[bucket][position],
+                    (int) (Integer.MAX_VALUE - keys[bucket][position]));
+                ++position;
+                --remaining;
+                return entry;
+            }
+        };
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        /* List the items bucket by bucket. Every key in a bucket is smaller
+         * than every key in the buckets after it, so sorting each bucket
+         * on its own is enough to list them in priority order. */
+        Listing listing = new Listing(out, limit);
+        for(int bucket = 0; bucket < BUCKETS; ++bucket)
+        {
+            boolean more = true;
+            if(inPriorityOrder)
+            {
+                List<PriorityItem<Object>> entries = new ArrayList<>(sizes[bucket]);
+                for(int i = 0; i < sizes[bucket]; ++i)
+                    entries.add(new PriorityItem<>(items[bucket][i], (int) (Integer.MAX_VALUE - keys[bucket][i])));
+                more = listing.addSorted(entries);
+            }
+            else
+                for(int i = 0; i < sizes[bucket] && more; ++i)
+                    more = listing.add(items[bucket][i], (int) (Integer.MAX_VALUE - keys[bucket][i]));
+            if(!more)
+                break;
+        }
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (count < 1);
+    }
+
+}
@@ -0,0 +1,549 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The binary format used to save the contents of a queue and restore them
+ * later, into the same implementation or any other.
+ *
+ * A snapshot is a header, a record for each item and a trailer:
+ *
+ * - The header is the magic number "PQS1", a version byte, a byte giving the
+ *   Order of the records, a byte giving the arity when they are in heap order
+ *   and an unused byte, followed by the number of records as a 4 byte int.
+ * - Each record is its length as a packed int, followed by the priority as a
+ *   packed, zig-zag encoded int and then the item as encoded by an ItemCodec.
+ *   Packed ints take 7 bits per byte, so most priorities take one or two
+ *   bytes.
+ * - The trailer is a CRC32 of everything before it.
+ *
+ * Snapshots are written and read through NIO channels a buffer at a time, so
+ * they can be streamed to and from files, sockets or memory. Nothing is
+ * allocated on the word of a count or length read from a snapshot alone, so
+ * a damaged one gives an IOException rather than running out of memory.
+ */
+public final class Snapshot
+{
+
+    /**
+     * The order in which records are written.
+     */
+    public enum Order
+    {
+        /**
+         * No particular order.
+         */
+        UNORDERED,
+
+        /**
+         * Highest priority first. This is also a valid heap of any arity.
+         */
+        SORTED,
+
+        /**
+         * The array layout of a heap of the arity given in the header, so
+         * that heaps of the same arity can be restored without re-heapifying.
+         */
+        HEAP
+    }
+
+    /**
+     * The largest arity the header can hold. Heaps any wider are written in
+     * no particular order.
+     */
+    public static final int MAX_ARITY = 255;
+
+    private static final int MAGIC = 0x50515331;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 4;
+    private static final int MIN_RECORD_SIZE = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    private Snapshot()
+    {
+    }
+
+
+    /**
+     * Writes a snapshot to a channel. Queues call begin, then write for each
+     * item, then finish.
+     *
+     * @param <T> The type of items written.
+     */
+    public static final class Writer<T>
+    {
+        private final WritableByteChannel channel;
+
+        private final ItemCodec<T> codec;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final CRC32 crc = new CRC32();
+
+        /**
+         * The number of records still to be written, or -1 before begin.
+         */
+        private int remaining = -1;
+
+
+        /**
+         * Create a writer for a single snapshot.
+         *
+         * @param channel Where the snapshot is written. It is not closed.
+         * @param codec The converter from items to bytes.
+         */
+        public Writer(WritableByteChannel channel, ItemCodec<T> codec)
+        {
+            this.channel = channel;
+            this.codec = codec;
+        }
+
+
+        /**
+         * Write the header.
+         *
+         * @param order The order the records will be written in.
+         * @param arity The arity of the heap for Order.HEAP, at most
+         * MAX_ARITY, otherwise 0.
+         * @param count The number of records that will be written.
+         * @throws IOException
+         */
+        public void begin(Order order, int arity, int count) throws IOException
+        {
+            if(remaining != -1)
+                throw new IllegalStateException("Snapshot already begun");
+            if(arity < 0 || arity > MAX_ARITY || count < 0)
+                throw new IllegalArgumentException("Invalid arity or count");
+
+            buffer.putInt(MAGIC);
+            buffer.put((byte) VERSION);
+            buffer.put((byte) order.ordinal());
+            buffer.put((byte) arity);
+            buffer.put((byte) 0);
+            buffer.putInt(count);
+            remaining = count;
+        }
+
+
+        /**
+         * Write the record for an item.
+         *
+         * @param item
+         * @param priority
+         * @throws IOException
+         */
+        public void write(T item, int priority) throws IOException
+        {
+            if(remaining < 1)
+                throw new IllegalStateException("Snapshot not expecting another record");
+
+            byte [] bytes = codec.encode(item);
+            int zigzag = (priority << 1) ^ (priority >> 31);
+            int length = packedSize(zigzag) + bytes.length;
+
+            if(buffer.remaining() < 10)
+                flush();
+            putPacked(length);
+            putPacked(zigzag);
+
+            /* Copy the item a buffer at a time, as it may be longer than one. */
+            int offset = 0;
+            while(offset < bytes.length)
+            {
+                if(!buffer.hasRemaining())
+                    flush();
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+            --remaining;
+        }
+
+
+        /**
+         * Write the trailer and flush everything to the channel. Throw an
+         * exception if fewer records were written than begin promised.
+         *
+         * @throws IOException
+         */
+        public void finish() throws IOException
+        {
+            if(remaining != 0)
+                throw new IllegalStateException("Snapshot has " + remaining + " records missing");
+
+            if(buffer.remaining() < TRAILER_SIZE)
+                flush();
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+            drain();
+            remaining = -1;
+        }
+
+
+        /**
+         * Helper method to add the buffered bytes to the checksum and write
+         * them to the channel.
+         *
+         * @throws IOException
+         */
+        private void flush() throws IOException
+        {
+            crc.update(buffer.array(), 0, buffer.position());
+            drain();
+        }
+
+
+        /**
+         * Helper method to write the buffered bytes to the channel.
+         *
+         * @throws IOException
+         */
+        private void drain() throws IOException
+        {
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+
+        /**
+         * Helper method to append a packed int, 7 bits per byte with the top
+         * bit set on all but the last.
+         *
+         * @param value Treated as unsigned.
+         */
+        private void putPacked(int value)
+        {
+            while((value & ~0x7F) != 0)
+            {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+
+
+    /**
+     * Reads a snapshot from a channel. The header is read straight away;
+     * then each call to next reads a record, whose item and priority are
+     * available until the following call. The trailer is checked when the
+     * last record is read.
+     *
+     * @param <T> The type of items read.
+     */
+    public static final class Reader<T>
+    {
+        private final ReadableByteChannel channel;
+
+        private final ItemCodec<T> codec;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final CRC32 crc = new CRC32();
+
+        private final Order order;
+
+        private final int arity;
+
+        private final int count;
+
+        /**
+         * The number of records still to be read.
+         */
+        private int remaining;
+
+        private T item;
+
+        private int priority;
+
+
+        /**
+         * Create a reader for a single snapshot, reading its header.
+         *
+         * @param channel Where the snapshot is read from. It is not closed.
+         * @param codec The converter from bytes to items.
+         * @throws IOException if the channel does not hold a snapshot.
+         */
+        public Reader(ReadableByteChannel channel, ItemCodec<T> codec) throws IOException
+        {
+            this.channel = channel;
+            this.codec = codec;
+            buffer.flip();
+
+            require(HEADER_SIZE);
+            if(buffer.getInt() != MAGIC)
+                throw new IOException("Not a snapshot");
+            if(buffer.get() != VERSION)
+                throw new IOException("Unsupported snapshot version");
+            int orderIndex = buffer.get();
+            if(orderIndex < 0 || orderIndex >= Order.values().length)
+                throw new IOException("Invalid snapshot order: " + orderIndex);
+            order = Order.values()[orderIndex];
+            arity = buffer.get() & 0xFF;
+            buffer.get();
+            count = buffer.getInt();
+            /* Every record takes at least a byte of length and a byte of
+             * priority. */
+            if(count < 0 || (long) count * MIN_RECORD_SIZE + TRAILER_SIZE > available())
+                throw new IOException("Invalid snapshot count: " + count);
+            remaining = count;
+
+            if(count == 0)
+                checkTrailer();
+        }
+
+
+        /**
+         * Helper method to find how many unread bytes the snapshot can have
+         * left, so that counts can be checked before queues allocate room
+         * for them.
+         *
+         * @return The bytes left in a file or other seekable channel, or
+         * Long.MAX_VALUE if the channel cannot tell.
+         * @throws IOException
+         */
+        private long available() throws IOException
+        {
+            if(!(channel instanceof SeekableByteChannel))
+                return Long.MAX_VALUE;
+            SeekableByteChannel file = (SeekableByteChannel) channel;
+            return file.size() - file.position() + buffer.remaining();
+        }
+
+
+        /**
+         * The order of the records.
+         *
+         * @return The order.
+         */
+        public Order getOrder()
+        {
+            return order;
+        }
+
+
+        /**
+         * The arity of the heap the records were written from, if in
+         * Order.HEAP.
+         *
+         * @return The arity, or 0.
+         */
+        public int getArity()
+        {
+            return arity;
+        }
+
+
+        /**
+         * The total number of records.
+         *
+         * @return The count.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+
+        /**
+         * Is the snapshot in the layout of a heap of the given arity? Records
+         * in SORTED order always are.
+         *
+         * @param heapArity
+         * @return True if the records can be used as they are, otherwise False
+         */
+        public boolean isHeapOf(int heapArity)
+        {
+            return order == Order.SORTED || (order == Order.HEAP && arity == heapArity);
+        }
+
+
+        /**
+         * Are there records left to read?
+         *
+         * @return True if there are, otherwise False
+         */
+        public boolean hasNext()
+        {
+            return remaining > 0;
+        }
+
+
+        /**
+         * Read the next record.
+         *
+         * @throws IOException if it cannot be read or the snapshot is
+         * damaged.
+         */
+        public void next() throws IOException
+        {
+            if(remaining < 1)
+                throw new IllegalStateException("No records left");
+
+            int length = getPacked();
+            int zigzag = getPacked();
+            int itemLength = length - packedSize(zigzag);
+            if(itemLength < 0)
+                throw new IOException("Invalid snapshot record");
+
+            require(itemLength);
+            int end = buffer.position() + itemLength;
+            int limit = buffer.limit();
+            buffer.limit(end);
+            try
+            {
+                item = codec.decode(buffer);
+            } catch(RuntimeException e) {
+                throw new IOException("Invalid snapshot item", e);
+            }
+            buffer.limit(limit);
+            buffer.position(end);
+            priority = (zigzag >>> 1) ^ -(zigzag & 1);
+
+            if(--remaining == 0)
+                checkTrailer();
+        }
+
+
+        /**
+         * The item from the last record read.
+         *
+         * @return The item.
+         */
+        public T getItem()
+        {
+            return item;
+        }
+
+
+        /**
+         * The priority from the last record read.
+         *
+         * @return The priority.
+         */
+        public int getPriority()
+        {
+            return priority;
+        }
+
+
+        /**
+         * Read every remaining record.
+         *
+         * @return The items, each with its priority, in the order read.
+         * @throws IOException
+         */
+        public List<PriorityItem<T>> readAll() throws IOException
+        {
+            /* The count has not been checked against the trailer yet. */
+            List<PriorityItem<T>> items = new ArrayList<>(Math.min(remaining, BUFFER_SIZE));
+            while(hasNext())
+            {
+                next();
+                items.add(new PriorityItem<>(item, priority));
+            }
+            return items;
+        }
+
+
+        /**
+         * Helper method to make sure at least the given number of unread
+         * bytes are in the buffer, reading more from the channel as needed.
+         *
+         * @param bytes
+         * @throws IOException if the channel ends first.
+         */
+        private void require(int bytes) throws IOException
+        {
+            if(buffer.remaining() >= bytes)
+                return;
+
+            /* The bytes about to be discarded have been read, so add them to
+             * the checksum. */
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.compact();
+            while(buffer.position() < bytes)
+            {
+                /* Grow only once the buffer is full, so that a damaged
+                 * length cannot allocate more than twice what the channel
+                 * actually holds. */
+                if(!buffer.hasRemaining())
+                {
+                    ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(bytes, 2L * buffer.capacity()));
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+                if(channel.read(buffer) < 0)
+                    throw new IOException("Snapshot is truncated");
+            }
+            buffer.flip();
+        }
+
+
+        /**
+         * Helper method to read a packed int.
+         *
+         * @return The value.
+         * @throws IOException
+         */
+        private int getPacked() throws IOException
+        {
+            int value = 0;
+            for(int shift = 0; shift < 35; shift += 7)
+            {
+                require(1);
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    return value;
+            }
+            throw new IOException("Invalid packed int in snapshot");
+        }
+
+
+        /**
+         * Helper method to read the trailer and check it against everything
+         * read before it.
+         *
+         * @throws IOException if they do not match.
+         */
+        private void checkTrailer() throws IOException
+        {
+            require(TRAILER_SIZE);
+            crc.update(buffer.array(), 0, buffer.position());
+            if(buffer.getInt() != (int) crc.getValue())
+                throw new IOException("Snapshot checksum does not match");
+        }
+    }
+
+
+    /**
+     * Helper method to find the number of bytes a packed int takes.
+     *
+     * @param value Treated as unsigned.
+     * @return Between 1 and 5.
+     */
+    private static int packedSize(int value)
+    {
+        int size = 1;
+        while((value & ~0x7F) != 0)
+        {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+}
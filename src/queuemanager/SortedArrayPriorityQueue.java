@@ -1,5 +1,13 @@
 package queuemanager;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+
 /**
  * Implementation of the PriorityQueue ADT using a sorted array for storage.
  *
@@ -13,6 +21,13 @@ package queuemanager;
  * that Eiffel allows it because Eiffel generics were done right from the start,
  * rather than being tacked on as an afterthought and limited by issues of
  * backward compatibility. Humph!
+ *
+ * The array is used as a circular buffer, with the highest priority item at
+ * headIndex and the rest following it in priority order, wrapping round to
+ * the start of the array. remove just advances headIndex, so it takes constant
+ * time. add finds its slot by binary search and makes room by moving the
+ * items on whichever side of it are fewer, with at most two array copies.
+ * Items of equal priority are removed in the order they were added.
  * 
  * @param <T> The type of things being stored.
  */
@@ -29,11 +44,20 @@ public class SortedArrayPriorityQueue<T> implements PriorityQueue<T> {
     private final int capacity;
 
     /**
-     * The index of the last item stored.
-     *
-     * This is equal to the item count minus one.
+     * The index in storage of the highest priority item.
+     */
+    private int headIndex;
+
+    /**
+     * The number of items stored.
+     */
+    private int count;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
      */
-    private int tailIndex;
+    private int modCount = 0;
 
     /**
      * Create a new empty queue of the given size.
@@ -43,7 +67,91 @@ public class SortedArrayPriorityQueue<T> implements PriorityQueue<T> {
     public SortedArrayPriorityQueue(int size) {
         storage = new Object[size];
         capacity = size;
-        tailIndex = -1;
+        headIndex = 0;
+        count = 0;
+    }
+
+    /**
+     * Helper method to find where in storage the item at a position in
+     * priority order is kept.
+     *
+     * @param position Less than the capacity, 0 for the head.
+     * @return The index in storage.
+     */
+    private int indexOf(int position) {
+        /* Written so that it cannot overflow, however large the capacity. */
+        if (position < capacity - headIndex) {
+            return headIndex + position;
+        } else {
+            return position - (capacity - headIndex);
+        }
+    }
+
+    /**
+     * Helper method to get the item at a position in priority order.
+     *
+     * @param position Less than the number of items stored.
+     * @return The item with its priority.
+     */
+    private PriorityItem<T> entryAt(int position) {
+        return (PriorityItem<T>) storage[indexOf(position)];
+    }
+
+    /**
+     * Helper method to find the position an item of the given priority
+     * belongs at by binary search. This is after every item of equal
+     * priority, so that they keep the order they were added in.
+     *
+     * @param priority
+     * @return The position of the first item with a lower priority, or the
+     * number of items stored if there is none.
+     */
+    private int insertionPoint(int priority) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entryAt(middle).getPriority() >= priority) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Helper method to move a run of items from one position in priority
+     * order to another, which may overlap it, as System.arraycopy does. The
+     * run is split where either end wraps round the array, so each piece is
+     * a single copy.
+     *
+     * @param from The position of the first item to move.
+     * @param to The position it is moved to.
+     * @param length The number of items to move.
+     */
+    private void move(int from, int to, int length) {
+        if (to < from) {
+            /* Moving towards the head, so copy the pieces front to back. */
+            int done = 0;
+            while (done < length) {
+                int source = indexOf(from + done);
+                int destination = indexOf(to + done);
+                int piece = Math.min(length - done, Math.min(capacity - source, capacity - destination));
+                System.arraycopy(storage, source, storage, destination, piece);
+                done = done + piece;
+            }
+        } else {
+            /* Moving away from the head, so copy the pieces back to front. */
+            int left = length;
+            while (left > 0) {
+                int source = indexOf(from + left - 1);
+                int destination = indexOf(to + left - 1);
+                int piece = Math.min(left, Math.min(source, destination) + 1);
+                System.arraycopy(storage, source - piece + 1, storage, destination - piece + 1, piece);
+                left = left - piece;
+            }
+        }
     }
 
     @Override
@@ -51,26 +159,80 @@ public class SortedArrayPriorityQueue<T> implements PriorityQueue<T> {
         if (isEmpty()) {
             throw new QueueUnderflowException();
         } else {
-            return ((PriorityItem<T>) storage[0]).getItem();
+            return entryAt(0).getItem();
         }
     }
 
+    /**
+     * Add the given item to the queue with the given priority.
+     *
+     * Its position is found by binary search. The items before it are moved
+     * one place towards the back of the array, or those after it one place
+     * forwards, whichever are fewer.
+     *
+     * @param item
+     * @param priority
+     * @throws QueueOverflowException
+     */
     @Override
     public void add(T item, int priority) throws QueueOverflowException {
-        tailIndex = tailIndex + 1;
-        if (tailIndex >= capacity) {
+        if (count >= capacity) {
             /* No resizing implemented, but that would be a good enhancement. */
-            tailIndex = tailIndex - 1;
             throw new QueueOverflowException();
+        }
+
+        modCount++;
+        int position = insertionPoint(priority);
+        if (position < count - position) {
+            /* Step the head back and move the items ahead of the slot into
+             * the space that makes. */
+            headIndex = (headIndex == 0) ? capacity - 1 : headIndex - 1;
+            move(1, 0, position);
         } else {
-            /* Scan backwards looking for insertion point */
-            int i = tailIndex;
-            while (i > 0 && ((PriorityItem<T>) storage[i - 1]).getPriority() < priority) {
-                storage[i] = storage[i - 1];
+            move(position, position + 1, count - position);
+        }
+        storage[indexOf(position)] = new PriorityItem<>(item, priority);
+        count++;
+    }
+
+    /**
+     * Add all of the given items to the queue.
+     *
+     * The batch is sorted once and then merged into the array from the back,
+     * so each stored item is moved at most once.
+     *
+     * @param items
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException {
+        int added = items.size();
+        if (added > capacity - count) {
+            throw new QueueOverflowException();
+        }
+
+        modCount++;
+
+        /* The sort is stable so equal priorities keep the order given. */
+        List<PriorityItem<T>> batch = new ArrayList<>(items);
+        Collections.sort(batch, PriorityItem.HIGHEST_PRIORITY_FIRST);
+
+        /* Merge from the back. On equal priorities the item already stored
+         * stays ahead, as it would with add. */
+        int i = count - 1;
+        int j = added - 1;
+        int k = count + added - 1;
+        while (j >= 0) {
+            if (i >= 0 && entryAt(i).getPriority() < batch.get(j).getPriority()) {
+                storage[indexOf(k)] = storage[indexOf(i)];
                 i = i - 1;
+            } else {
+                storage[indexOf(k)] = batch.get(j);
+                j = j - 1;
             }
-            storage[i] = new PriorityItem<>(item, priority);
+            k = k - 1;
         }
+        count = count + added;
     }
 
     @Override
@@ -78,28 +240,144 @@ public class SortedArrayPriorityQueue<T> implements PriorityQueue<T> {
         if (isEmpty()) {
             throw new QueueUnderflowException();
         } else {
-            for (int i = 0; i < tailIndex; i++) {
-                storage[i] = storage[i + 1];
-            }
-            tailIndex = tailIndex - 1;
+            modCount++;
+            storage[headIndex] = null;
+            headIndex = (headIndex == capacity - 1) ? 0 : headIndex + 1;
+            count--;
+        }
+    }
+
+    /**
+     * Remove up to max of the highest priority items, adding them to target.
+     *
+     * The items are already in order from the head, so the head just moves
+     * past them.
+     *
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
+    @Override
+    public int drainTo(Collection<? super T> target, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+        }
+
+        int drained = Math.min(max, count);
+        if (drained == 0) {
+            return 0;
+        }
+
+        modCount++;
+        for (int i = 0; i < drained; i++) {
+            target.add(entryAt(i).getItem());
         }
+
+        /* Only drop the batch once it has all been handed over. */
+        for (int i = 0; i < drained; i++) {
+            storage[indexOf(i)] = null;
+        }
+        headIndex = indexOf(drained % capacity);
+        count = count - drained;
+        return drained;
+    }
+
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException {
+        out.begin(Snapshot.Order.SORTED, 0, count);
+        for (int i = 0; i < count; i++) {
+            PriorityItem<T> item = entryAt(i);
+            out.write(item.getItem(), item.getPriority());
+        }
+        out.finish();
+    }
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     *
+     * Sorted snapshots are copied in as they are. Anything else is sorted
+     * first.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException {
+        int restoredCount = in.getCount();
+        if (restoredCount > capacity) {
+            throw new QueueOverflowException();
+        }
+
+        /* Read everything first so nothing changes if reading fails. */
+        List<PriorityItem<T>> restored = in.readAll();
+        if (in.getOrder() != Snapshot.Order.SORTED) {
+            Collections.sort(restored, PriorityItem.HIGHEST_PRIORITY_FIRST);
+        }
+
+        modCount++;
+        for (int i = 0; i < count; i++) {
+            storage[indexOf(i)] = null;
+        }
+        restored.toArray(storage);
+        headIndex = 0;
+        count = restoredCount;
     }
 
     @Override
     public boolean isEmpty() {
-        return tailIndex < 0;
+        return count < 1;
     }
 
     @Override
-    public String toString() {
-        String result = "[";
-        for (int i = 0; i <= tailIndex; i++) {
-            if (i > 0) {
-                result = result + ", ";
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator() {
+        return IndexedSpliterator.iterator(entries(), size());
+    }
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator() {
+        return new IndexedSpliterator<>(entries(), size());
+    }
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries() {
+        return new IndexedSpliterator.Storage<T>() {
+            @Override
+            public PriorityItem<T> entryAt(int index) {
+                return SortedArrayPriorityQueue.this.entryAt(index);
+            }
+
+            @Override
+            public int modCount() {
+                return modCount;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException {
+        /* The array is kept in priority order, so it is always listed in
+         * order. */
+        Listing listing = new Listing(out, limit);
+        for (int i = 0; i < count; i++) {
+            if (!listing.add(entryAt(i))) {
+                break;
             }
-            result = result + storage[i];
         }
-        result = result + "]";
-        return result;
+        listing.finish();
+    }
+
+    @Override
+    public String toString() {
+        return Listing.toString(this);
     }
 }
@@ -1,5 +1,14 @@
 package queuemanager;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
 /**
  * Implementation of the PriorityQueue ADT using a sorted linked list for
  * storage.
@@ -21,6 +30,12 @@ public class SortedLinkedPriorityQueue<T> implements PriorityQueue<T>
      */
     private int count = 0;
     
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+    
     
     /* These methods inherit their JavaDoc comments from PriorityQueue. */
     
@@ -28,6 +43,7 @@ public class SortedLinkedPriorityQueue<T> implements PriorityQueue<T>
     @Override
     public void add(T item, int priority) throws QueueOverflowException
     {
+        ++modCount;
         /* Create a new Node containing a new PriorityItem */
         Node<PriorityItem<T>> newNode = new Node<>(new PriorityItem<>(item,priority));
         
@@ -66,6 +82,51 @@ public class SortedLinkedPriorityQueue<T> implements PriorityQueue<T>
     }
 
     
+    /**
+     * Add all of the given items to the queue.
+     * 
+     * The batch is sorted once and then merged into the list in a single
+     * pass, rather than scanning from head for each item.
+     * 
+     * @param items
+     * @throws QueueOverflowException 
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        ++modCount;
+        /* The sort is stable so equal priorities keep the order given. */
+        List<PriorityItem<T>> batch = new ArrayList<>(items);
+        Collections.sort(batch, PriorityItem.HIGHEST_PRIORITY_FIRST);
+        
+        /* Variables to track insertion point. Head is not cleared when the
+         * last item is removed so only trust it when the queue is not empty. */
+        Node<PriorityItem<T>> insertAfter = null;
+        Node<PriorityItem<T>> insertBefore = isEmpty() ? null : head;
+        
+        for(PriorityItem<T> item : batch)
+        {
+            /* The batch is sorted so the insertion point only moves forward. */
+            while(insertBefore != null && item.getPriority() <= insertBefore.getValue().getPriority())
+            {
+                insertAfter = insertBefore;
+                insertBefore = insertBefore.getNext();
+            }
+            
+            Node<PriorityItem<T>> newNode = new Node<>(item);
+            newNode.setNext(insertBefore);
+            if(insertAfter == null)
+                head = newNode;
+            else
+                insertAfter.setNext(newNode);
+            
+            /* Later items of equal priority go after this one. */
+            insertAfter = newNode;
+            ++count;
+        }
+    }
+
+    
     @Override
     public T head() throws QueueUnderflowException
     {
@@ -82,6 +143,7 @@ public class SortedLinkedPriorityQueue<T> implements PriorityQueue<T>
         if(isEmpty())
             throw new QueueUnderflowException();
         
+        ++modCount;
         /* We know there is at least one item in the list. */
         count--;
         
@@ -92,19 +154,127 @@ public class SortedLinkedPriorityQueue<T> implements PriorityQueue<T>
     
     
     @Override
-    public String toString() {
-        /* Construct a comma delimited list of items in the queue. */
-        String result = "[";
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        out.begin(Snapshot.Order.SORTED, 0, count);
         Node<PriorityItem<T>> current = head;
-        for (int i = 0; i < count; ++i) {
-            if (i > 0) {
-                result = result + ", ";
-            }
-            result = result + current.getValue();
+        for(int i = 0; i < count; ++i)
+        {
+            out.write(current.getValue().getItem(), current.getValue().getPriority());
             current = current.getNext();
         }
-        result = result + "]";
-        return result;
+        out.finish();
+    }
+    
+    
+    /**
+     * Replace the contents of the queue with the items in a snapshot.
+     * 
+     * Sorted snapshots are linked up in the order they are read. Anything
+     * else is sorted first.
+     * 
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException 
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Build a new list so nothing changes if reading fails. */
+        Node<PriorityItem<T>> restoredHead = null;
+        Node<PriorityItem<T>> tail = null;
+        if(in.getOrder() == Snapshot.Order.SORTED)
+        {
+            while(in.hasNext())
+            {
+                in.next();
+                Node<PriorityItem<T>> newNode = new Node<>(new PriorityItem<>(in.getItem(), in.getPriority()));
+                if(tail == null)
+                    restoredHead = newNode;
+                else
+                    tail.setNext(newNode);
+                tail = newNode;
+            }
+        }
+        else
+        {
+            List<PriorityItem<T>> items = in.readAll();
+            Collections.sort(items, PriorityItem.HIGHEST_PRIORITY_FIRST);
+            for(int i = items.size() - 1; i >= 0; --i)
+            {
+                Node<PriorityItem<T>> newNode = new Node<>(items.get(i));
+                newNode.setNext(restoredHead);
+                restoredHead = newNode;
+            }
+        }
+        
+        ++modCount;
+        head = restoredHead;
+        count = in.getCount();
+    }
+    
+    
+    @Override
+    public int size()
+    {
+        return count;
+    }
+    
+    
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        /* Walk the list from head, counting nodes, as nodes past the last
+         * item are not always unlinked. */
+        return new Iterator<PriorityItem<T>>()
+        {
+            private final int expectedModCount = modCount;
+            
+            private Node<PriorityItem<T>> current = head;
+            
+            private int remaining = count;
+            
+            @Override
+            public boolean hasNext()
+            {
+                return remaining > 0;
+            }
+            
+            @Override
+            public PriorityItem<T> next()
+            {
+                if(modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if(remaining < 1)
+                    throw new NoSuchElementException();
+                
+                PriorityItem<T> entry = current.getValue();
+                current = current.getNext();
+                --remaining;
+                return entry;
+            }
+        };
+    }
+    
+    
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        /* The list is kept in priority order, so it is always listed in
+         * order. */
+        Listing listing = new Listing(out, limit);
+        Node<PriorityItem<T>> current = head;
+        for(int i = 0; i < count; ++i, current = current.getNext())
+            if(!listing.add(current.getValue()))
+                break;
+        listing.finish();
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
     }
     
     
@@ -0,0 +1,507 @@
+package queuemanager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+
+/**
+ * Implementation of the PriorityQueue ADT using a binary heap that is stable:
+ * items of equal priority are removed in the order they were added.
+ *
+ * Each entry's priority and a sequence number are packed into a single long
+ * key, the priority in the high 32 bits and the sequence number, inverted so
+ * that older entries have larger keys, in the low 32 bits. Comparing two keys
+ * then compares priorities and breaks ties by age in one primitive
+ * comparison, so the heap costs no more to maintain than
+ * PrimitiveHeapPriorityQueue, which it otherwise follows: keys and items are
+ * kept in parallel arrays and entries are moved by sliding a hole.
+ *
+ * After 2^32 adds the sequence numbers run out, and the entries stored are
+ * renumbered in order. This takes O(n log n) time but happens so rarely that
+ * its cost is negligible.
+ *
+ * @param <T> The type of things being stored.
+ */
+public class StableHeapPriorityQueue<T> implements PriorityQueue<T>
+{
+
+    /**
+     * The number of sequence numbers that fit in the low half of a key.
+     */
+    private static final long SEQUENCE_LIMIT = 1L << 32;
+
+    /**
+     * The keys of the items stored, in heap order.
+     */
+    private long [] keys;
+
+    /**
+     * The items stored. items[i] has key keys[i].
+     */
+    private Object [] items;
+
+    /**
+     * The maximum number of items the Queue can store.
+     */
+    private final int capacity;
+
+    /**
+     * The current number of items stored.
+     */
+    private int size = 0;
+
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+
+    /**
+     * The sequence number the next item added will get.
+     */
+    private long nextSequence = 0;
+
+
+    /**
+     * Create a new empty queue with the given capacity. The queue will never
+     * grow beyond this.
+     *
+     * @param capacity
+     */
+    public StableHeapPriorityQueue(int capacity)
+    {
+        this(capacity, capacity);
+    }
+
+
+    /**
+     * Create a new empty queue that grows as items are added, with no limit
+     * on the number of items it may hold.
+     */
+    public StableHeapPriorityQueue()
+    {
+        this(HeapPriorityQueue.DEFAULT_INITIAL_CAPACITY, HeapPriorityQueue.MAX_CAPACITY);
+    }
+
+
+    /**
+     * Create a new empty queue that doubles its storage whenever it fills up,
+     * until capacity items are stored.
+     *
+     * @param initialCapacity The number of items to allocate space for up front.
+     * @param capacity The maximum number of items the queue may hold.
+     */
+    public StableHeapPriorityQueue(int initialCapacity, int capacity)
+    {
+        if(initialCapacity < 0 || capacity < initialCapacity || capacity > HeapPriorityQueue.MAX_CAPACITY)
+            throw new IllegalArgumentException("Invalid capacity: " + initialCapacity + ", " + capacity);
+
+        this.capacity = capacity;
+        keys = new long[initialCapacity];
+        items = new Object[initialCapacity];
+    }
+
+
+    /**
+     * Create a copy of another queue, holding just enough storage for its
+     * items.
+     *
+     * @param other
+     */
+    private StableHeapPriorityQueue(StableHeapPriorityQueue<T> other)
+    {
+        capacity = other.size;
+        size = other.size;
+        nextSequence = other.nextSequence;
+        keys = Arrays.copyOf(other.keys, size);
+        items = Arrays.copyOf(other.items, size);
+    }
+
+
+    /**
+     * Helper method to pack a priority and a sequence number into a key.
+     *
+     * @param priority
+     * @param sequence Less than SEQUENCE_LIMIT.
+     * @return The key.
+     */
+    private static long keyOf(int priority, long sequence)
+    {
+        return ((long) priority << 32) | (SEQUENCE_LIMIT - 1 - sequence);
+    }
+
+
+    /**
+     * Helper method to unpack the priority from a key.
+     *
+     * @param key
+     * @return The priority.
+     */
+    private static int priorityOf(long key)
+    {
+        return (int) (key >> 32);
+    }
+
+
+    /**
+     * Helper method to make the key for the next item added.
+     *
+     * @param priority
+     * @return The key.
+     */
+    private long nextKey(int priority)
+    {
+        if(nextSequence == SEQUENCE_LIMIT)
+            renumber();
+        return keyOf(priority, nextSequence++);
+    }
+
+
+    /**
+     * Helper method to give the entries stored the sequence numbers 0 to
+     * size - 1, keeping their order. As the order of the keys is unchanged the
+     * heap stays valid.
+     */
+    private void renumber()
+    {
+        long [] sorted = Arrays.copyOf(keys, size);
+        Arrays.sort(sorted);
+        for(int i = 0; i < size; ++i)
+        {
+            /* The largest key, the oldest of the highest priority, is 0. */
+            int rank = size - 1 - Arrays.binarySearch(sorted, keys[i]);
+            keys[i] = keyOf(priorityOf(keys[i]), rank);
+        }
+        nextSequence = size;
+    }
+
+
+    /**
+     * Helper method to grow both arrays so that they can hold at least
+     * minLength items. They are at least doubled in size but never made
+     * larger than capacity.
+     *
+     * @param minLength The number of items that must fit.
+     */
+    private void grow(int minLength)
+    {
+        int newLength = (items.length < capacity / 2) ? items.length * 2 : capacity;
+        newLength = Math.max(Math.max(newLength, minLength), 1);
+        QueueEvents.Resize event = new QueueEvents.Resize();
+        event.begin();
+        int oldLength = items.length;
+        keys = Arrays.copyOf(keys, newLength);
+        items = Arrays.copyOf(items, newLength);
+        event.commit(this, size, oldLength, newLength);
+    }
+
+
+    /**
+     * Helper method to place an entry in the heap starting from the hole at
+     * index and moving up towards the root.
+     *
+     * @param index The index of the hole.
+     * @param key The key of the entry being placed.
+     * @param item The item being placed.
+     */
+    private void siftUp(int index, long key, Object item)
+    {
+        while(index > 0)
+        {
+            int parentIndex = (index - 1) >>> 1;
+            if(keys[parentIndex] > key)
+                break;
+
+            /* Move the parent down into the hole. */
+            keys[index] = keys[parentIndex];
+            items[index] = items[parentIndex];
+            index = parentIndex;
+        }
+        keys[index] = key;
+        items[index] = item;
+    }
+
+
+    /**
+     * Helper method to place an entry in the heap starting from the hole at
+     * index and moving down towards the leaves.
+     *
+     * @param index The index of the hole.
+     * @param key The key of the entry being placed.
+     * @param item The item being placed.
+     */
+    private void siftDown(int index, long key, Object item)
+    {
+        int half = size >>> 1;
+        while(index < half)
+        {
+            /* Find the child with the largest key. */
+            int childIndex = 2 * index + 1;
+            long childKey = keys[childIndex];
+            int rightIndex = childIndex + 1;
+            if(rightIndex < size && keys[rightIndex] > childKey)
+            {
+                childIndex = rightIndex;
+                childKey = keys[rightIndex];
+            }
+
+            if(key > childKey)
+                break;
+
+            /* Move the child up into the hole. */
+            keys[index] = childKey;
+            items[index] = items[childIndex];
+            index = childIndex;
+        }
+        keys[index] = key;
+        items[index] = item;
+    }
+
+
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return new PriorityItem<>((T) items[index], priorityOf(keys[index]));
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+
+
+    /* These methods inherit their JavaDoc comments from PriorityQueue. */
+
+    @Override
+    public void add(T item, int priority) throws QueueOverflowException
+    {
+        if(size == capacity)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        if(size == items.length)
+            grow(size + 1);
+
+        long key = nextKey(priority);
+        ++size;
+        siftUp(size - 1, key, item);
+    }
+
+
+    /**
+     * Add all of the given items to the queue, in the order given.
+     *
+     * When the batch is at least as large as the items already stored the
+     * whole heap is rebuilt bottom-up (Floyd's method) in linear time,
+     * otherwise each new item is sifted up individually.
+     *
+     * @param batch
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void addAll(Collection<PriorityItem<T>> batch) throws QueueOverflowException
+    {
+        int count = batch.size();
+        if(count > capacity - size)
+            throw new QueueOverflowException();
+
+        ++modCount;
+        if(size + count > items.length)
+            grow(size + count);
+
+        if(count < size)
+        {
+            for(PriorityItem<T> item : batch)
+            {
+                long key = nextKey(item.getPriority());
+                ++size;
+                siftUp(size - 1, key, item.getItem());
+            }
+            return;
+        }
+
+        /* Append the batch then sift down every parent, last parent first. */
+        for(PriorityItem<T> item : batch)
+        {
+            keys[size] = nextKey(item.getPriority());
+            items[size] = item.getItem();
+            ++size;
+        }
+        for(int i = (size >>> 1) - 1; i >= 0; --i)
+            siftDown(i, keys[i], items[i]);
+    }
+
+
+    @Override
+    public T head() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        return (T) items[0];
+    }
+
+
+    @Override
+    public void remove() throws QueueUnderflowException
+    {
+        if(isEmpty())
+            throw new QueueUnderflowException();
+
+        ++modCount;
+        --size;
+        long lastKey = keys[size];
+        Object lastItem = items[size];
+        items[size] = null;
+
+        /* Re-insert the last entry starting from the hole left at the root. */
+        if(size > 0)
+            siftDown(0, lastKey, lastItem);
+    }
+
+
+    /**
+     * Write every item in the queue, with its priority, to a snapshot.
+     *
+     * The heap layout does not record the order of equal priorities, so the
+     * items are written highest priority and then oldest first, by draining
+     * a copy of the heap. Restoring the snapshot keeps that order.
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        StableHeapPriorityQueue<T> copy = new StableHeapPriorityQueue<>(this);
+        out.begin(Snapshot.Order.SORTED, 0, size);
+        while(copy.size > 0)
+        {
+            out.write((T) copy.items[0], priorityOf(copy.keys[0]));
+            --copy.size;
+            if(copy.size > 0)
+                copy.siftDown(0, copy.keys[copy.size], copy.items[copy.size]);
+        }
+        out.finish();
+    }
+
+
+    /**
+     * Replace the contents of the queue with the items in a snapshot. Items
+     * of equal priority are treated as having been added in the order they
+     * are read.
+     *
+     * Sorted snapshots are already laid out as a heap and are used as they
+     * are. Anything else is heapified bottom-up in linear time.
+     *
+     * @param in
+     * @throws IOException
+     * @throws QueueOverflowException
+     */
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        int count = in.getCount();
+        if(count > capacity)
+            throw new QueueOverflowException();
+
+        /* Read into new arrays so nothing changes if reading fails. */
+        int length = Math.max(count, items.length);
+        long [] restoredKeys = new long[length];
+        Object [] restoredItems = new Object[length];
+        for(int i = 0; i < count; ++i)
+        {
+            in.next();
+            restoredKeys[i] = keyOf(in.getPriority(), i);
+            restoredItems[i] = in.getItem();
+        }
+
+        ++modCount;
+        keys = restoredKeys;
+        items = restoredItems;
+        size = count;
+        nextSequence = count;
+        if(in.getOrder() != Snapshot.Order.SORTED)
+            for(int i = (size >>> 1) - 1; i >= 0; --i)
+                siftDown(i, keys[i], items[i]);
+    }
+
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), size);
+    }
+
+
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), size);
+    }
+
+
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+            listing.addHeap(size, 2, new Listing.HeapEntries()
+            {
+                @Override
+                public long keyAt(int index)
+                {
+                    return keys[index];
+                }
+
+
+                @Override
+                public boolean addTo(Listing listing, int index) throws IOException
+                {
+                    return listing.add(items[index], priorityOf(keys[index]));
+                }
+            });
+        else
+            /* List the items in heap order. */
+            for(int i = 0; i < size; ++i)
+                if(!listing.add(items[i], priorityOf(keys[i])))
+                    break;
+        listing.finish();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
+    }
+
+
+    @Override
+    public boolean isEmpty()
+    {
+        return (size < 1);
+    }
+
+}
@@ -1,5 +1,14 @@
 package queuemanager;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+
 /**
  * Implementation of the PriorityQueue ADT using an unsorted array for storage.
  *
@@ -23,6 +32,19 @@ public class UnsortedArrayPriorityQueue<T> implements PriorityQueue<T>
      */
     private int tailIndex;
     
+    /**
+     * The index of the highest priority item, or -1 if it has to be found
+     * again. add keeps it up to date and remove forgets it, so head followed
+     * by remove only scans the array once.
+     */
+    private int highestIndex = -1;
+    
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+    
     
     /**
      * Create a new empty queue of the given size.
@@ -47,6 +69,8 @@ public class UnsortedArrayPriorityQueue<T> implements PriorityQueue<T>
     {
         if(isEmpty())
             throw new QueueUnderflowException();
+        if(highestIndex >= 0)
+            return highestIndex;
         
         /* Some less than pretty casting going on here but it's simply a loop
          * finding the index of the item with the highest priority. */
@@ -62,10 +86,112 @@ public class UnsortedArrayPriorityQueue<T> implements PriorityQueue<T>
             headIndex = (currentHeadPriority > nextItemPriority) ? headIndex : i;
         }
         
+        highestIndex = headIndex;
         return headIndex;
     }
     
     
+    /**
+     * Helper method to keep the cached index of the highest priority item up
+     * to date after an item is stored at the end of the array. Where there
+     * are ties the scan finds the lowest index, so the new item only takes
+     * over if its priority is strictly higher.
+     * 
+     * @param index The index of the new item, which is tailIndex.
+     */
+    private void noteAdded(int index)
+    {
+        if(index == 0)
+            highestIndex = 0;
+        else if(highestIndex >= 0 && ((PriorityItem<T>)storage[index]).getPriority()
+                > ((PriorityItem<T>)storage[highestIndex]).getPriority())
+            highestIndex = index;
+    }
+    
+    
+    /**
+     * Helper method to rearrange the items so that those from index first to
+     * tailIndex have the highest priorities, in no particular order.
+     * 
+     * This is a quickselect: each pass splits the range still in question
+     * into items below, equal to and above a pivot, then carries on only in
+     * the part holding index first. It takes linear time on average, and
+     * runs of equal priorities are settled in a single pass.
+     * 
+     * @param first The index that should start the highest priority items.
+     */
+    private void moveHighestToEnd(int first)
+    {
+        int low = 0;
+        int high = tailIndex;
+        while(low < high)
+        {
+            int pivot = ((PriorityItem<T>)storage[low + (high - low) / 2]).getPriority();
+            
+            /* Partition into [low, below) less than the pivot, [below, i)
+             * equal to it and (above, high] greater than it. */
+            int below = low;
+            int above = high;
+            int i = low;
+            while(i <= above)
+            {
+                int priority = ((PriorityItem<T>)storage[i]).getPriority();
+                if(priority < pivot)
+                    swap(below++, i++);
+                else if(priority > pivot)
+                    swap(i, above--);
+                else
+                    ++i;
+            }
+            
+            if(first < below)
+                high = below - 1;
+            else if(first > above)
+                low = above + 1;
+            else
+                return;
+        }
+    }
+    
+    
+    /**
+     * Helper method to swap two items in storage.
+     * 
+     * @param a
+     * @param b 
+     */
+    private void swap(int a, int b)
+    {
+        Object temp = storage[a];
+        storage[a] = storage[b];
+        storage[b] = temp;
+    }
+    
+    
+    /**
+     * Helper method to give iterators access to the entries stored.
+     *
+     * @return The storage.
+     */
+    private IndexedSpliterator.Storage<T> entries()
+    {
+        return new IndexedSpliterator.Storage<T>()
+        {
+            @Override
+            public PriorityItem<T> entryAt(int index)
+            {
+                return (PriorityItem<T>)storage[index];
+            }
+
+            @Override
+            public int modCount()
+            {
+                return modCount;
+            }
+        };
+    }
+    
+    
     /* These methods inherit their JavaDoc comments from PriorityQueue. */
     
     
@@ -77,8 +203,27 @@ public class UnsortedArrayPriorityQueue<T> implements PriorityQueue<T>
         if(tailIndex >= storage.length - 1)
             throw new QueueOverflowException();
         
+        ++modCount;
         ++tailIndex;
         storage[tailIndex] = new PriorityItem<>(item,priority);
+        noteAdded(tailIndex);
+    }
+    
+    
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        /* Check the whole batch fits then append it in one pass. */
+        if(items.size() > storage.length - 1 - tailIndex)
+            throw new QueueOverflowException();
+        
+        ++modCount;
+        for(PriorityItem<T> item : items)
+        {
+            ++tailIndex;
+            storage[tailIndex] = item;
+            noteAdded(tailIndex);
+        }
     }
     
     
@@ -92,29 +237,157 @@ public class UnsortedArrayPriorityQueue<T> implements PriorityQueue<T>
     
     @Override
     public void remove() throws QueueUnderflowException 
+    {
+        poll();
+    }
+    
+    
+    /**
+     * Remove the highest priority item from the queue and return it, finding
+     * it with a single scan at most.
+     * 
+     * @return The item that was removed.
+     * @throws QueueUnderflowException 
+     */
+    @Override
+    public T poll() throws QueueUnderflowException
     {
         /* Overwrite the highest priority item in the queue with the last
          * item in the queue effectively removing it. */
         int headIndex = findIndexOfHighestPriorityItem();
+        T item = ((PriorityItem<T>)storage[headIndex]).getItem();
+        ++modCount;
         storage[headIndex] = storage[tailIndex];
+        storage[tailIndex] = null;
         
         /* Decrement the tailIndex. */
         tailIndex--;
+        highestIndex = -1;
+        return item;
     }
     
     
+    /**
+     * Remove up to max of the highest priority items, adding them to target
+     * highest priority first.
+     * 
+     * Rather than scanning the whole array once per item, a single partial
+     * selection gathers the batch at the end of the array, where only the
+     * batch itself needs sorting and it can be dropped without moving
+     * anything else.
+     * 
+     * @param target
+     * @param max
+     * @return The number of items removed.
+     */
     @Override
-    public String toString() {
-        /* Construct a comma delimited list of items in the queue. */
-        String result = "[";
-        for (int i = 0; i <= tailIndex; ++i) {
-            if (i > 0) {
-                result = result + ", ";
-            }
-            result = result + storage[i];
+    public int drainTo(Collection<? super T> target, int max)
+    {
+        if(max < 0)
+            throw new IllegalArgumentException("Invalid batch size: " + max);
+        
+        int count = Math.min(max, tailIndex + 1);
+        if(count == 0)
+            return 0;
+        
+        ++modCount;
+        highestIndex = -1;
+        int first = tailIndex + 1 - count;
+        if(first > 0)
+            moveHighestToEnd(first);
+        List<PriorityItem<T>> batch = new ArrayList<>(count);
+        for(int i = first; i <= tailIndex; ++i)
+            batch.add((PriorityItem<T>)storage[i]);
+        Collections.sort(batch, PriorityItem.HIGHEST_PRIORITY_FIRST);
+        for(PriorityItem<T> item : batch)
+            target.add(item.getItem());
+        
+        /* Only drop the batch once it has all been handed over. */
+        Arrays.fill(storage, first, tailIndex + 1, null);
+        tailIndex = first - 1;
+        return count;
+    }
+    
+    
+    @Override
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        out.begin(Snapshot.Order.UNORDERED, 0, tailIndex + 1);
+        for(int i = 0; i <= tailIndex; ++i)
+        {
+            PriorityItem<T> item = (PriorityItem<T>)storage[i];
+            out.write(item.getItem(), item.getPriority());
         }
-        result = result + "]";
-        return result;
+        out.finish();
+    }
+    
+    
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        int count = in.getCount();
+        if(count > storage.length)
+            throw new QueueOverflowException();
+        
+        /* Any order will do, but read everything first so nothing changes if
+         * reading fails. */
+        Object [] restored = in.readAll().toArray();
+        ++modCount;
+        highestIndex = -1;
+        System.arraycopy(restored, 0, storage, 0, count);
+        for(int i = count; i <= tailIndex; ++i)
+            storage[i] = null;
+        tailIndex = count - 1;
+    }
+    
+    
+    @Override
+    public int size()
+    {
+        return tailIndex + 1;
+    }
+    
+    
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        return IndexedSpliterator.iterator(entries(), tailIndex + 1);
+    }
+    
+    
+    @Override
+    public Spliterator<PriorityItem<T>> spliterator()
+    {
+        return new IndexedSpliterator<>(entries(), tailIndex + 1);
+    }
+    
+    
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+        {
+            /* Sort a copy, leaving the stored order alone. */
+            List<PriorityItem<T>> entries = new ArrayList<>(tailIndex + 1);
+            for(int i = 0; i <= tailIndex; ++i)
+                entries.add((PriorityItem<T>)storage[i]);
+            listing.addSorted(entries);
+        }
+        else
+        {
+            for(int i = 0; i <= tailIndex; ++i)
+                if(!listing.add((PriorityItem<T>)storage[i]))
+                    break;
+        }
+        listing.finish();
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
     }
     
     
@@ -1,5 +1,13 @@
 package queuemanager;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
 /**
  * Implementation of the PriorityQueue ADT using an unsorted linked list for
  * storage.
@@ -28,6 +36,24 @@ public class UnsortedLinkedPriorityQueue<T> implements PriorityQueue<T>
      */
     private int count = 0;
     
+    /**
+     * The node before the highest priority node, or null where that is head,
+     * when highestKnown is true. add keeps it up to date and remove forgets
+     * it, so head followed by remove only walks the list once.
+     */
+    private Node<PriorityItem<T>> beforeHighest = null;
+    
+    /**
+     * Whether beforeHighest can be used, or has to be found again.
+     */
+    private boolean highestKnown = false;
+    
+    /**
+     * The number of changes made to the queue, so that iterators can tell
+     * when it has changed under them.
+     */
+    private int modCount = 0;
+    
     
     /**
      * Helper method to find the node preceding the highest priority node.
@@ -39,11 +65,17 @@ public class UnsortedLinkedPriorityQueue<T> implements PriorityQueue<T>
     {
         if(isEmpty())
             throw new QueueUnderflowException();
+        if(highestKnown)
+            return beforeHighest;
         
         /* If there is only 1 node in the linked list then head is the
          * highest priority node and the node behind head doesn't exist. */
         if(count == 1)
+        {
+            highestKnown = true;
+            beforeHighest = null;
             return null;
+        }
         
         /* The node before the highest priority node. */
         Node<PriorityItem<T>> nBHPNode = null;
@@ -73,16 +105,46 @@ public class UnsortedLinkedPriorityQueue<T> implements PriorityQueue<T>
             prevNode = prevNode.getNext();
         }
         
+        highestKnown = true;
+        beforeHighest = nBHPNode;
         return nBHPNode;
     }
     
     
+    /**
+     * Helper method to keep the cached highest priority node up to date after
+     * a node is linked onto the end of the list. Where there are ties the
+     * walk finds the first, so the new node only takes over if its priority
+     * is strictly higher.
+     * 
+     * @param prevNode The node before the new one, or null if the list was
+     * empty.
+     * @param newNode 
+     */
+    private void noteAdded(Node<PriorityItem<T>> prevNode, Node<PriorityItem<T>> newNode)
+    {
+        if(prevNode == null)
+        {
+            highestKnown = true;
+            beforeHighest = null;
+            return;
+        }
+        if(!highestKnown)
+            return;
+        
+        Node<PriorityItem<T>> highest = (beforeHighest == null) ? head : beforeHighest.getNext();
+        if(newNode.getValue().getPriority() > highest.getValue().getPriority())
+            beforeHighest = prevNode;
+    }
+    
+    
     /* These methods inherit their JavaDoc comments from PriorityQueue. */
     
     
     @Override
     public void add(T item, int priority) throws QueueOverflowException
     {
+        ++modCount;
         /* Remember the tail */
         Node<PriorityItem<T>> prevTail = tail;
         
@@ -92,15 +154,65 @@ public class UnsortedLinkedPriorityQueue<T> implements PriorityQueue<T>
         
         /* Link the previous tail to the new node when appropriate. */
         if(count<1)
+        {
             head = tail;
+            noteAdded(null, tail);
+        }
         else
+        {
             prevTail.setNext(tail);
+            noteAdded(prevTail, tail);
+        }
         
         ++count;
         
     }
 
     
+    @Override
+    public void addAll(Collection<PriorityItem<T>> items) throws QueueOverflowException
+    {
+        if(items.isEmpty())
+            return;
+        
+        ++modCount;
+        /* Build the batch into a chain of its own. */
+        Node<PriorityItem<T>> first = null;
+        Node<PriorityItem<T>> last = null;
+        for(PriorityItem<T> item : items)
+        {
+            Node<PriorityItem<T>> newNode = new Node<>(item);
+            if(first == null)
+                first = newNode;
+            else
+                last.setNext(newNode);
+            last = newNode;
+        }
+        
+        /* Then link the whole chain onto the end of the list at once. */
+        Node<PriorityItem<T>> prevNode = null;
+        if(count<1)
+            head = first;
+        else
+        {
+            tail.setNext(first);
+            prevNode = tail;
+        }
+        tail = last;
+        
+        /* Check the new nodes against the cached highest priority node. */
+        for(Node<PriorityItem<T>> node = first; ; node = node.getNext())
+        {
+            noteAdded(prevNode, node);
+            if(node == last)
+                break;
+            prevNode = node;
+        }
+        
+        count += items.size();
+    }
+
+    
     @Override
     public T head() throws QueueUnderflowException
     {
@@ -116,25 +228,43 @@ public class UnsortedLinkedPriorityQueue<T> implements PriorityQueue<T>
     
     @Override
     public void remove() throws QueueUnderflowException
+    {
+        poll();
+    }
+    
+    
+    /**
+     * Remove the highest priority item from the queue and return it, finding
+     * it with a single walk of the list at most.
+     * 
+     * @return The item that was removed.
+     * @throws QueueUnderflowException 
+     */
+    @Override
+    public T poll() throws QueueUnderflowException
     {
         Node<PriorityItem<T>> prevNode = findNodeBeforeHighestPriorityNode();
+        Node<PriorityItem<T>> removed = (prevNode == null) ? head : prevNode.getNext();
         
+        ++modCount;
+        highestKnown = false;
+        beforeHighest = null;
         /* Since there was no exception thrown we know there is at least one
          * item in the list. */
         count--;
         
         /* If there was only one item in the list we're done */
         if(count == 0)
-            return;
+            return removed.getValue().getItem();
         
         /* If we are removing head we can just set head to it's next node. */
         if(prevNode == null)
         {
             head = head.getNext();
-            return;
+            return removed.getValue().getItem();
         }
         
-        Node<PriorityItem<T>> nextNode = prevNode.getNext().getNext();
+        Node<PriorityItem<T>> nextNode = removed.getNext();
         
         /* If removing tail we can just set tail to the node before it.
          * otherwise we can link the node before the one being removed to the
@@ -143,23 +273,122 @@ public class UnsortedLinkedPriorityQueue<T> implements PriorityQueue<T>
             tail = prevNode;
         else
             prevNode.setNext(nextNode);
+        return removed.getValue().getItem();
     }
     
     
     @Override
-    public String toString() {
-        /* Construct a comma delimited list of items in the queue. */
-        String result = "[";
+    public void snapshot(Snapshot.Writer<T> out) throws IOException
+    {
+        out.begin(Snapshot.Order.UNORDERED, 0, count);
         Node<PriorityItem<T>> current = head;
-        for (int i = 0; i < count; ++i) {
-            if (i > 0) {
-                result = result + ", ";
-            }
-            result = result + current.getValue();
+        for(int i = 0; i < count; ++i)
+        {
+            out.write(current.getValue().getItem(), current.getValue().getPriority());
             current = current.getNext();
         }
-        result = result + "]";
-        return result;
+        out.finish();
+    }
+    
+    
+    @Override
+    public void restore(Snapshot.Reader<T> in) throws IOException, QueueOverflowException
+    {
+        /* Any order will do, but build a new list so nothing changes if
+         * reading fails. */
+        Node<PriorityItem<T>> first = null;
+        Node<PriorityItem<T>> last = null;
+        while(in.hasNext())
+        {
+            in.next();
+            Node<PriorityItem<T>> newNode = new Node<>(new PriorityItem<>(in.getItem(), in.getPriority()));
+            if(first == null)
+                first = newNode;
+            else
+                last.setNext(newNode);
+            last = newNode;
+        }
+        
+        ++modCount;
+        highestKnown = false;
+        beforeHighest = null;
+        head = first;
+        tail = last;
+        count = in.getCount();
+    }
+    
+    
+    @Override
+    public int size()
+    {
+        return count;
+    }
+    
+    
+    @Override
+    public Iterator<PriorityItem<T>> iterator()
+    {
+        /* Walk the list from head, counting nodes, as nodes past the last
+         * item are not always unlinked. */
+        return new Iterator<PriorityItem<T>>()
+        {
+            private final int expectedModCount = modCount;
+            
+            private Node<PriorityItem<T>> current = head;
+            
+            private int remaining = count;
+            
+            @Override
+            public boolean hasNext()
+            {
+                return remaining > 0;
+            }
+            
+            @Override
+            public PriorityItem<T> next()
+            {
+                if(modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if(remaining < 1)
+                    throw new NoSuchElementException();
+                
+                PriorityItem<T> entry = current.getValue();
+                current = current.getNext();
+                --remaining;
+                return entry;
+            }
+        };
+    }
+    
+    
+    @Override
+    public void writeTo(Appendable out, int limit, boolean inPriorityOrder) throws IOException
+    {
+        Listing listing = new Listing(out, limit);
+        if(inPriorityOrder)
+        {
+            /* Sort a copy, leaving the list alone. */
+            List<PriorityItem<T>> entries = new ArrayList<>(count);
+            Node<PriorityItem<T>> current = head;
+            for(int i = 0; i < count; ++i, current = current.getNext())
+                entries.add(current.getValue());
+            listing.addSorted(entries);
+        }
+        else
+        {
+            Node<PriorityItem<T>> current = head;
+            for(int i = 0; i < count; ++i, current = current.getNext())
+                if(!listing.add(current.getValue()))
+                    break;
+        }
+        listing.finish();
+    }
+    
+    
+    @Override
+    public String toString()
+    {
+        return Listing.toString(this);
     }
     
     
@@ -0,0 +1,27 @@
+package queuemanager;
+
+/**
+ * Implemented by queues that count the comparisons between priorities and
+ * the moves of entries they make while keeping their items in order, so that
+ * InstrumentedPriorityQueue can report them.
+ *
+ * The counts only ever grow, from when the queue was created. They are
+ * plain fields, with the same thread safety as the rest of the queue.
+ */
+public interface WorkCounting {
+
+    /**
+     * The number of times one priority has been compared with another.
+     *
+     * @return The count.
+     */
+    public long getComparisons();
+
+    /**
+     * The number of times an entry has been swapped with, or moved into the
+     * place of, another while sifting.
+     *
+     * @return The count.
+     */
+    public long getSwaps();
+}
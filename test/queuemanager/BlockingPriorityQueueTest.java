@@ -0,0 +1,123 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the BlockingPriorityQueue wrapper, wrapping a fixed
+ * capacity HeapPriorityQueue.
+ */
+public class BlockingPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new BlockingPriorityQueue<>(new HeapPriorityQueue<String>(limit));
+    }
+    
+    
+    @Override
+    protected boolean hasFailFastIterators()
+    {
+        return false;
+    }
+    
+    
+    /**
+     * Tests that take waits for an item added by another thread.
+     */
+    @Test
+    public void shouldWaitForItemWhenTakeCalledOnEmptyQueue() throws InterruptedException
+    {
+        final BlockingPriorityQueue<String> queue = (BlockingPriorityQueue<String>) q;
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                    queue.put(names[0], priorities[0]);
+                } catch(InterruptedException e) {}
+            }
+        });
+        producer.start();
+        
+        assertEquals(names[0], queue.take());
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+    
+    
+    /**
+     * Tests that put waits for space when the wrapped queue is full.
+     */
+    @Test
+    public void shouldWaitForSpaceWhenPutCalledOnFullQueue() throws Exception
+    {
+        final BlockingPriorityQueue<String> queue = (BlockingPriorityQueue<String>) q;
+        for(int i = 0; i < limit; ++i)
+            queue.put(names[i], priorities[i]);
+        
+        Thread consumer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                    queue.take();
+                } catch(InterruptedException e) {}
+            }
+        });
+        consumer.start();
+        
+        /* Blocks until the consumer has taken the highest priority item. */
+        queue.put("Some Name", 0);
+        consumer.join();
+        assertEquals(namesSortedByPriority[1], queue.head());
+    }
+    
+    
+    /**
+     * Tests that a timed poll throws an exception when nothing arrives.
+     */
+    @Test
+    public void shouldThrowExceptionWhenTimedPollExpires() throws InterruptedException
+    {
+        BlockingPriorityQueue<String> queue = (BlockingPriorityQueue<String>) q;
+        try
+        {
+            queue.poll(10, TimeUnit.MILLISECONDS);
+            fail("No Exception received when polling an empty queue");
+        } catch(QueueUnderflowException e) {}
+    }
+    
+    
+    /**
+     * Tests that a timed offer throws an exception when no space appears.
+     */
+    @Test
+    public void shouldThrowExceptionWhenTimedOfferExpires() throws InterruptedException
+    {
+        BlockingPriorityQueue<String> queue = (BlockingPriorityQueue<String>) q;
+        for(int i = 0; i < limit; ++i)
+            queue.put(names[i], priorities[i]);
+        
+        try
+        {
+            queue.offer("Some Name", 420, 10, TimeUnit.MILLISECONDS);
+            fail("No Exception received when offering to a full queue");
+        } catch(QueueOverflowException e) {}
+    }
+    
+}
@@ -0,0 +1,167 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the BucketPriorityQueue ADT.
+ */
+public class BucketPriorityQueueTest extends PriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new BucketPriorityQueue<String>(0, 1023);
+    }
+    
+    
+    /**
+     * Tests that items of equal priority are removed in the order they were
+     * added, including after their bucket has had to grow.
+     */
+    @Test
+    public void shouldReturnEqualPriorityItemsInInsertionOrder()
+    {
+        try
+        {
+            for(int i = 0; i < 100; ++i)
+            {
+                q.add(i, 7);
+                /* Remove some as we go so the ring buffer wraps around. */
+                if(i % 3 == 0)
+                {
+                    assertEquals(i / 3, q.head());
+                    q.remove();
+                }
+            }
+            for(int i = 34; i < 100; ++i)
+            {
+                assertEquals(i, q.head());
+                q.remove();
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        assertTrue(q.isEmpty());
+    }
+    
+    
+    /**
+     * Tests that a priority outside the range throws an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenPriorityOutOfRange() throws QueueOverflowException
+    {
+        q.add("Some Name", 1024);
+    }
+    
+    
+    /**
+     * Tests a range needing three bitmap levels, including negative
+     * priorities, against an array of counts per priority.
+     */
+    @Test
+    public void shouldMatchReferenceWithWideRange()
+    {
+        int min = -100000;
+        int max = 200000;
+        BucketPriorityQueue<Integer> queue = new BucketPriorityQueue<>(min, max);
+        int[] counts = new int[max - min + 1];
+        Random random = new Random(1);
+        try
+        {
+            for(int step = 0; step < 20000; ++step)
+            {
+                if(random.nextInt(3) > 0)
+                {
+                    int priority = min + random.nextInt(counts.length);
+                    queue.add(priority, priority);
+                    counts[priority - min]++;
+                }
+                else if(!queue.isEmpty())
+                {
+                    int highest = counts.length - 1;
+                    while(counts[highest] == 0)
+                        --highest;
+                    assertEquals(highest + min, (int) queue.head());
+                    queue.remove();
+                    counts[highest]--;
+                }
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+    
+    /**
+     * Tests that a few items spread across a wide range, at the edges of
+     * bitmap words, are iterated, listed and snapshotted in priority order.
+     */
+    @Test
+    public void shouldVisitSparseItemsInPriorityOrder() throws IOException
+    {
+        int[] sparse = {-300000, -1, 0, 63, 64, 4095, 4096, 262143, 262144, 299999};
+        q = new BucketPriorityQueue<String>(-300000, 300000);
+        try
+        {
+            for(int i = 0; i < sparse.length; ++i)
+            {
+                q.add("p" + sparse[i], sparse[i]);
+                if(i % 3 == 0)
+                    q.add("again" + sparse[i], sparse[i]);
+            }
+            assertEquals(expected(sparse), q.toString());
+            
+            int visited = 0;
+            int last = Integer.MAX_VALUE;
+            for(PriorityItem<String> item : (BucketPriorityQueue<String>) q)
+            {
+                assertTrue(item.getPriority() <= last);
+                last = item.getPriority();
+                ++visited;
+            }
+            assertEquals(q.size(), visited);
+            
+            byte[] snapshot = snapshotOf(q);
+            q = new BucketPriorityQueue<String>(-300000, 300000);
+            restoreFrom(snapshot);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        assertEquals(expected(sparse), q.toString());
+    }
+    
+    
+    /**
+     * Helper method to list the sparse test items as toString would.
+     *
+     * @param sparse
+     * @return The expected listing.
+     */
+    private static String expected(int[] sparse)
+    {
+        StringBuilder expected = new StringBuilder("[");
+        for(int i = sparse.length - 1; i >= 0; --i)
+        {
+            expected.append("(p").append(sparse[i]).append(", ").append(sparse[i]).append("), ");
+            if(i % 3 == 0)
+                expected.append("(again").append(sparse[i]).append(", ").append(sparse[i]).append("), ");
+        }
+        expected.setLength(expected.length() - 2);
+        return expected.append(']').toString();
+    }
+    
+}
@@ -0,0 +1,187 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for CommandBatch, running against a HeapPriorityQueue.
+ */
+public class CommandBatchTest
+{
+
+    private static final int CAPACITY = 4;
+
+    private PriorityQueue<Person> queue;
+
+    private CommandBatch batch;
+
+
+    /**
+     * This method is run before each test and creates a new batch and queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        queue = new HeapPriorityQueue<>(CAPACITY);
+        batch = new CommandBatch(queue);
+    }
+
+
+    /**
+     * Helper method to make a stream of commands.
+     *
+     * @param text
+     * @return A stream of the text.
+     */
+    private static InputStream streamOf(String text)
+    {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Tests that each command is run and counted, with overflows and
+     * underflows counted as failures.
+     */
+    @Test
+    public void shouldRunAndCountEachCommand() throws IOException, QueueUnderflowException
+    {
+        assertTrue(batch.run(streamOf("R\nA Ada Lovelace 7\na Alan 12\nA Grace -3\nH\nE\nP\nP 2\n"
+            + "A Edsger 5\nA Barbara 1\nR\n")));
+
+        assertEquals(5, batch.getCount(CommandBatch.Command.ADD));
+        assertEquals(1, batch.getFailures(CommandBatch.Command.ADD));
+        assertEquals(2, batch.getCount(CommandBatch.Command.REMOVE));
+        assertEquals(1, batch.getFailures(CommandBatch.Command.REMOVE));
+        assertEquals(1, batch.getCount(CommandBatch.Command.HEAD));
+        assertEquals(1, batch.getCount(CommandBatch.Command.EMPTY));
+        assertEquals(2, batch.getCount(CommandBatch.Command.PRINT));
+        assertEquals(2, batch.getLatency(CommandBatch.Command.PRINT).getCount());
+        assertEquals(0, batch.getInvalidCount());
+        assertEquals(11, batch.getLineCount());
+
+        assertEquals(3, queue.size());
+        assertEquals("Ada Lovelace", queue.poll().getName());
+        assertEquals("Edsger", queue.poll().getName());
+        assertEquals("Grace", queue.poll().getName());
+    }
+
+
+    /**
+     * Tests that lines split across reads, longer than the buffer, or ending
+     * in carriage returns are parsed whole, and that blank lines are skipped.
+     */
+    @Test
+    public void shouldParseLinesSplitAcrossReads() throws IOException, QueueUnderflowException
+    {
+        StringBuilder longName = new StringBuilder();
+        for(int i = 0; i < 100000; ++i)
+            longName.append((char) ('a' + i % 26));
+        final byte [] text = ("A " + longName + " 9\r\n\r\nA Tim 4\r\nA Tom 6").getBytes(StandardCharsets.UTF_8);
+
+        /* Hands over at most seven bytes at a time. */
+        InputStream trickle = new ByteArrayInputStream(text)
+        {
+            @Override
+            public synchronized int read(byte [] b, int off, int len)
+            {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        assertTrue(batch.run(trickle));
+
+        assertEquals(3, batch.getCount(CommandBatch.Command.ADD));
+        assertEquals(4, batch.getLineCount());
+        assertEquals(longName.toString(), queue.poll().getName());
+        assertEquals("Tom", queue.poll().getName());
+        assertEquals("Tim", queue.poll().getName());
+    }
+
+
+    /**
+     * Tests that malformed lines are counted as invalid and not run.
+     */
+    @Test
+    public void shouldCountInvalidLines() throws IOException
+    {
+        assertTrue(batch.run(streamOf("A Nobody\nA Ann x\nA Ann 99999999999\nHX\nZ\nP -1\nqq\nA Ann 2\n")));
+
+        assertEquals(7, batch.getInvalidCount());
+        assertEquals(1, batch.getCount(CommandBatch.Command.ADD));
+        assertEquals(0, batch.getCount(CommandBatch.Command.HEAD));
+        assertEquals(1, queue.size());
+
+        StringBuilder summary = new StringBuilder();
+        batch.writeSummary(summary);
+        assertTrue(summary.toString().contains("7 invalid lines, the first on line 1"));
+    }
+
+
+    /**
+     * Tests that Q ends the batch and that nothing is run after it.
+     */
+    @Test
+    public void shouldStopAtQuit() throws IOException
+    {
+        assertFalse(batch.run(streamOf("A Ann 2\nQ\nA Bob 3\n")));
+        assertFalse(batch.run(streamOf("A Cat 4\n")));
+
+        assertEquals(1, queue.size());
+        assertEquals(1, batch.getCount(CommandBatch.Command.ADD));
+
+        StringBuilder summary = new StringBuilder();
+        batch.writeSummary(summary);
+        assertTrue(summary.toString().startsWith("1 commands from 2 lines in "));
+        assertTrue(summary.toString().contains("\nadd "));
+        assertFalse(summary.toString().contains("\nhead "));
+    }
+
+
+    /**
+     * Tests that the summary is written the same way whatever the default
+     * locale, with points rather than commas before decimals.
+     */
+    @Test
+    public void shouldWriteSummaryIndependentOfLocale() throws IOException
+    {
+        Locale original = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try
+        {
+            batch.run(streamOf("A Ann 2\nH\nP\n"));
+            StringBuilder summary = new StringBuilder();
+            batch.writeSummary(summary);
+            assertTrue(summary.toString().matches("(?s)3 commands from 3 lines in \\d+\\.\\d{3} s, .*"));
+            assertFalse(summary.toString().matches("(?s).*\\d,\\d.*"));
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+
+    /**
+     * Tests that every implementation code gives a queue and that an unknown
+     * one is refused.
+     */
+    @Test
+    public void shouldCreateEachImplementation()
+    {
+        for(String code : new String[] { "SA", "ua", "sl", "ul", "h", "ph", "st", "pa", "cs", "mq", "rh", "D4" })
+            assertTrue(code, CommandBatch.createQueue(code, CAPACITY).isEmpty());
+        try
+        {
+            CommandBatch.createQueue("xx", CAPACITY);
+            fail("IllegalArgumentException not received for an unknown implementation");
+        } catch(IllegalArgumentException e) {
+            /* Expected. */
+        }
+    }
+
+}
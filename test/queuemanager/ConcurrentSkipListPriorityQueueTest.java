@@ -0,0 +1,116 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the ConcurrentSkipListPriorityQueue
+ * ADT.
+ */
+public class ConcurrentSkipListPriorityQueueTest extends PriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new ConcurrentSkipListPriorityQueue<String>();
+    }
+    
+    
+    @Override
+    protected boolean hasFailFastIterators()
+    {
+        return false;
+    }
+    
+    
+    /**
+     * Tests that items of equal priority are removed in the order they were
+     * added.
+     */
+    @Test
+    public void shouldReturnEqualPriorityItemsInInsertionOrder()
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], 1);
+            
+            for(int i = 0; i < limit; ++i)
+            {
+                assertEquals(names[i], q.head());
+                q.remove();
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+    
+    /**
+     * Tests that every item added by concurrent producers is polled exactly
+     * once by concurrent consumers.
+     */
+    @Test
+    public void shouldPollEveryItemExactlyOnceWithConcurrentProducersAndConsumers() throws InterruptedException
+    {
+        final int threads = 4;
+        final int perThread = 10000;
+        final ConcurrentSkipListPriorityQueue<Integer> queue = new ConcurrentSkipListPriorityQueue<>();
+        final AtomicIntegerArray seen = new AtomicIntegerArray(threads * perThread);
+        
+        Thread[] workers = new Thread[threads * 2];
+        for(int t = 0; t < threads; ++t)
+        {
+            final int base = t * perThread;
+            workers[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for(int i = 0; i < perThread; ++i)
+                        try
+                        {
+                            queue.add(base + i, (base + i) % 97);
+                        } catch(QueueOverflowException e) {
+                            throw new AssertionError(e);
+                        }
+                }
+            });
+            workers[threads + t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int taken = 0;
+                    while(taken < perThread)
+                        try
+                        {
+                            seen.incrementAndGet(queue.poll());
+                            ++taken;
+                        } catch(QueueUnderflowException e) {
+                            Thread.yield();
+                        }
+                }
+            });
+        }
+        
+        for(Thread worker : workers)
+            worker.start();
+        for(Thread worker : workers)
+            worker.join();
+        
+        assertTrue(queue.isEmpty());
+        for(int i = 0; i < seen.length(); ++i)
+            assertEquals(1, seen.get(i));
+    }
+    
+}
@@ -0,0 +1,118 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the DaryHeapPriorityQueue ADT.
+ */
+public class DaryHeapPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new DaryHeapPriorityQueue(limit);
+    }
+    
+    
+    /**
+     * Tests that heaps of several arities return items in priority order.
+     */
+    @Test
+    public void shouldRemoveItemsInPriorityOrderForEachArity()
+    {
+        int[] arities = {2, 3, 4, 8, 16};
+        for(int arity : arities)
+        {
+            q = new DaryHeapPriorityQueue<Integer>(1, 2000, arity);
+            try
+            {
+                for(int i = 0; i < 2000; ++i)
+                    q.add(i, (i * 7919) % 2000);
+                
+                for(int expected = 1999; expected >= 0; --expected)
+                {
+                    assertEquals((expected * 1679) % 2000, q.head());
+                    q.remove();
+                }
+            } catch(QueueOverflowException e) {
+                fail("QueueOverflowException received when adding to queue");
+            } catch(QueueUnderflowException e) {
+                fail("QueueUnderflowException received when removing from a queue that is not empty");
+            }
+            assertTrue(q.isEmpty());
+        }
+    }
+    
+    
+    /**
+     * Tests that heaps of several arities list their highest priority items
+     * in order.
+     */
+    @Test
+    public void shouldWriteFirstItemsInPriorityOrderForEachArity() throws IOException
+    {
+        int[] arities = {2, 3, 4, 8, 16};
+        for(int arity : arities)
+        {
+            q = new DaryHeapPriorityQueue<Integer>(1, 2000, arity);
+            try
+            {
+                for(int i = 0; i < 2000; ++i)
+                    q.add(i, (i * 7919) % 2000);
+            } catch(QueueOverflowException e) {
+                fail("QueueOverflowException received when adding to queue");
+            }
+            
+            StringBuilder expected = new StringBuilder("[");
+            for(int priority = 1999; priority > 1989; --priority)
+                expected.append('(').append((priority * 1679) % 2000).append(", ").append(priority).append("), ");
+            expected.append("...]");
+            
+            StringBuilder result = new StringBuilder();
+            q.writeTo(result, 10, true);
+            assertEquals(expected.toString(), result.toString());
+        }
+    }
+    
+    
+    /**
+     * Tests that a heap too wide for the snapshot header can still be saved
+     * and restored.
+     */
+    @Test
+    public void shouldRestoreSnapshotOfHeapTooWideForHeader() throws IOException
+    {
+        q = new DaryHeapPriorityQueue<String>(limit, Snapshot.MAX_ARITY + 1);
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+            byte[] snapshot = snapshotOf(q);
+            
+            q = new DaryHeapPriorityQueue<String>(limit, Snapshot.MAX_ARITY + 1);
+            restoreFrom(snapshot);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        assertRemovesInPriorityOrder();
+    }
+    
+    
+    /**
+     * Tests that an arity below 2 is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenArityLessThanTwo()
+    {
+        new DaryHeapPriorityQueue<String>(limit, 1);
+    }
+    
+}
@@ -0,0 +1,326 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the DurableHeapPriorityQueue ADT.
+ *
+ * A crash is simulated by copying the files of a queue that is still open to
+ * another directory, as a crash would leave them, and opening a second queue
+ * on the copy. The second sees only what the first had committed.
+ */
+public class DurableHeapPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+
+    /**
+     * The directory holding the queue's files.
+     */
+    private Path directory;
+
+    /**
+     * Every directory made by the test, including copies.
+     */
+    private final List<Path> directories = new ArrayList<>();
+
+
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("queue");
+        directories.add(directory);
+        q = new DurableHeapPriorityQueue<>(directory, limit, OffHeapPriorityQueueTest.NAMES);
+    }
+
+
+    /**
+     * This method is run after each test and deletes the queue's files.
+     */
+    @After
+    public void tearDown() throws IOException
+    {
+        ((DurableHeapPriorityQueue<Object>) q).close();
+        for(Path made : directories)
+        {
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(made))
+            {
+                for(Path file : files)
+                    Files.delete(file);
+            }
+            Files.delete(made);
+        }
+    }
+
+
+    /**
+     * Helper method to open another queue on the test directory.
+     *
+     * @param policy
+     * @param groupSize
+     * @return The queue.
+     */
+    private DurableHeapPriorityQueue<Object> reopen(DurableHeapPriorityQueue.SyncPolicy policy, int groupSize)
+        throws IOException
+    {
+        return new DurableHeapPriorityQueue<>(directory, limit, OffHeapPriorityQueueTest.NAMES, policy, groupSize);
+    }
+
+
+    /**
+     * Helper method to simulate a crash: the files of a queue are copied as
+     * they are, then the queue is closed, and another queue is opened on the
+     * copy.
+     *
+     * @param crashed The queue that crashes.
+     * @param policy
+     * @param groupSize
+     * @return The queue opened on the copy.
+     */
+    private DurableHeapPriorityQueue<Object> crash(DurableHeapPriorityQueue<Object> crashed,
+        DurableHeapPriorityQueue.SyncPolicy policy, int groupSize) throws IOException
+    {
+        Path copy = Files.createTempDirectory("crashed");
+        directories.add(copy);
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+        {
+            for(Path file : files)
+                Files.copy(file, copy.resolve(file.getFileName()));
+        }
+        crashed.close();
+        return new DurableHeapPriorityQueue<>(copy, limit, OffHeapPriorityQueueTest.NAMES, policy, groupSize);
+    }
+
+
+    /**
+     * Tests that every item is still there, in order, after the queue is
+     * closed and opened again.
+     */
+    @Test
+    public void shouldRestoreItemsWhenReopened() throws IOException
+    {
+        try
+        {
+            q.addAll(batchOf(0, limit));
+            q.remove();
+            ((DurableHeapPriorityQueue<Object>) q).close();
+            q = reopen(DurableHeapPriorityQueue.SyncPolicy.GROUP, 8);
+
+            for(int i = 1; i < limit; ++i)
+            {
+                assertEquals(namesSortedByPriority[i], q.head());
+                q.remove();
+            }
+            assertTrue(q.isEmpty());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a non-empty queue");
+        }
+    }
+
+
+    /**
+     * Tests that every change is recovered from the log after a crash when
+     * each is forced to disk.
+     */
+    @Test
+    public void shouldRecoverEveryChangeAfterCrashWhenSyncingAlways() throws IOException
+    {
+        ((DurableHeapPriorityQueue<Object>) q).close();
+        DurableHeapPriorityQueue<Object> crashed = reopen(DurableHeapPriorityQueue.SyncPolicy.ALWAYS, 1);
+        try
+        {
+            for(int i = 0; i < 10; ++i)
+                crashed.add(names[i], priorities[i]);
+            crashed.checkpoint();
+            for(int i = 10; i < limit; ++i)
+                crashed.add(names[i], priorities[i]);
+            crashed.remove();
+            String expected = crashed.toString();
+
+            q = crash(crashed, DurableHeapPriorityQueue.SyncPolicy.ALWAYS, 1);
+            assertEquals(expected, q.toString());
+            for(int i = 1; i < limit; ++i)
+            {
+                assertEquals(namesSortedByPriority[i], q.head());
+                q.remove();
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a non-empty queue");
+        }
+    }
+
+
+    /**
+     * Tests that only committed groups are recovered after a crash.
+     */
+    @Test
+    public void shouldLoseUncommittedGroupAfterCrash() throws IOException
+    {
+        ((DurableHeapPriorityQueue<Object>) q).close();
+        DurableHeapPriorityQueue<Object> crashed = reopen(DurableHeapPriorityQueue.SyncPolicy.GROUP, 100);
+        try
+        {
+            crashed.add("Low", 1);
+            crashed.add("High", 3);
+            crashed.sync();
+            crashed.add("Highest", 5);
+
+            q = crash(crashed, DurableHeapPriorityQueue.SyncPolicy.GROUP, 100);
+            assertEquals("High", q.head());
+            q.remove();
+            assertEquals("Low", q.head());
+            q.remove();
+            assertTrue(q.isEmpty());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a non-empty queue");
+        }
+    }
+
+
+    /**
+     * Tests that opening a queue with a different capacity than it was
+     * created with is rejected.
+     */
+    @Test
+    public void shouldThrowExceptionWhenCapacityDiffers() throws IOException
+    {
+        try
+        {
+            new DurableHeapPriorityQueue<>(directory, limit + 1, OffHeapPriorityQueueTest.NAMES);
+            fail("No Exception received when opening a queue with a different capacity");
+        } catch(IOException e) {}
+    }
+
+
+    /**
+     * Tests that a batch drained with drainTo is recovered from the log after
+     * a crash.
+     */
+    @Test
+    public void shouldRecoverDrainedBatchAfterCrash() throws IOException
+    {
+        ((DurableHeapPriorityQueue<Object>) q).close();
+        DurableHeapPriorityQueue<Object> crashed = reopen(DurableHeapPriorityQueue.SyncPolicy.ALWAYS, 1);
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                crashed.add(names[i], priorities[i]);
+            crashed.checkpoint();
+            assertEquals(10, crashed.removeBatch(10).size());
+            String expected = crashed.toString();
+
+            q = crash(crashed, DurableHeapPriorityQueue.SyncPolicy.ALWAYS, 1);
+            assertEquals(expected, q.toString());
+            for(int i = 10; i < limit; ++i)
+            {
+                assertEquals(namesSortedByPriority[i], q.head());
+                q.remove();
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a non-empty queue");
+        }
+    }
+
+
+
+    /**
+     * Tests that an add or batch whose item cannot be encoded is refused
+     * without changing the queue or its log.
+     */
+    @Test
+    public void shouldLeaveQueueUnchangedWhenItemCannotBeLogged() throws IOException
+    {
+        ((DurableHeapPriorityQueue<Object>) q).close();
+        DurableHeapPriorityQueue<Object> crashed = reopen(DurableHeapPriorityQueue.SyncPolicy.ALWAYS, 1);
+        Object unwritable = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new IllegalStateException("Cannot be written");
+            }
+        };
+        try
+        {
+            for(int i = 0; i < 5; ++i)
+                crashed.add(names[i], priorities[i]);
+            String expected = crashed.toString();
+
+            try
+            {
+                crashed.add(unwritable, 1);
+                fail("IllegalStateException not received when adding an item that cannot be written");
+            } catch(IllegalStateException e) {
+                /* Expected. */
+            }
+            List<PriorityItem<Object>> batch = new ArrayList<>();
+            for(int i = 5; i < 10; ++i)
+                batch.add(new PriorityItem<Object>(names[i], priorities[i]));
+            batch.add(new PriorityItem<>(unwritable, 1));
+            try
+            {
+                crashed.addAll(batch);
+                fail("IllegalStateException not received when adding an item that cannot be written");
+            } catch(IllegalStateException e) {
+                /* Expected. */
+            }
+            assertEquals(expected, crashed.toString());
+
+            crashed.add(names[5], priorities[5]);
+            expected = crashed.toString();
+            q = crash(crashed, DurableHeapPriorityQueue.SyncPolicy.ALWAYS, 1);
+            assertEquals(expected, q.toString());
+            assertEquals(6, q.size());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+    }
+
+
+    /**
+     * Tests that a queue reopened after a checkpoint reads the checkpoint in
+     * place and still keeps it intact when it is changed and crashes.
+     */
+    @Test
+    public void shouldKeepCheckpointWhenChangedAfterReopening() throws IOException
+    {
+        try
+        {
+            q.addAll(batchOf(0, limit));
+            ((DurableHeapPriorityQueue<Object>) q).close();
+            DurableHeapPriorityQueue<Object> crashed = reopen(DurableHeapPriorityQueue.SyncPolicy.GROUP, 100);
+            q = crashed;
+            for(int i = 0; i < 5; ++i)
+                crashed.remove();
+
+            /* Nothing was committed, so the copy is the checkpoint. */
+            q = crash(crashed, DurableHeapPriorityQueue.SyncPolicy.GROUP, 100);
+            assertEquals(limit, q.size());
+            assertRemovesInPriorityOrder();
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a non-empty queue");
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package queuemanager;
 
+import java.io.IOException;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -48,4 +49,56 @@ public abstract class FixedCapacityPriorityQueueTestBase extends PriorityQueueTe
         }catch(QueueOverflowException e){}
     }
     
+    
+    /**
+     * Tests that addAll throws an exception, and adds nothing, when the batch
+     * will not fit in the queue.
+     */
+    @Test
+    public void shouldThrowExceptionWhenAddAllOverfillsQueue()
+    {
+        try
+        {
+            q.add("Some Name", 420);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        try
+        {
+            q.addAll(batchOf(0, limit));
+            fail("No Exception received when adding more items than will fit");
+        } catch(QueueOverflowException e) {}
+        
+        /* Only the item added first should be in the queue. */
+        assertEquals("[(Some Name, 420)]", q.toString());
+    }
+    
+    
+    /**
+     * Tests that restoring a snapshot with more items than will fit throws an
+     * exception and leaves the queue unchanged.
+     */
+    @Test
+    public void shouldThrowExceptionWhenSnapshotOverfillsQueue() throws IOException
+    {
+        HeapPriorityQueue<String> larger = new HeapPriorityQueue<>();
+        try
+        {
+            larger.addAll(batchOf(0, limit));
+            larger.add("Some Name", 420);
+            q.add("Some Name", 420);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        try
+        {
+            restoreFrom(snapshotOf(larger));
+            fail("No Exception received when restoring more items than will fit");
+        } catch(QueueOverflowException e) {}
+        
+        assertEquals("[(Some Name, 420)]", q.toString());
+    }
+    
 }
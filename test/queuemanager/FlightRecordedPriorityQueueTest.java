@@ -0,0 +1,218 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the FlightRecordedPriorityQueue wrapper, wrapping a fixed
+ * capacity HeapPriorityQueue.
+ */
+public class FlightRecordedPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new FlightRecordedPriorityQueue<>(new HeapPriorityQueue<String>(limit));
+    }
+
+
+    /**
+     * Helper method to start a recording of every queue event, however
+     * quick.
+     *
+     * @return The running recording.
+     */
+    private static Recording startRecording()
+    {
+        Recording recording = new Recording();
+        for(String name : new String[] { "Add", "Remove", "Resize", "Overflow", "Underflow" })
+            recording.enable("queuemanager." + name).withThreshold(Duration.ZERO);
+        recording.start();
+        return recording;
+    }
+
+
+    /**
+     * Helper method to stop a recording and read back its queue events.
+     *
+     * @param recording
+     * @return The events, in the order they were read.
+     * @throws IOException
+     */
+    private static List<RecordedEvent> stopRecording(Recording recording) throws IOException
+    {
+        recording.stop();
+        Path file = Files.createTempFile("queue", ".jfr");
+        try
+        {
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<>();
+            for(RecordedEvent event : RecordingFile.readAllEvents(file))
+                if(event.getEventType().getName().startsWith("queuemanager."))
+                    events.add(event);
+            return events;
+        } finally {
+            recording.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * Helper method to pick out the events of one type.
+     *
+     * @param events
+     * @param name The name of the event type, without the queuemanager prefix.
+     * @return The matching events.
+     */
+    private static List<RecordedEvent> eventsNamed(List<RecordedEvent> events, String name)
+    {
+        List<RecordedEvent> matching = new ArrayList<>();
+        for(RecordedEvent event : events)
+            if(event.getEventType().getName().equals("queuemanager." + name))
+                matching.add(event);
+        return matching;
+    }
+
+
+    /**
+     * Tests that adds, removes, overflows and underflows are recorded with
+     * the queue they happened to, when the threshold lets them all through.
+     */
+    @Test
+    public void shouldRecordEventsForEachOperation() throws IOException
+    {
+        Recording recording = startRecording();
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+            q.remove();
+            q.poll();
+            q.drainTo(new ArrayList<String>(), 3);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+
+        try
+        {
+            /* Five were removed, so the sixth of these overflows. */
+            for(int i = 0; i < 6; ++i)
+                q.add(names[i], priorities[i]);
+            fail("QueueOverflowException not received when adding to a full queue");
+        } catch(QueueOverflowException e) {
+            /* Expected. */
+        }
+        q.drainTo(new ArrayList<String>(), limit);
+        try
+        {
+            q.head();
+            fail("QueueUnderflowException not received when reading from an empty queue");
+        } catch(QueueUnderflowException e) {
+            /* Expected. */
+        }
+        List<RecordedEvent> events = stopRecording(recording);
+
+        List<RecordedEvent> adds = eventsNamed(events, "Add");
+        assertEquals(limit + 5, adds.size());
+        assertEquals(priorities[0], adds.get(0).getInt("priority"));
+        assertEquals(1, adds.get(0).getInt("size"));
+        assertEquals(HeapPriorityQueue.class.getName(), adds.get(0).getClass("queueClass").getName());
+
+        List<RecordedEvent> removes = eventsNamed(events, "Remove");
+        assertEquals(4, removes.size());
+        assertEquals(3, removes.get(2).getInt("count"));
+        assertEquals(limit - 5, removes.get(2).getInt("size"));
+        assertEquals(0, removes.get(3).getInt("size"));
+
+        List<RecordedEvent> overflows = eventsNamed(events, "Overflow");
+        assertEquals(1, overflows.size());
+        assertEquals(priorities[5], overflows.get(0).getInt("priority"));
+        assertEquals(limit, overflows.get(0).getInt("size"));
+
+        List<RecordedEvent> underflows = eventsNamed(events, "Underflow");
+        assertEquals(1, underflows.size());
+        assertEquals("head", underflows.get(0).getString("operation"));
+        assertEquals(adds.get(0).getInt("queueId"), underflows.get(0).getInt("queueId"));
+    }
+
+
+    /**
+     * Tests that a growable heap records each time its storage grows, whether
+     * or not it is wrapped.
+     */
+    @Test
+    public void shouldRecordResizesOfGrowableHeap() throws IOException
+    {
+        HeapPriorityQueue<String> heap = new HeapPriorityQueue<>(1, limit, false);
+        Recording recording = startRecording();
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                heap.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        List<RecordedEvent> resizes = eventsNamed(stopRecording(recording), "Resize");
+
+        assertFalse(resizes.isEmpty());
+        int capacity = 1;
+        for(RecordedEvent resize : resizes)
+        {
+            assertEquals(capacity, resize.getInt("oldCapacity"));
+            assertTrue(resize.getInt("newCapacity") > capacity);
+            assertEquals(capacity, resize.getInt("size"));
+            capacity = resize.getInt("newCapacity");
+        }
+        assertEquals(limit, capacity);
+        assertEquals(System.identityHashCode(heap), resizes.get(0).getInt("queueId"));
+    }
+
+
+    /**
+     * Tests that an indexed heap with no fixed capacity records each time its
+     * storage grows.
+     */
+    @Test
+    public void shouldRecordResizesOfIndexedHeap() throws IOException
+    {
+        IndexedHeapPriorityQueue<String> heap = new IndexedHeapPriorityQueue<>();
+        int items = 100;
+        Recording recording = startRecording();
+        try
+        {
+            for(int i = 0; i < items; ++i)
+                heap.add("item" + i, i);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        List<RecordedEvent> resizes = eventsNamed(stopRecording(recording), "Resize");
+
+        assertFalse(resizes.isEmpty());
+        for(RecordedEvent resize : resizes)
+        {
+            assertEquals(resize.getInt("oldCapacity"), resize.getInt("size"));
+            assertTrue(resize.getInt("newCapacity") > resize.getInt("oldCapacity"));
+        }
+        assertTrue(resizes.get(resizes.size() - 1).getInt("newCapacity") >= items);
+        assertEquals(IndexedHeapPriorityQueue.class.getName(), resizes.get(0).getClass("queueClass").getName());
+    }
+
+}
@@ -0,0 +1,128 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the growable mode of the HeapPriorityQueue ADT.
+ *
+ * The queue starts with room for a single item so every test exercises
+ * growing, and is shrinkable so that draining it exercises shrinking.
+ */
+public class GrowableHeapPriorityQueueTest extends PriorityQueueTestBase
+{
+
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new HeapPriorityQueue<String>(1, HeapPriorityQueue.MAX_CAPACITY, true);
+    }
+
+
+    /**
+     * Tests that the queue keeps working through repeated growing and
+     * shrinking cycles.
+     */
+    @Test
+    public void shouldKeepOrderingAcrossRepeatedGrowAndShrink()
+    {
+        try
+        {
+            for(int cycle = 0; cycle < 3; ++cycle)
+            {
+                for(int i = 0; i < 1000; ++i)
+                    q.add("Item" + i, (i * 7919) % 1000);
+
+                for(int expected = 999; expected >= 0; --expected)
+                {
+                    assertEquals("Item" + ((expected * 679) % 1000), q.head());
+                    q.remove();
+                }
+                assertTrue(q.isEmpty());
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+
+
+    /**
+     * Tests that a growable queue still throws an exception once it reaches
+     * its hard cap.
+     */
+    @Test
+    public void shouldThrowExceptionWhenAddingBeyondHardCap()
+    {
+        q = new HeapPriorityQueue<String>(1, limit, false);
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received before reaching the hard cap");
+        }
+
+        try
+        {
+            q.add("Some Name", 420);
+            fail("No Exception received when adding an item beyond the hard cap");
+        } catch(QueueOverflowException e) {}
+    }
+
+
+    /**
+     * Tests that the no argument constructor creates a queue that can grow
+     * past its default capacity.
+     */
+    @Test
+    public void shouldGrowPastDefaultCapacity()
+    {
+        q = new HeapPriorityQueue<Integer>();
+        try
+        {
+            for(int i = 0; i < HeapPriorityQueue.DEFAULT_INITIAL_CAPACITY * 4; ++i)
+                q.add(i, i);
+            assertEquals(HeapPriorityQueue.DEFAULT_INITIAL_CAPACITY * 4 - 1, q.head());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to an unbounded queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a non-empty queue");
+        }
+    }
+
+
+    /**
+     * Tests that drainTo removes items in priority order whether it removes
+     * them one at a time or rebuilds the heap, and that the heap is left
+     * intact in between.
+     */
+    @Test
+    public void shouldDrainInPriorityOrderForEveryBatchSize()
+    {
+        try
+        {
+            for(int i = 0; i < 1000; ++i)
+                q.add("Item" + i, (i * 7919) % 1000);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        }
+
+        List<Object> drained = new ArrayList<>();
+        for(int batch = 1; !q.isEmpty(); batch *= 2)
+            q.drainTo(drained, batch);
+
+        assertEquals(1000, drained.size());
+        for(int expected = 999; expected >= 0; --expected)
+            assertEquals("Item" + ((expected * 679) % 1000), drained.get(999 - expected));
+    }
+
+}
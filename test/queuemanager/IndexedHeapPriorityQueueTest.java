@@ -0,0 +1,145 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the IndexedHeapPriorityQueue ADT.
+ */
+public class IndexedHeapPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new IndexedHeapPriorityQueue(limit);
+    }
+    
+    
+    /**
+     * Helper method to fill the queue with the common test data.
+     * 
+     * @return The queue.
+     */
+    private IndexedHeapPriorityQueue<String> filledQueue()
+    {
+        IndexedHeapPriorityQueue<String> queue = (IndexedHeapPriorityQueue<String>) q;
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                queue.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        return queue;
+    }
+    
+    
+    /**
+     * Tests that contains reports items as they are added and removed.
+     */
+    @Test
+    public void shouldTrackContainsWhenItemsAddedAndRemoved()
+    {
+        IndexedHeapPriorityQueue<String> queue = filledQueue();
+        for(int i = 0; i < limit; ++i)
+            assertTrue(queue.contains(names[i]));
+        
+        assertTrue(queue.remove(names[4]));
+        assertFalse(queue.contains(names[4]));
+        assertFalse(queue.remove(names[4]));
+        assertFalse(queue.contains("Some Name"));
+    }
+    
+    
+    /**
+     * Tests that updatePriority moves an item up and down the queue.
+     */
+    @Test
+    public void shouldReorderItemWhenPriorityUpdated()
+    {
+        IndexedHeapPriorityQueue<String> queue = filledQueue();
+        try
+        {
+            assertTrue(queue.updatePriority("Holly", 500));
+            assertEquals("Holly", queue.head());
+            
+            assertTrue(queue.updatePriority("Holly", -1));
+            assertEquals(namesSortedByPriority[0], queue.head());
+            
+            assertFalse(queue.updatePriority("Some Name", 5));
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a non-empty queue");
+        }
+    }
+    
+    
+    /**
+     * Tests that adding an item already in the queue throws an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenAddingItemAlreadyQueued() throws QueueOverflowException
+    {
+        IndexedHeapPriorityQueue<String> queue = new IndexedHeapPriorityQueue<>();
+        queue.add(names[0], priorities[0]);
+        queue.add(names[0], priorities[1]);
+    }
+    
+    
+    /**
+     * Tests a long random sequence of updates and removals against an array
+     * of the expected priorities.
+     */
+    @Test
+    public void shouldMatchReferenceUnderRandomOperations()
+    {
+        IndexedHeapPriorityQueue<Integer> queue = new IndexedHeapPriorityQueue<>();
+        Integer[] expected = new Integer[500];
+        Random random = new Random(1);
+        try
+        {
+            for(int step = 0; step < 20000; ++step)
+            {
+                int item = random.nextInt(expected.length);
+                int op = random.nextInt(3);
+                if(op == 0 && expected[item] == null)
+                {
+                    expected[item] = random.nextInt(100);
+                    queue.add(item, expected[item]);
+                }
+                else if(op == 1)
+                {
+                    int priority = random.nextInt(100);
+                    assertEquals(expected[item] != null, queue.updatePriority(item, priority));
+                    if(expected[item] != null)
+                        expected[item] = priority;
+                }
+                else if(op == 2)
+                {
+                    assertEquals(expected[item] != null, queue.remove(item));
+                    expected[item] = null;
+                }
+                
+                if(!queue.isEmpty())
+                {
+                    int best = Integer.MIN_VALUE;
+                    for(Integer priority : expected)
+                        if(priority != null)
+                            best = Math.max(best, priority);
+                    assertEquals(best, (int) expected[queue.head()]);
+                }
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a non-empty queue");
+        }
+    }
+    
+}
@@ -0,0 +1,167 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the InstrumentedPriorityQueue wrapper, wrapping a fixed
+ * capacity HeapPriorityQueue.
+ */
+public class InstrumentedPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+
+    /**
+     * The queue under test, with its own type.
+     */
+    private InstrumentedPriorityQueue<String> instrumented;
+
+
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        instrumented = new InstrumentedPriorityQueue<>(new HeapPriorityQueue<String>(limit));
+        q = instrumented;
+    }
+
+
+    /**
+     * Tests that calls, failures, items and the high water mark are counted.
+     */
+    @Test
+    public void shouldCountOperationsAndHighWaterMark()
+    {
+        try
+        {
+            for(int i = 0; i < 5; ++i)
+                instrumented.add(names[i], priorities[i]);
+            instrumented.addAll(batchOf(5, limit));
+            instrumented.head();
+            instrumented.remove();
+            instrumented.poll();
+            instrumented.drainTo(new ArrayList<String>(), 3);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+
+        try
+        {
+            /* Five were removed, so the sixth of these overflows. */
+            for(int i = 0; i < 6; ++i)
+                instrumented.add(names[i], priorities[i]);
+            fail("QueueOverflowException not received when adding to a full queue");
+        } catch(QueueOverflowException e) {
+            /* Expected. */
+        }
+
+        assertEquals(11, instrumented.getCount(InstrumentedPriorityQueue.Operation.ADD));
+        assertEquals(1, instrumented.getFailures(InstrumentedPriorityQueue.Operation.ADD));
+        assertEquals(1, instrumented.getCount(InstrumentedPriorityQueue.Operation.ADD_ALL));
+        assertEquals(1, instrumented.getCount(InstrumentedPriorityQueue.Operation.HEAD));
+        assertEquals(1, instrumented.getCount(InstrumentedPriorityQueue.Operation.REMOVE));
+        assertEquals(1, instrumented.getCount(InstrumentedPriorityQueue.Operation.POLL));
+        assertEquals(1, instrumented.getCount(InstrumentedPriorityQueue.Operation.DRAIN));
+        assertEquals(0, instrumented.getFailures(InstrumentedPriorityQueue.Operation.REMOVE));
+        assertEquals(limit + 5, instrumented.getItemsAdded());
+        assertEquals(5, instrumented.getItemsRemoved());
+        assertEquals(limit, instrumented.getSizeHighWaterMark());
+        assertEquals(11, instrumented.getLatency(InstrumentedPriorityQueue.Operation.ADD).getCount());
+        assertTrue(instrumented.isWorkCounted());
+        assertTrue(instrumented.getComparisons() > 0);
+        assertTrue(instrumented.getSwaps() > 0);
+    }
+
+
+    /**
+     * Tests that nothing is recorded while recording is turned off, and that
+     * the size is picked up again when it is turned back on.
+     */
+    @Test
+    public void shouldRecordNothingWhenDisabled()
+    {
+        instrumented.setEnabled(false);
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                instrumented.add(names[i], priorities[i]);
+            instrumented.remove();
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        assertEquals(0, instrumented.getCount(InstrumentedPriorityQueue.Operation.ADD));
+        assertEquals(0, instrumented.getItemsRemoved());
+        assertEquals(0, instrumented.getSizeHighWaterMark());
+
+        instrumented.setEnabled(true);
+        assertTrue(instrumented.isEnabled());
+        assertEquals(limit - 1, instrumented.getSizeHighWaterMark());
+
+        instrumented.reset();
+        assertEquals(0, instrumented.getComparisons());
+        assertEquals(limit - 1, instrumented.getSizeHighWaterMark());
+    }
+
+
+    /**
+     * Tests that the Prometheus exporter writes every metric for a queue,
+     * and replaces a file with the same text.
+     */
+    @Test
+    public void shouldExportMetricsInPrometheusFormat() throws IOException
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                instrumented.add(names[i], priorities[i]);
+            instrumented.poll();
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+
+        Map<String, InstrumentedPriorityQueue<?>> queues = new LinkedHashMap<>();
+        queues.put("jobs \"main\"", instrumented);
+        queues.put("other", new InstrumentedPriorityQueue<>(new SortedArrayPriorityQueue<String>(limit)));
+        StringBuilder text = new StringBuilder();
+        PrometheusExporter.write(text, queues);
+        String result = text.toString();
+
+        assertTrue(result.contains("# TYPE priority_queue_operations_total counter\n"));
+        assertTrue(result.contains("priority_queue_operations_total{queue=\"jobs \\\"main\\\"\",operation=\"add\"} " + limit + "\n"));
+        assertTrue(result.contains("priority_queue_operation_duration_seconds_count{queue=\"jobs \\\"main\\\"\",operation=\"poll\"} 1\n"));
+        assertTrue(result.contains("priority_queue_operation_duration_seconds{queue=\"other\",operation=\"head\",quantile=\"0.99\"} NaN\n"));
+        assertTrue(result.contains("priority_queue_size_high_water_mark{queue=\"jobs \\\"main\\\"\"} " + limit + "\n"));
+        assertTrue(result.contains("priority_queue_size{queue=\"other\"} 0\n"));
+        assertTrue(result.contains("priority_queue_comparisons_total{queue=\"jobs \\\"main\\\"\"} "));
+        assertFalse(result.contains("priority_queue_comparisons_total{queue=\"other\"}"));
+
+        Path directory = Files.createTempDirectory("metrics");
+        Path file = directory.resolve("queues.prom");
+        try
+        {
+            instrumented.setEnabled(false);
+            PrometheusExporter.writeFile(file, queues);
+            assertEquals(result, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test class for LatencyHistogram.
+ */
+public class LatencyHistogramTest
+{
+
+    /**
+     * Tests that an empty histogram reports zeros.
+     */
+    @Test
+    public void shouldReportZerosWhenEmpty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+
+    /**
+     * Tests that small values are counted exactly and that the count, sum,
+     * mean and maximum are exact.
+     */
+    @Test
+    public void shouldCountSmallValuesExactly()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 100; ++i)
+            histogram.record(i);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100, histogram.getMax());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+
+    /**
+     * Tests that large values are reported to within 1% and never below the
+     * true value, and that values beyond the range are clamped.
+     */
+    @Test
+    public void shouldReportLargeValuesWithinPrecision()
+    {
+        long [] values = { 300, 1000, 123457, 98765432L, 3000000000L, LatencyHistogram.MAX_VALUE };
+        for(long value : values)
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(1);
+            long reported = histogram.getValueAtPercentile(50);
+            assertEquals(1, reported);
+            reported = histogram.getValueAtPercentile(75);
+            assertTrue(value + " reported as " + reported, reported >= value && reported <= value * 1.01);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+
+    /**
+     * Tests that reset forgets every value.
+     */
+    @Test
+    public void shouldForgetValuesWhenReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(12345);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+}
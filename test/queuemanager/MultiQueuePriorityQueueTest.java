@@ -0,0 +1,179 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the MultiQueuePriorityQueue ADT.
+ * 
+ * The common tests expect strict priority order so they are run against a
+ * queue with a single shard.
+ */
+public class MultiQueuePriorityQueueTest extends PriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new MultiQueuePriorityQueue<String>(1);
+    }
+    
+    
+    @Override
+    protected boolean hasFailFastIterators()
+    {
+        return false;
+    }
+    
+    
+    /**
+     * Tests that a queue with many shards still returns every item once and
+     * that head always returns the true highest priority item.
+     */
+    @Test
+    public void shouldRemoveEveryItemWhenUsingManyShards()
+    {
+        MultiQueuePriorityQueue<Integer> queue = new MultiQueuePriorityQueue<>(8, true);
+        boolean[] removed = new boolean[1000];
+        try
+        {
+            for(int i = 0; i < removed.length; ++i)
+                queue.add(i, i);
+            
+            assertEquals(999, (int) queue.head());
+            
+            for(int i = 0; i < removed.length; ++i)
+            {
+                int item = queue.poll();
+                assertFalse(removed[item]);
+                removed[item] = true;
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        
+        assertTrue(queue.isEmpty());
+        assertEquals(1000, queue.getRankErrorStatistics().getRemovals());
+    }
+    
+    
+    /**
+     * Tests that a single shard queue reports no rank error.
+     */
+    @Test
+    public void shouldReportNoRankErrorWithOneShard()
+    {
+        MultiQueuePriorityQueue<String> queue = new MultiQueuePriorityQueue<>(1, true);
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                queue.add(names[i], priorities[i]);
+            for(int i = 0; i < limit; ++i)
+                assertEquals(namesSortedByPriority[i], queue.poll());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        
+        MultiQueuePriorityQueue.RankErrorStatistics stats = queue.getRankErrorStatistics();
+        assertEquals(limit, stats.getRemovals());
+        assertEquals(0, stats.getOutOfOrderRemovals());
+        assertEquals(0, stats.getMaxRankError());
+    }
+    
+    
+    /**
+     * Tests that a batch is spread evenly across the shards rather than
+     * loaded into one of them.
+     */
+    @Test
+    public void shouldSpreadBatchAcrossShards()
+    {
+        MultiQueuePriorityQueue<String> queue = new MultiQueuePriorityQueue<>(4);
+        try
+        {
+            queue.addAll(batchOf(0, limit));
+            queue.addAll(batchOf(0, 2));
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        
+        int total = 0;
+        for(int i = 0; i < 4; ++i)
+        {
+            int shardSize = queue.shardSize(i);
+            assertTrue("Shard " + i + " holds " + shardSize, shardSize >= limit / 4 && shardSize <= limit / 4 + 2);
+            total += shardSize;
+        }
+        assertEquals(limit + 2, total);
+    }
+    
+    
+    /**
+     * Tests that every item added by concurrent producers is polled exactly
+     * once by concurrent consumers.
+     */
+    @Test
+    public void shouldPollEveryItemExactlyOnceWithConcurrentProducersAndConsumers() throws InterruptedException
+    {
+        final int threads = 4;
+        final int perThread = 10000;
+        final MultiQueuePriorityQueue<Integer> queue = new MultiQueuePriorityQueue<>(8);
+        final AtomicIntegerArray seen = new AtomicIntegerArray(threads * perThread);
+        
+        Thread[] workers = new Thread[threads * 2];
+        for(int t = 0; t < threads; ++t)
+        {
+            final int base = t * perThread;
+            workers[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for(int i = 0; i < perThread; ++i)
+                        try
+                        {
+                            queue.add(base + i, (base + i) % 97);
+                        } catch(QueueOverflowException e) {
+                            throw new AssertionError(e);
+                        }
+                }
+            });
+            workers[threads + t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int taken = 0;
+                    while(taken < perThread)
+                        try
+                        {
+                            seen.incrementAndGet(queue.poll());
+                            ++taken;
+                        } catch(QueueUnderflowException e) {
+                            Thread.yield();
+                        }
+                }
+            });
+        }
+        
+        for(Thread worker : workers)
+            worker.start();
+        for(Thread worker : workers)
+            worker.join();
+        
+        assertTrue(queue.isEmpty());
+        for(int i = 0; i < seen.length(); ++i)
+            assertEquals(1, seen.get(i));
+    }
+    
+}
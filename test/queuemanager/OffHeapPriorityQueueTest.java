@@ -0,0 +1,210 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the OffHeapPriorityQueue ADT.
+ */
+public class OffHeapPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+
+    /**
+     * Codec storing the test names as up to 30 bytes of UTF-8 after a 2 byte
+     * length.
+     */
+    static final FixedSizeCodec<Object> NAMES = new FixedSizeCodec<Object>()
+    {
+        @Override
+        public int size()
+        {
+            return 32;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Object item)
+        {
+            byte [] bytes = String.valueOf(item).getBytes(StandardCharsets.UTF_8);
+            buffer.putShort(offset, (short) bytes.length);
+            for(int i = 0; i < bytes.length; ++i)
+                buffer.put(offset + 2 + i, bytes[i]);
+        }
+
+        @Override
+        public Object read(ByteBuffer buffer, int offset)
+        {
+            byte [] bytes = new byte[buffer.getShort(offset)];
+            for(int i = 0; i < bytes.length; ++i)
+                bytes[i] = buffer.get(offset + 2 + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new OffHeapPriorityQueue<>(limit, NAMES);
+    }
+
+
+    /**
+     * This method is run after each test and releases the queue's memory.
+     */
+    @After
+    public void tearDown()
+    {
+        ((OffHeapPriorityQueue<Object>) q).close();
+    }
+
+
+    /**
+     * Tests that items stored with the Integer codec come out in priority
+     * order.
+     */
+    @Test
+    public void shouldRemoveIdsInPriorityOrder()
+    {
+        OffHeapPriorityQueue<Integer> queue = new OffHeapPriorityQueue<>(1000, FixedSizeCodec.INTEGER);
+        try
+        {
+            /* 919 steps through every value mod 1000 in a scrambled order. */
+            for(int i = 0; i < 1000; ++i)
+            {
+                int id = (i * 919) % 1000;
+                queue.add(id, id);
+            }
+
+            for(int i = 999; i >= 0; --i)
+            {
+                assertEquals(Integer.valueOf(i), queue.head());
+                queue.remove();
+            }
+            assertTrue(queue.isEmpty());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a non-empty queue");
+        } finally {
+            queue.close();
+        }
+    }
+
+
+    /**
+     * Tests that the queue cannot be used once it has been closed.
+     */
+    @Test
+    public void shouldThrowExceptionWhenUsedAfterClose()
+    {
+        OffHeapPriorityQueue<Long> queue = new OffHeapPriorityQueue<>(4, FixedSizeCodec.LONG);
+        queue.close();
+        queue.close();
+
+        try
+        {
+            queue.add(1L, 1);
+            fail("No Exception received when adding to a closed queue");
+        } catch(IllegalStateException e) {
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a closed queue");
+        }
+
+        try
+        {
+            queue.head();
+            fail("No Exception received when calling head on a closed queue");
+        } catch(IllegalStateException e) {
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a closed queue");
+        }
+    }
+
+
+    /**
+     * Helper method to check that a batch the codec fails on at its last
+     * item leaves the queue as it was, then add the same batch with the
+     * last test item in its place.
+     *
+     * @param queued The number of test items to add first.
+     */
+    private void assertBatchCannotBeWrittenAfter(int queued)
+    {
+        Object unwritable = new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new IllegalStateException("Cannot be written");
+            }
+        };
+        try
+        {
+            for(int i = 0; i < queued; ++i)
+                q.add(names[i], priorities[i]);
+            String expected = q.toString();
+
+            List<PriorityItem<Object>> batch = new ArrayList<>();
+            for(int i = queued; i < limit - 1; ++i)
+                batch.add(new PriorityItem<Object>(names[i], priorities[i]));
+            batch.add(new PriorityItem<>(unwritable, 1));
+            try
+            {
+                q.addAll(batch);
+                fail("IllegalStateException not received when adding an item that cannot be written");
+            } catch(IllegalStateException e) {
+                /* Expected. */
+            }
+            assertEquals(queued, q.size());
+            assertEquals(expected, q.toString());
+
+            batch.set(batch.size() - 1, new PriorityItem<Object>(names[limit - 1], priorities[limit - 1]));
+            q.addAll(batch);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        assertRemovesInPriorityOrder();
+    }
+
+
+    /**
+     * Tests that a batch the codec fails on part way through, large enough
+     * to be heapified in place, leaves the queue as it was.
+     */
+    @Test
+    public void shouldLeaveQueueUnchangedWhenBatchCannotBeWritten()
+    {
+        assertBatchCannotBeWrittenAfter(3);
+    }
+
+
+    /**
+     * Tests that a batch the codec fails on part way through, small enough
+     * to be sifted up item by item, leaves the queue as it was.
+     */
+    @Test
+    public void shouldLeaveQueueUnchangedWhenSmallBatchCannotBeWritten()
+    {
+        assertBatchCannotBeWrittenAfter(limit - 4);
+    }
+
+
+    /**
+     * Tests that a negative capacity is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenCapacityNegative()
+    {
+        new OffHeapPriorityQueue<>(-1, FixedSizeCodec.INTEGER);
+    }
+}
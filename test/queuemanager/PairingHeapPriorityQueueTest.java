@@ -0,0 +1,142 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the PairingHeapPriorityQueue ADT.
+ */
+public class PairingHeapPriorityQueueTest extends PriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new PairingHeapPriorityQueue<String>();
+    }
+    
+    
+    /**
+     * Tests that raising an item's priority through its handle moves it to
+     * the head of the queue.
+     */
+    @Test
+    public void shouldMoveItemToHeadWhenPriorityRaisedAboveAllOthers()
+    {
+        PairingHeapPriorityQueue<String> queue = new PairingHeapPriorityQueue<>();
+        List<PairingHeapPriorityQueue.Handle<String>> handles = new ArrayList<>();
+        for(int i = 0; i < limit; ++i)
+            handles.add(queue.insert(names[i], priorities[i]));
+        
+        handles.get(8).setPriority(1000);
+        try
+        {
+            assertEquals(names[8], queue.head());
+            queue.remove();
+            assertEquals(namesSortedByPriority[0], queue.head());
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a non-empty queue");
+        }
+        assertFalse(handles.get(8).isQueued());
+    }
+    
+    
+    /**
+     * Tests that removing an item through its handle leaves the rest of the
+     * queue in order.
+     */
+    @Test
+    public void shouldRemoveOnlyThatItemWhenRemovedThroughHandle()
+    {
+        PairingHeapPriorityQueue<String> queue = new PairingHeapPriorityQueue<>();
+        List<PairingHeapPriorityQueue.Handle<String>> handles = new ArrayList<>();
+        for(int i = 0; i < limit; ++i)
+            handles.add(queue.insert(names[i], priorities[i]));
+        
+        /* Remove the first and third items in priority order. */
+        handles.get(10).remove();
+        handles.get(9).remove();
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+            {
+                if(i == 0 || i == 2)
+                    continue;
+                assertEquals(namesSortedByPriority[i], queue.head());
+                queue.remove();
+            }
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        assertTrue(queue.isEmpty());
+    }
+    
+    
+    /**
+     * Tests that using a handle after its item has been removed throws an
+     * exception.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void shouldThrowExceptionWhenHandleUsedAfterRemoval()
+    {
+        PairingHeapPriorityQueue<String> queue = new PairingHeapPriorityQueue<>();
+        PairingHeapPriorityQueue.Handle<String> handle = queue.insert(names[0], priorities[0]);
+        handle.remove();
+        handle.setPriority(5);
+    }
+    
+    
+    /**
+     * Tests a long random sequence of inserts, priority changes and removals
+     * against a simple list of the expected contents.
+     */
+    @Test
+    public void shouldMatchReferenceUnderRandomOperations()
+    {
+        PairingHeapPriorityQueue<Integer> queue = new PairingHeapPriorityQueue<>();
+        List<PairingHeapPriorityQueue.Handle<Integer>> live = new ArrayList<>();
+        Random random = new Random(1);
+        try
+        {
+            for(int step = 0; step < 20000; ++step)
+            {
+                int op = random.nextInt(4);
+                if(op == 0 || live.isEmpty())
+                    live.add(queue.insert(step, random.nextInt(1000)));
+                else if(op == 1)
+                    live.get(random.nextInt(live.size())).setPriority(random.nextInt(1000));
+                else if(op == 2)
+                    live.remove(random.nextInt(live.size())).remove();
+                else
+                {
+                    /* The head must have the highest priority of those left. */
+                    int best = Integer.MIN_VALUE;
+                    for(PairingHeapPriorityQueue.Handle<Integer> handle : live)
+                        best = Math.max(best, handle.getPriority());
+                    
+                    Integer head = queue.head();
+                    PairingHeapPriorityQueue.Handle<Integer> removed = null;
+                    for(PairingHeapPriorityQueue.Handle<Integer> handle : live)
+                        if(handle.getItem().equals(head))
+                            removed = handle;
+                    assertEquals(best, removed.getPriority());
+                    queue.remove();
+                    live.remove(removed);
+                    assertFalse(removed.isQueued());
+                }
+                assertEquals(live.isEmpty(), queue.isEmpty());
+            }
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+}
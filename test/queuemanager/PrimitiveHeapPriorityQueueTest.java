@@ -0,0 +1,54 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the PrimitiveHeapPriorityQueue ADT.
+ */
+public class PrimitiveHeapPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new PrimitiveHeapPriorityQueue(limit);
+    }
+    
+    
+    /**
+     * Tests that a growable queue returns items in priority order after
+     * growing many times.
+     */
+    @Test
+    public void shouldRemoveItemsInPriorityOrderWhenGrowable()
+    {
+        q = new PrimitiveHeapPriorityQueue<Integer>(1, 4096);
+        try
+        {
+            for(int i = 0; i < 4096; ++i)
+                q.add(i, (i * 2654435761L) % 4096 > 2048 ? i : -i);
+            
+            /* Check items come out with non-increasing priority. */
+            int previous = Integer.MAX_VALUE;
+            while(!q.isEmpty())
+            {
+                int i = (Integer) q.head();
+                int priority = (i * 2654435761L) % 4096 > 2048 ? i : -i;
+                assertTrue(priority <= previous);
+                previous = priority;
+                q.remove();
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+}
@@ -1,5 +1,18 @@
 package queuemanager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -335,4 +348,554 @@ public abstract class PriorityQueueTestBase
        }
     }
     
+    
+    /**
+     * Helper method to build a batch of the common test data for addAll.
+     * 
+     * @param from Index of the first item in the batch.
+     * @param to Index after the last item in the batch.
+     * @return The items from names and priorities between from and to.
+     */
+    protected List<PriorityItem<String>> batchOf(int from, int to)
+    {
+        List<PriorityItem<String>> batch = new ArrayList<>();
+        for(int i = from; i < to; ++i)
+            batch.add(new PriorityItem<>(names[i], priorities[i]));
+        return batch;
+    }
+    
+    
+    /**
+     * Helper method to remove every item from the queue checking that they
+     * are returned by head in priority order.
+     */
+    protected void assertRemovesInPriorityOrder()
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+            {
+                assertEquals(namesSortedByPriority[i], q.head());
+                q.remove();
+            }
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        assertTrue(q.isEmpty());
+    }
+    
+    
+    /**
+     * Tests that addAll adds every item to an empty queue.
+     */
+    @Test
+    public void shouldAddAllItemsWhenAddAllCalledOnEmptyQueue()
+    {
+        try
+        {
+            q.addAll(batchOf(0, limit));
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    
+    /**
+     * Tests that addAll merges small and large batches with items already in
+     * the queue.
+     */
+    @Test
+    public void shouldAddAllItemsWhenAddAllCalledOnNonEmptyQueue()
+    {
+        try
+        {
+            for(int i = 0; i < 3; ++i)
+                q.add(names[i], priorities[i]);
+            
+            /* A batch larger than the queue, then one smaller than it. */
+            q.addAll(batchOf(3, 12));
+            q.addAll(batchOf(12, limit));
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    
+    /**
+     * Tests that addAll does nothing when given an empty batch.
+     */
+    @Test
+    public void shouldDoNothingWhenAddAllCalledWithEmptyBatch()
+    {
+        try
+        {
+            q.addAll(batchOf(0, 0));
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        
+        assertTrue(q.isEmpty());
+        assertEquals("[]", q.toString());
+    }
+    
+    
+    /**
+     * Helper method to take a snapshot of a queue.
+     * 
+     * @param queue
+     * @return The snapshot.
+     * @throws IOException 
+     */
+    protected byte[] snapshotOf(PriorityQueue queue) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        queue.snapshot(new Snapshot.Writer<>(Channels.newChannel(bytes), ItemCodec.STRING));
+        return bytes.toByteArray();
+    }
+    
+    
+    /**
+     * Helper method to restore q from a snapshot.
+     * 
+     * @param snapshot
+     * @throws IOException
+     * @throws QueueOverflowException 
+     */
+    protected void restoreFrom(byte[] snapshot) throws IOException, QueueOverflowException
+    {
+        q.restore(new Snapshot.Reader<>(Channels.newChannel(new ByteArrayInputStream(snapshot)), ItemCodec.STRING));
+    }
+    
+    
+    /**
+     * Tests that a snapshot leaves the queue unchanged and that restoring it
+     * replaces whatever the queue holds by then.
+     */
+    @Test
+    public void shouldRestoreItemsWhenSnapshotRestored() throws IOException
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+            
+            String before = q.toString();
+            byte[] snapshot = snapshotOf(q);
+            assertEquals(before, q.toString());
+            
+            for(int i = 0; i < 5; ++i)
+                q.remove();
+            restoreFrom(snapshot);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when restoring a snapshot that fits");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    
+    /**
+     * Tests that snapshots in each order, from other implementations, are
+     * restored correctly.
+     */
+    @Test
+    public void shouldRestoreSnapshotsOfOtherImplementations() throws IOException
+    {
+        List<PriorityQueue<String>> others = Arrays.<PriorityQueue<String>>asList(
+            new HeapPriorityQueue<String>(limit),
+            new SortedArrayPriorityQueue<String>(limit),
+            new UnsortedArrayPriorityQueue<String>(limit));
+        
+        for(PriorityQueue<String> other : others)
+        {
+            try
+            {
+                other.addAll(batchOf(0, limit));
+                restoreFrom(snapshotOf(other));
+            } catch(QueueOverflowException e) {
+                fail("QueueOverflowException received when restoring a snapshot that fits");
+            }
+            
+            assertRemovesInPriorityOrder();
+        }
+    }
+    
+    
+    /**
+     * Tests that restoring an empty snapshot empties the queue.
+     */
+    @Test
+    public void shouldBeEmptyWhenEmptySnapshotRestored() throws IOException
+    {
+        try
+        {
+            byte[] snapshot = snapshotOf(q);
+            q.addAll(batchOf(0, 5));
+            restoreFrom(snapshot);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when restoring a snapshot that fits");
+        }
+        
+        assertTrue(q.isEmpty());
+    }
+    
+    
+    /**
+     * Tests that a damaged snapshot is rejected and the queue left unchanged.
+     */
+    @Test
+    public void shouldThrowExceptionAndKeepItemsWhenSnapshotDamaged() throws IOException
+    {
+        byte[] damaged = null;
+        byte[] truncated = null;
+        try
+        {
+            q.addAll(batchOf(0, limit));
+            byte[] snapshot = snapshotOf(q);
+            damaged = snapshot.clone();
+            damaged[snapshot.length / 2] ^= 1;
+            truncated = Arrays.copyOf(snapshot, snapshot.length - 1);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to queue");
+        }
+        
+        for(byte[] snapshot : Arrays.asList(damaged, truncated))
+        {
+            try
+            {
+                restoreFrom(snapshot);
+                fail("No Exception received when restoring a damaged snapshot");
+            } catch(IOException e) {
+            } catch(QueueOverflowException e) {
+                fail("QueueOverflowException received when restoring a snapshot that fits");
+            }
+        }
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    
+    /**
+     * Helper method to build the expected list of the first count items in
+     * priority order.
+     * 
+     * @param count
+     * @return The list, without its closing bracket.
+     */
+    private String sortedListOf(int count)
+    {
+        StringBuilder expected = new StringBuilder("[");
+        for(int i = 0; i < count; ++i)
+        {
+            if(i > 0)
+                expected.append(", ");
+            expected.append('(').append(namesSortedByPriority[i]).append(", ").append(sortedPriorities[i]).append(')');
+        }
+        return expected.toString();
+    }
+    
+    
+    /**
+     * Tests that writeTo writes the same list as toString when given no
+     * limit.
+     */
+    @Test
+    public void shouldWriteSameListAsToString() throws IOException
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        StringBuilder result = new StringBuilder();
+        q.writeTo(result, Integer.MAX_VALUE, false);
+        assertEquals(q.toString(), result.toString());
+    }
+    
+    
+    /**
+     * Tests that writeTo lists every item in priority order when asked to.
+     */
+    @Test
+    public void shouldWriteItemsInPriorityOrder() throws IOException
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        StringBuilder result = new StringBuilder();
+        q.writeTo(result, Integer.MAX_VALUE, true);
+        assertEquals(sortedListOf(limit) + "]", result.toString());
+    }
+    
+    
+    /**
+     * Tests that writeTo stops at the limit, showing that the list was cut
+     * short, and that the queue is unchanged.
+     */
+    @Test
+    public void shouldWriteOnlyFirstItemsWhenLimited() throws IOException
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        StringBuilder result = new StringBuilder();
+        q.writeTo(result, 3, true);
+        assertEquals(sortedListOf(3) + ", ...]", result.toString());
+        
+        result.setLength(0);
+        q.writeTo(result, 0, false);
+        assertEquals("[...]", result.toString());
+        
+        result.setLength(0);
+        q.writeTo(result, limit, true);
+        assertEquals(sortedListOf(limit) + "]", result.toString());
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    /**
+     * Whether the implementation's iterators are fail-fast. Implementations
+     * made for use by several threads return False.
+     *
+     * @return True if changing the queue invalidates its iterators.
+     */
+    protected boolean hasFailFastIterators()
+    {
+        return true;
+    }
+    
+    
+    /**
+     * Tests that size() and the iterator give every item with its priority,
+     * without changing the queue.
+     */
+    @Test
+    public void shouldIterateOverEveryItem()
+    {
+        assertEquals(0, q.size());
+        assertFalse(q.iterator().hasNext());
+        
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        assertEquals(limit, q.size());
+        
+        List<String> seen = new ArrayList<>();
+        for(Object o : q)
+        {
+            PriorityItem entry = (PriorityItem) o;
+            seen.add(entry.getItem() + ":" + entry.getPriority());
+        }
+        List<String> expected = new ArrayList<>();
+        for(int i = 0; i < limit; ++i)
+            expected.add(names[i] + ":" + priorities[i]);
+        Collections.sort(seen);
+        Collections.sort(expected);
+        assertEquals(expected, seen);
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    
+    /**
+     * Tests that an iterator throws a ConcurrentModificationException once
+     * the queue has been changed, if the implementation is fail-fast.
+     */
+    @Test
+    public void shouldFailFastWhenQueueChangedDuringIteration()
+    {
+        if(!hasFailFastIterators())
+            return;
+        
+        try
+        {
+            for(int i = 0; i < limit - 1; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        Iterator iterator = q.iterator();
+        iterator.next();
+        try
+        {
+            q.add(names[limit - 1], priorities[limit - 1]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        try
+        {
+            iterator.next();
+            fail("ConcurrentModificationException not received after the queue changed");
+        } catch(ConcurrentModificationException e) {
+            /* Expected. */
+        }
+    }
+    
+    
+    /**
+     * Tests that sequential and parallel streams see every item, and that the
+     * Spliterator knows its exact size where the queue is not concurrent.
+     */
+    @Test
+    public void shouldStreamEveryItem()
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        long expectedSum = 0;
+        for(int priority : priorities)
+            expectedSum += priority;
+        
+        ToLongFunction<Object> priorityOf = new ToLongFunction<Object>()
+        {
+            @Override
+            public long applyAsLong(Object entry)
+            {
+                return ((PriorityItem) entry).getPriority();
+            }
+        };
+        assertEquals(limit, q.stream().count());
+        assertEquals(expectedSum, ((Stream<Object>) q.stream()).mapToLong(priorityOf).sum());
+        assertEquals(expectedSum, ((Stream<Object>) q.parallelStream()).mapToLong(priorityOf).sum());
+        
+        if(hasFailFastIterators())
+        {
+            Spliterator spliterator = q.spliterator();
+            assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+            assertEquals(limit, spliterator.getExactSizeIfKnown());
+        }
+        
+        assertRemovesInPriorityOrder();
+    }
+    
+    /**
+     * Tests that removeBatch removes and returns the highest priority items,
+     * highest first, leaving the rest in the queue.
+     */
+    @Test
+    public void shouldRemoveBatchOfHighestPriorityItems()
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        assertEquals(Arrays.asList(namesSortedByPriority).subList(0, 4), q.removeBatch(4));
+        assertEquals(limit - 4, q.size());
+        try
+        {
+            assertEquals(namesSortedByPriority[4], q.head());
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a queue that is not empty");
+        }
+    }
+    
+    
+    /**
+     * Tests that drainTo stops when the queue is empty, and does nothing to
+     * an empty queue.
+     */
+    @Test
+    public void shouldDrainEveryItemWhenMaxExceedsSize()
+    {
+        List<Object> drained = new ArrayList<>();
+        assertEquals(0, q.drainTo(drained, 5));
+        assertTrue(drained.isEmpty());
+        
+        try
+        {
+            q.addAll(batchOf(0, limit));
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        drained.add("Before");
+        assertEquals(limit, q.drainTo(drained, limit + 5));
+        assertEquals("Before", drained.get(0));
+        assertEquals(Arrays.asList(namesSortedByPriority), drained.subList(1, limit + 1));
+        assertTrue(q.isEmpty());
+        assertTrue(q.removeBatch(3).isEmpty());
+    }
+    
+    
+    /**
+     * Tests that a negative batch size is refused.
+     */
+    @Test
+    public void shouldThrowExceptionWhenBatchSizeNegative()
+    {
+        try
+        {
+            q.removeBatch(-1);
+            fail("IllegalArgumentException not received for a negative batch size");
+        } catch(IllegalArgumentException e) {
+            /* Expected. */
+        }
+    }
+    
+    /**
+     * Tests that poll returns and removes the items in priority order, and
+     * throws an exception once the queue is empty.
+     */
+    @Test
+    public void shouldPollItemsInPriorityOrder()
+    {
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                q.add(names[i], priorities[i]);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        try
+        {
+            for(int i = 0; i < limit; ++i)
+                assertEquals(namesSortedByPriority[i], q.poll());
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when polling a queue that is not empty");
+        }
+        assertTrue(q.isEmpty());
+        
+        try
+        {
+            q.poll();
+            fail("QueueUnderflowException not received when polling an empty queue");
+        } catch(QueueUnderflowException e) {
+            /* Expected. */
+        }
+    }
+    
 }
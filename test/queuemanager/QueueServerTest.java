@@ -0,0 +1,264 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for QueueServer, serving a HeapPriorityQueue from a thread of
+ * its own.
+ */
+public class QueueServerTest
+{
+
+    private static final int CAPACITY = 3;
+
+    private PriorityQueue<Person> queue;
+
+    private QueueServer server;
+
+    private Thread serving;
+
+
+    /**
+     * This method is run before each test and starts a new server with an
+     * empty queue, effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        queue = new HeapPriorityQueue<>(CAPACITY);
+        server = new QueueServer(queue, 0);
+        serving = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    server.run();
+                } catch(IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        serving.start();
+    }
+
+
+    /**
+     * This method is run after each test and stops the server.
+     */
+    @After
+    public void tearDown() throws IOException, InterruptedException
+    {
+        server.close();
+        serving.join(10000);
+        assertFalse(serving.isAlive());
+    }
+
+
+    /**
+     * Helper method to connect to the server.
+     *
+     * @return A new connection.
+     * @throws IOException
+     */
+    private Socket connect() throws IOException
+    {
+        return connect(server);
+    }
+
+
+    /**
+     * Helper method to connect to a server.
+     *
+     * @param server
+     * @return A new connection.
+     * @throws IOException
+     */
+    private static Socket connect(QueueServer server) throws IOException
+    {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+
+    /**
+     * Helper method to send text in a single write.
+     *
+     * @param socket
+     * @param text
+     * @throws IOException
+     */
+    private static void send(Socket socket, String text) throws IOException
+    {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+
+    /**
+     * Helper method to read the replies from a connection.
+     *
+     * @param socket
+     * @return A reader of its replies.
+     * @throws IOException
+     */
+    private static BufferedReader repliesFrom(Socket socket) throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Tests that pipelined commands are each answered, in order, and that Q
+     * closes the connection.
+     */
+    @Test
+    public void shouldAnswerPipelinedCommandsInOrder() throws IOException
+    {
+        try(Socket socket = connect())
+        {
+            send(socket, "E\nR\nA Ada Lovelace 7\r\na Alan 12\n\nA Grace 3\nA Edsger 5\nH\nP 2\nP\nE\nX\nR\nQ\nA Late 1\n");
+            BufferedReader replies = repliesFrom(socket);
+            assertEquals("OK true", replies.readLine());
+            assertEquals("ERR Queue is empty", replies.readLine());
+            assertEquals("OK", replies.readLine());
+            assertEquals("OK", replies.readLine());
+            assertEquals("OK", replies.readLine());
+            assertEquals("ERR Queue is full", replies.readLine());
+            assertEquals("OK Alan", replies.readLine());
+            assertEquals("OK [(Alan, 12), (Ada Lovelace, 7), ...]", replies.readLine());
+            assertTrue(replies.readLine().startsWith("OK [(Alan, 12), "));
+            assertEquals("OK false", replies.readLine());
+            assertEquals("ERR Invalid command", replies.readLine());
+            assertEquals("OK Alan", replies.readLine());
+            assertEquals("BYE", replies.readLine());
+            assertNull(replies.readLine());
+        }
+        assertEquals(2, queue.size());
+    }
+
+
+    /**
+     * Tests that commands split across writes are run whole, and that a
+     * last line with no newline is run when the client stops sending.
+     */
+    @Test
+    public void shouldRunLinesSplitAcrossWrites() throws IOException
+    {
+        try(Socket socket = connect())
+        {
+            BufferedReader replies = repliesFrom(socket);
+            send(socket, "A Bar");
+            send(socket, "bara 4\nA Ti");
+            assertEquals("OK", replies.readLine());
+            send(socket, "m 9\nH");
+            assertEquals("OK", replies.readLine());
+            socket.shutdownOutput();
+            assertEquals("OK Tim", replies.readLine());
+            assertNull(replies.readLine());
+        }
+    }
+
+
+    /**
+     * Tests that clients share the queue, and that a client sending many
+     * commands without reading is answered in full.
+     */
+    @Test
+    public void shouldShareQueueBetweenClients() throws IOException
+    {
+        try(Socket first = connect(); Socket second = connect())
+        {
+            send(first, "A Ann 1\n");
+            assertEquals("OK", repliesFrom(first).readLine());
+
+            StringBuilder commands = new StringBuilder();
+            for(int i = 0; i < 20000; ++i)
+                commands.append("H\n");
+            send(second, commands.toString());
+            BufferedReader replies = repliesFrom(second);
+            for(int i = 0; i < 20000; ++i)
+                assertEquals("OK Ann", replies.readLine());
+        }
+    }
+
+
+    /**
+     * Tests that an unchecked exception from the queue is answered with its
+     * message and does not stop the server.
+     */
+    @Test
+    public void shouldReplyWithErrorWhenQueueRefusesCommand() throws IOException, InterruptedException
+    {
+        final QueueServer radix = new QueueServer(new RadixHeapPriorityQueue<Person>(true), 0);
+        Thread radixServing = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    radix.run();
+                } catch(IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        radixServing.start();
+        try
+        {
+            try(Socket socket = connect(radix))
+            {
+                send(socket, "A Ann 5\nR\nA Bob 9\nE\n");
+                BufferedReader replies = repliesFrom(socket);
+                assertEquals("OK", replies.readLine());
+                assertEquals("OK Ann", replies.readLine());
+                assertTrue(replies.readLine().startsWith("ERR "));
+                assertEquals("OK true", replies.readLine());
+            }
+            try(Socket socket = connect(radix))
+            {
+                send(socket, "E\n");
+                assertEquals("OK true", repliesFrom(socket).readLine());
+            }
+        } finally {
+            radix.close();
+            radixServing.join(10000);
+        }
+        assertFalse(radixServing.isAlive());
+    }
+
+
+    /**
+     * Tests that a server closed without ever being run stops listening, and
+     * that running it afterwards returns straight away.
+     */
+    @Test
+    public void shouldStopListeningWhenClosedWithoutRunning() throws IOException
+    {
+        QueueServer idle = new QueueServer(new HeapPriorityQueue<Person>(CAPACITY), 0);
+        int port = idle.getPort();
+        idle.close();
+        idle.close();
+        idle.run();
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+        {
+            fail("ConnectException not received when connecting to a closed server");
+        } catch(ConnectException e) {
+            /* Expected. */
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the RadixHeapPriorityQueue ADT.
+ * 
+ * The common tests only remove items after all of them have been added, so
+ * they never break the monotone rule.
+ */
+public class RadixHeapPriorityQueueTest extends PriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new RadixHeapPriorityQueue<String>(true);
+    }
+    
+    
+    /**
+     * Tests that adding an item with a higher priority than the last one
+     * removed throws an exception when checking is enabled.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenAddIsNotMonotone() throws Exception
+    {
+        q.add(names[0], 10);
+        q.add(names[1], 5);
+        q.remove();
+        q.add(names[2], 11);
+    }
+    
+    
+    /**
+     * Tests that head and remove agree on which of several equal priority
+     * items is next.
+     */
+    @Test
+    public void shouldRemoveTheItemReturnedByHeadWhenPrioritiesTie() throws Exception
+    {
+        q.add(names[0], 100);
+        q.add(names[1], 3);
+        q.add(names[2], 3);
+        q.add(names[3], 3);
+        q.remove();
+        
+        for(int i = 0; i < 3; ++i)
+        {
+            Object head = q.head();
+            q.remove();
+            assertFalse(q.toString().contains(head + ", 3"));
+        }
+        assertTrue(q.isEmpty());
+    }
+    
+    
+    /**
+     * Tests a Dijkstra-like monotone sequence, including negative and
+     * extreme priorities, against a count of items per priority.
+     */
+    @Test
+    public void shouldMatchReferenceUnderMonotoneOperations() throws Exception
+    {
+        RadixHeapPriorityQueue<Integer> queue = new RadixHeapPriorityQueue<>(true);
+        java.util.TreeMap<Integer, Integer> counts = new java.util.TreeMap<>();
+        Random random = new Random(1);
+        int lastRemoved = Integer.MAX_VALUE;
+        queue.add(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        counts.put(Integer.MAX_VALUE, 1);
+        
+        for(int step = 0; step < 20000; ++step)
+        {
+            if(random.nextInt(3) > 0 || queue.isEmpty())
+            {
+                /* Anything no higher than the last removed is allowed. */
+                long gap = (step % 1000 == 0) ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(1000);
+                int priority = (int) Math.max((long) Integer.MIN_VALUE, (long) lastRemoved - gap);
+                queue.add(priority, priority);
+                counts.put(priority, counts.containsKey(priority) ? counts.get(priority) + 1 : 1);
+            }
+            else
+            {
+                int highest = counts.lastKey();
+                assertEquals(highest, (int) queue.head());
+                queue.remove();
+                lastRemoved = highest;
+                if(counts.get(highest) == 1)
+                    counts.remove(highest);
+                else
+                    counts.put(highest, counts.get(highest) - 1);
+            }
+        }
+    }
+    
+}
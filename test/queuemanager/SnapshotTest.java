@@ -0,0 +1,213 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Test class for the Snapshot format.
+ */
+public class SnapshotTest
+{
+
+    /**
+     * Helper method to open a reader on some bytes.
+     *
+     * @param bytes
+     * @param codec
+     * @return The reader.
+     * @throws IOException
+     */
+    private <T> Snapshot.Reader<T> readerOf(byte[] bytes, ItemCodec<T> codec) throws IOException
+    {
+        return new Snapshot.Reader<>(Channels.newChannel(new ByteArrayInputStream(bytes)), codec);
+    }
+
+
+    /**
+     * Tests that the header and every record, including extreme priorities
+     * and items larger than the buffer, are read back as written.
+     */
+    @Test
+    public void shouldReadBackRecordsAsWritten() throws IOException
+    {
+        char[] filler = new char[200000];
+        Arrays.fill(filler, 'x');
+        String[] items = { "Donald", "", new String(filler), "Kim" };
+        int[] priorities = { Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -1 };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.Writer<String> out = new Snapshot.Writer<>(Channels.newChannel(bytes), ItemCodec.STRING);
+        out.begin(Snapshot.Order.HEAP, 4, items.length);
+        for(int i = 0; i < items.length; ++i)
+            out.write(items[i], priorities[i]);
+        out.finish();
+
+        Snapshot.Reader<String> in = readerOf(bytes.toByteArray(), ItemCodec.STRING);
+        assertEquals(Snapshot.Order.HEAP, in.getOrder());
+        assertEquals(4, in.getArity());
+        assertEquals(items.length, in.getCount());
+        assertTrue(in.isHeapOf(4));
+        assertFalse(in.isHeapOf(2));
+        for(int i = 0; i < items.length; ++i)
+        {
+            assertTrue(in.hasNext());
+            in.next();
+            assertEquals(items[i], in.getItem());
+            assertEquals(priorities[i], in.getPriority());
+        }
+        assertFalse(in.hasNext());
+    }
+
+
+    /**
+     * Tests that records are read back correctly when they are split between
+     * one buffer and the next.
+     */
+    @Test
+    public void shouldReadBackRecordsSpanningManyBuffers() throws IOException
+    {
+        int count = 50000;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.Writer<String> out = new Snapshot.Writer<>(Channels.newChannel(bytes), ItemCodec.STRING);
+        out.begin(Snapshot.Order.UNORDERED, 0, count);
+        for(int i = 0; i < count; ++i)
+            out.write("Item " + i, i * 40503);
+        out.finish();
+
+        Snapshot.Reader<String> in = readerOf(bytes.toByteArray(), ItemCodec.STRING);
+        for(int i = 0; i < count; ++i)
+        {
+            in.next();
+            assertEquals("Item " + i, in.getItem());
+            assertEquals(i * 40503, in.getPriority());
+        }
+        assertFalse(in.hasNext());
+    }
+
+
+    /**
+     * Tests that small priorities are packed into a single byte.
+     */
+    @Test
+    public void shouldPackSmallPriorities() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.Writer<String> out = new Snapshot.Writer<>(Channels.newChannel(bytes), ItemCodec.STRING);
+        out.begin(Snapshot.Order.UNORDERED, 0, 2);
+        out.write("a", 63);
+        out.write("b", -64);
+        out.finish();
+
+        /* Header, then a length, priority and item byte for each record,
+         * then the trailer. */
+        assertEquals(12 + 2 * 3 + 4, bytes.size());
+    }
+
+
+    /**
+     * Tests that people are saved and restored by name.
+     */
+    @Test
+    public void shouldRestorePeopleWithPersonCodec() throws IOException
+    {
+        HeapPriorityQueue<Person> queue = new HeapPriorityQueue<>();
+        try
+        {
+            queue.add(new Person("Donald"), 3);
+            queue.add(new Person("Kim"), 17);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            queue.snapshot(new Snapshot.Writer<>(Channels.newChannel(bytes), Person.CODEC));
+
+            SortedLinkedPriorityQueue<Person> restored = new SortedLinkedPriorityQueue<>();
+            restored.restore(readerOf(bytes.toByteArray(), Person.CODEC));
+            assertEquals("Kim", restored.head().getName());
+            restored.remove();
+            assertEquals("Donald", restored.head().getName());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when calling head on a non-empty queue");
+        }
+    }
+
+
+    /**
+     * Tests that bytes that are not a snapshot are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void shouldThrowExceptionWhenNotASnapshot() throws IOException
+    {
+        readerOf("Not a snapshot".getBytes("UTF-8"), ItemCodec.STRING);
+    }
+
+
+    /**
+     * Tests that finishing before every promised record is written throws an
+     * exception.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void shouldThrowExceptionWhenRecordsMissing() throws IOException
+    {
+        Snapshot.Writer<String> out = new Snapshot.Writer<>(Channels.newChannel(new ByteArrayOutputStream()), ItemCodec.STRING);
+        out.begin(Snapshot.Order.SORTED, 0, 2);
+        out.write("a", 1);
+        out.finish();
+    }
+
+
+    /**
+     * Helper method to write a snapshot of two strings.
+     *
+     * @return The snapshot.
+     * @throws IOException
+     */
+    private static byte[] twoRecords() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.Writer<String> out = new Snapshot.Writer<>(Channels.newChannel(bytes), ItemCodec.STRING);
+        out.begin(Snapshot.Order.UNORDERED, 0, 2);
+        out.write("a", 1);
+        out.write("b", 2);
+        out.finish();
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Tests that a damaged record count is reported as an IOException rather
+     * than allocated for.
+     */
+    @Test(expected = IOException.class)
+    public void shouldThrowExceptionWhenCountDamaged() throws IOException
+    {
+        byte[] bytes = twoRecords();
+        ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE);
+        readerOf(bytes, ItemCodec.STRING).readAll();
+    }
+
+
+    /**
+     * Tests that a damaged record length is reported as an IOException rather
+     * than allocated for.
+     */
+    @Test(expected = IOException.class)
+    public void shouldThrowExceptionWhenLengthDamaged() throws IOException
+    {
+        byte[] bytes = twoRecords();
+        /* Replace the first record's one byte length with the largest packed
+         * int, shifting the rest along. */
+        byte[] damaged = new byte[bytes.length + 4];
+        System.arraycopy(bytes, 0, damaged, 0, 12);
+        byte[] length = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        System.arraycopy(length, 0, damaged, 12, length.length);
+        System.arraycopy(bytes, 13, damaged, 17, bytes.length - 13);
+        readerOf(damaged, ItemCodec.STRING).readAll();
+    }
+}
@@ -1,6 +1,10 @@
 package queuemanager;
 
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Before;
+import org.junit.Test;
 
 /**
  * Test class for the implementation of the SortedArrayPriorityQueue ADT.
@@ -20,4 +24,50 @@ public class SortedArrayPriorityQueueTest extends FixedCapacityPriorityQueueTest
         q = new SortedArrayPriorityQueue<String>(limit);
     }
     
+    /**
+     * Tests that the queue keeps its order, with equal priorities first in
+     * first out, while the items wrap round the end of the array and are
+     * inserted from either side.
+     */
+    @Test
+    public void shouldKeepOrderWhileWrappingRoundArray()
+    {
+        q = new SortedArrayPriorityQueue<Integer>(7);
+        List<Integer> expected = new ArrayList<>();
+        int next = 0;
+        try
+        {
+            for(int round = 0; round < 200; ++round)
+            {
+                /* Fill up with priorities from 0 to 3, so there are ties,
+                 * then take a few off the front. */
+                while(expected.size() < 7)
+                {
+                    int priority = (next * 7919) % 4;
+                    int position = 0;
+                    while(position < expected.size() && expected.get(position) % 4 >= priority)
+                        ++position;
+                    expected.add(position, next * 4 + priority);
+                    q.add(next * 4 + priority, priority);
+                    ++next;
+                }
+                assertEquals(expected.size(), q.size());
+                
+                for(int i = 0; i < 1 + round % 5; ++i)
+                {
+                    assertEquals(expected.remove(0), q.head());
+                    q.remove();
+                }
+            }
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+        
+        List<Object> drained = new ArrayList<>();
+        q.drainTo(drained, 7);
+        assertEquals(expected, drained);
+    }
+    
 }
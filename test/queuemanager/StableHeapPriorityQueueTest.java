@@ -0,0 +1,121 @@
+package queuemanager;
+
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the implementation of the StableHeapPriorityQueue ADT.
+ */
+public class StableHeapPriorityQueueTest extends FixedCapacityPriorityQueueTestBase
+{
+    
+    /**
+     * This method is run before each test and creates a new priority queue
+     * effectively resetting any state from previously run tests.
+     */
+    @Before
+    public void setUp()
+    {
+        q = new StableHeapPriorityQueue(limit);
+    }
+    
+    
+    /**
+     * Helper method to check that items come out in non-increasing priority,
+     * and in the order they were added when priorities are equal, given that
+     * item i, or its string, was added i-th with priority i % 7.
+     *
+     * @throws QueueUnderflowException
+     */
+    private void assertRemovesInFifoOrder() throws QueueUnderflowException
+    {
+        int previous = Integer.MAX_VALUE;
+        int previousItem = -1;
+        while(!q.isEmpty())
+        {
+            int i = Integer.parseInt(q.head().toString());
+            int priority = i % 7;
+            assertTrue(priority <= previous);
+            if(priority == previous)
+                assertTrue(i > previousItem);
+            previous = priority;
+            previousItem = i;
+            q.remove();
+        }
+    }
+    
+    
+    /**
+     * Tests that items of equal priority are removed in the order they were
+     * added.
+     */
+    @Test
+    public void shouldRemoveEqualPrioritiesInInsertionOrder()
+    {
+        q = new StableHeapPriorityQueue<Integer>();
+        try
+        {
+            for(int i = 0; i < 1000; ++i)
+                q.add(i, i % 7);
+            assertRemovesInFifoOrder();
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+    
+    /**
+     * Tests that items of equal priority added in a batch are removed in the
+     * order of the batch, after any added before them.
+     */
+    @Test
+    public void shouldRemoveEqualPrioritiesInBatchOrder()
+    {
+        q = new StableHeapPriorityQueue<Integer>();
+        try
+        {
+            for(int i = 0; i < 10; ++i)
+                q.add(i, i % 7);
+            List<PriorityItem<Integer>> batch = new ArrayList<>();
+            for(int i = 10; i < 1000; ++i)
+                batch.add(new PriorityItem<>(i, i % 7));
+            q.addAll(batch);
+            assertRemovesInFifoOrder();
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+    
+    /**
+     * Tests that the order of equal priorities survives a snapshot and
+     * restore.
+     */
+    @Test
+    public void shouldKeepInsertionOrderThroughSnapshot() throws IOException
+    {
+        q = new StableHeapPriorityQueue<String>();
+        try
+        {
+            for(int i = 0; i < 1000; ++i)
+                q.add(Integer.toString(i), i % 7);
+            byte[] bytes = snapshotOf(q);
+            q = new StableHeapPriorityQueue<String>();
+            restoreFrom(bytes);
+            assertRemovesInFifoOrder();
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a growable queue");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
+}
@@ -1,6 +1,11 @@
 package queuemanager;
 
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Before;
+import org.junit.Test;
 
 /**
  *Test class for the implementation of the UnsortedArrayPriorityQueue ADT.
@@ -20,4 +25,66 @@ public class UnsortedArrayPriorityQueueTest extends FixedCapacityPriorityQueueTe
         q = new UnsortedArrayPriorityQueue<String>(limit);
     }
     
+    /**
+     * Tests that drainTo selects the highest priority items correctly when
+     * many share a priority, so that batches split runs of equal priorities.
+     */
+    @Test
+    public void shouldDrainHighestPrioritiesWhenManyAreEqual()
+    {
+        q = new UnsortedArrayPriorityQueue<Integer>(1000);
+        try
+        {
+            for(int i = 0; i < 1000; ++i)
+                q.add(i, (i * 7919) % 10);
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        }
+        
+        List<Object> drained = new ArrayList<>();
+        while(!q.isEmpty())
+            assertTrue(q.drainTo(drained, 37) > 0);
+        
+        assertEquals(1000, drained.size());
+        for(int i = 0; i < 1000; ++i)
+            assertEquals(9 - i / 100, ((Integer) drained.get(i) * 7919) % 10);
+    }
+    
+    /**
+     * Tests that head stays correct when items are added after the highest
+     * priority item has been found, so that the cached maximum is kept up to
+     * date, including for ties and batches.
+     */
+    @Test
+    public void shouldKeepHeadCorrectWhenAddingAfterHead()
+    {
+        try
+        {
+            q.add("A", 5);
+            assertEquals("A", q.head());
+            q.add("B", 5);
+            assertEquals("A", q.head());
+            q.add("C", 7);
+            assertEquals("C", q.head());
+            q.addAll(Arrays.asList(new PriorityItem<>("D", 9), new PriorityItem<>("E", 1)));
+            assertEquals("D", q.head());
+            assertEquals("D", q.poll());
+            assertEquals("C", q.head());
+            q.add("F", 7);
+            assertEquals("C", q.head());
+            
+            String [] expected = { "C", "F", "A", "B", "E" };
+            for(String name : expected)
+            {
+                assertEquals(name, q.head());
+                assertEquals(name, q.poll());
+            }
+            assertTrue(q.isEmpty());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
 }
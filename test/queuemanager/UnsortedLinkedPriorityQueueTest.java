@@ -1,6 +1,7 @@
 package queuemanager;
 
 import static org.junit.Assert.*;
+import java.util.Arrays;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -54,4 +55,41 @@ public class UnsortedLinkedPriorityQueueTest extends PriorityQueueTestBase
        }
     }
     
+    /**
+     * Tests that head stays correct when items are added after the highest
+     * priority item has been found, so that the cached maximum is kept up to
+     * date, including for ties and batches.
+     */
+    @Test
+    public void shouldKeepHeadCorrectWhenAddingAfterHead()
+    {
+        try
+        {
+            q.add("A", 5);
+            assertEquals("A", q.head());
+            q.add("B", 5);
+            assertEquals("A", q.head());
+            q.add("C", 7);
+            assertEquals("C", q.head());
+            q.addAll(Arrays.asList(new PriorityItem<>("D", 9), new PriorityItem<>("E", 1)));
+            assertEquals("D", q.head());
+            assertEquals("D", q.poll());
+            assertEquals("C", q.head());
+            q.add("F", 7);
+            assertEquals("C", q.head());
+            
+            String [] expected = { "C", "F", "A", "B", "E" };
+            for(String name : expected)
+            {
+                assertEquals(name, q.head());
+                assertEquals(name, q.poll());
+            }
+            assertTrue(q.isEmpty());
+        } catch(QueueOverflowException e) {
+            fail("QueueOverflowException received when adding to a queue that is not full");
+        } catch(QueueUnderflowException e) {
+            fail("QueueUnderflowException received when removing from a queue that is not empty");
+        }
+    }
+    
 }